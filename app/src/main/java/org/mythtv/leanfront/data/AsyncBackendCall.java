@@ -19,18 +19,13 @@
 
 package org.mythtv.leanfront.data;
 
-import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.os.AsyncTask;
 import android.util.Log;
 
-import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.model.RecordRule;
 import org.mythtv.leanfront.model.Settings;
 import org.mythtv.leanfront.model.Video;
-import org.mythtv.leanfront.model.VideoCursorMapper;
 import org.mythtv.leanfront.ui.MainActivity;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -45,9 +40,11 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Objects;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 
 public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
@@ -68,6 +65,7 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
     private ArrayList<XmlNode> mXmlResults = new ArrayList<>();
     private Date mStartTime;
     private Date mEndTime;
+    private int[] mChanIds;
     private int mId;
     private String mName;
     private RecordRule mRecordRule;
@@ -76,8 +74,6 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
     // Parsing results of GetRecorded
     private static final String[] XMLTAGS_RECGROUP = {"Recording","RecGroup"};
     private static final String[] XMLTAGS_PROGRAMFLAGS = {"ProgramFlags"};
-    private static final String[] XMLTAGS_RECORDID = {"Recording", "RecordId"};
-    private static final String[] XMLTAGS_RECORDEDID = {"Recording", "RecordedId"};
     private static final String[] XMLTAGS_ENDTIME = {"Recording", "EndTs"};
     private static final String XMLTAG_WATCHED = "Watched";
     private static final String VALUE_WATCHED = (new Integer(Video.FL_WATCHED)).toString();
@@ -89,6 +85,22 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
     private static HashMap<String, XmlNode> mStreamInfoCache = new HashMap<>();
     private static long mTimeAdjustment = 0;
 
+    // Cache of Dvr lists used by the schedule editor that rarely change.
+    // Cleared when a recording rule is saved or deleted.
+    private static final HashMap<Integer, CachedList> sListCache = new HashMap<>();
+    // Guide requests for single channels, run this many at a time. The
+    // shared pool may only have one thread free for them.
+    private static final int GUIDE_CONNECTIONS = 4;
+    private static final ExecutorService sGuideExecutor
+            = Executors.newFixedThreadPool(GUIDE_CONNECTIONS);
+    // Dvr lists being fetched in parallel for this call
+    private HashMap<Integer, FutureTask<XmlNode>> mListFetches;
+
+    private static class CachedList {
+        XmlNode result;
+        long time;
+    }
+
     public AsyncBackendCall(Video videoA, long valueA, boolean watched,
             OnBackendCallListener backendCallListener) {
         mVideo = videoA;
@@ -149,6 +161,23 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
         this.mEndTime = mEndTime;
     }
 
+    public Date getStartTime() {
+        return mStartTime;
+    }
+
+    public Date getEndTime() {
+        return mEndTime;
+    }
+
+    // Limit ACTION_GUIDE to these channels, one result per channel
+    public void setChanIds(int[] chanIds) {
+        this.mChanIds = chanIds;
+    }
+
+    public int[] getChanIds() {
+        return mChanIds;
+    }
+
     public void setId(int id) {
         this.mId = id;
     }
@@ -181,8 +210,126 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
         }
     }
 
+    public static void clearCachedLists() {
+        synchronized (sListCache) {
+            sListCache.clear();
+        }
+    }
+
+    // Name of the Dvr service method for a list action, or null
+    private static String getDvrListMethod(int task) {
+        switch (task) {
+            case Video.ACTION_GETPLAYGROUPLIST:
+                return "GetPlayGroupList";
+            case Video.ACTION_GETRECGROUPLIST:
+                return "GetRecGroupList";
+            case Video.ACTION_GETRECSTORAGEGROUPLIST:
+                return "GetRecStorageGroupList";
+            case Video.ACTION_GETINPUTLIST:
+                return "GetInputList";
+            case Video.ACTION_GETRECORDSCHEDULELIST:
+                return "GetRecordScheduleList";
+            case Video.ACTION_GETRECRULEFILTERLIST:
+                return "GetRecRuleFilterList";
+            case Video.ACTION_GETUPCOMINGLIST:
+                return "GetUpcomingList";
+        }
+        return null;
+    }
+
+    // How long a Dvr list may be cached, milliseconds. 0 for lists
+    // that must always be fetched.
+    private static long getDvrListTtl(int task) {
+        switch (task) {
+            case Video.ACTION_GETPLAYGROUPLIST:
+            case Video.ACTION_GETRECSTORAGEGROUPLIST:
+            case Video.ACTION_GETRECRULEFILTERLIST:
+                return 60 * 60 * 1000;
+            case Video.ACTION_GETRECGROUPLIST:
+            case Video.ACTION_GETINPUTLIST:
+                return 10 * 60 * 1000;
+        }
+        return 0;
+    }
+
+    private static XmlNode getCachedList(int task) {
+        long ttl = getDvrListTtl(task);
+        if (ttl == 0)
+            return null;
+        synchronized (sListCache) {
+            CachedList cached = sListCache.get(task);
+            if (cached != null && System.currentTimeMillis() - cached.time < ttl)
+                return cached.result;
+        }
+        return null;
+    }
+
+    private static XmlNode fetchDvrList(int task) {
+        String method = getDvrListMethod(task);
+        XmlNode xmlResult = null;
+        try {
+            String urlString = XmlNode.mythApiUrl(null,
+                    "/Dvr/" + method);
+            xmlResult = XmlNode.fetch(urlString, null);
+        } catch (Exception e) {
+            Log.e(TAG, CLASS + " Exception In " + method, e);
+        }
+        if (xmlResult != null && getDvrListTtl(task) > 0) {
+            CachedList cached = new CachedList();
+            cached.result = xmlResult;
+            cached.time = System.currentTimeMillis();
+            synchronized (sListCache) {
+                sListCache.put(task, cached);
+            }
+        }
+        return xmlResult;
+    }
+
+    // When a call has other tasks as well as Dvr lists that are not
+    // cached, start fetching the lists at once, so they run alongside
+    // each other and the other tasks instead of one after another.
+    // Not done after ACTION_PAUSE, which waits for the backend to update.
+    private void startListFetches(Integer[] tasks) {
+        if (tasks.length < 2)
+            return;
+        ArrayList<Integer> needed = new ArrayList<>();
+        for (Integer task : tasks) {
+            if (task == Video.ACTION_PAUSE)
+                return;
+            if (getDvrListMethod(task) != null && getCachedList(task) == null
+                    && !needed.contains(task))
+                needed.add(task);
+        }
+        if (needed.isEmpty())
+            return;
+        mListFetches = new HashMap<>();
+        for (Integer task : needed) {
+            FutureTask<XmlNode> future = new FutureTask<>(() -> fetchDvrList(task));
+            mListFetches.put(task, future);
+            THREAD_POOL_EXECUTOR.execute(future);
+        }
+    }
+
+    private XmlNode getDvrList(int task) {
+        XmlNode xmlResult = getCachedList(task);
+        if (xmlResult != null)
+            return xmlResult;
+        FutureTask<XmlNode> future = null;
+        if (mListFetches != null)
+            future = mListFetches.get(task);
+        if (future == null)
+            return fetchDvrList(task);
+        try {
+            return future.get();
+        } catch (Exception e) {
+            Log.e(TAG, CLASS + " Exception In " + getDvrListMethod(task), e);
+            return null;
+        }
+    }
+
     protected Void doInBackground(Integer ... tasks) {
         mTasks = new int[tasks.length];
+        startListFetches(tasks);
         boolean isRecording = (mVideo != null && mVideo.recGroup != null);
         HttpURLConnection urlConnection = null;
         for (int count = 0; count < tasks.length; count++) {
@@ -205,39 +352,7 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
                         // for a MythTV bookmark.
 
                         // Look for a local bookmark
-                        VideoDbHelper dbh = new VideoDbHelper(context);
-                        SQLiteDatabase db = dbh.getReadableDatabase();
-
-                        // Define a projection that specifies which columns from the database
-                        // you will actually use after this query.
-                        String[] projection = {
-                                VideoContract.StatusEntry._ID,
-                                VideoContract.StatusEntry.COLUMN_VIDEO_URL,
-                                VideoContract.StatusEntry.COLUMN_LAST_USED,
-                                VideoContract.StatusEntry.COLUMN_BOOKMARK
-                        };
-
-                        // Filter results
-                        String selection = VideoContract.StatusEntry.COLUMN_VIDEO_URL + " = ?";
-                        String[] selectionArgs = {mVideo.videoUrl};
-
-                        Cursor cursor = db.query(
-                                VideoContract.StatusEntry.TABLE_NAME,   // The table to query
-                                projection,             // The array of columns to return (pass null to get all)
-                                selection,              // The columns for the WHERE clause
-                                selectionArgs,          // The values for the WHERE clause
-                                null,                   // don't group the rows
-                                null,                   // don't filter by row groups
-                                null               // The sort order
-                        );
-
-                        // We expect one or zero results, never more than one.
-                        if (cursor.moveToNext()) {
-                            int colno = cursor.getColumnIndex(VideoContract.StatusEntry.COLUMN_BOOKMARK);
-                            mValue = cursor.getLong(colno);
-                        }
-                        cursor.close();
-                        db.close();
+                        mValue = VideoDbHelper.getInstance(context).getBookmark(mVideo.videoUrl);
 
                         String pref = Settings.getString("pref_bookmark");
                         XmlNode bkmrkData = null;
@@ -400,35 +515,7 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
                         }
 
                         // Update local bookmark
-
-                        // Gets the data repository in write mode
-                        VideoDbHelper dbh = new VideoDbHelper(main);
-                        SQLiteDatabase db = dbh.getWritableDatabase();
-
-                        // Create a new map of values, where column names are the keys
-                        ContentValues values = new ContentValues();
-                        Date now = new Date();
-                        values.put(VideoContract.StatusEntry.COLUMN_LAST_USED, now.getTime());
-                        values.put(VideoContract.StatusEntry.COLUMN_BOOKMARK, localBkmark);
-
-                        // First try an update
-                        String selection = VideoContract.StatusEntry.COLUMN_VIDEO_URL + " = ?";
-                        String[] selectionArgs = {mVideo.videoUrl};
-
-                        int sqlCount = db.update(
-                                VideoContract.StatusEntry.TABLE_NAME,
-                                values,
-                                selection,
-                                selectionArgs);
-
-                        if (sqlCount == 0 && localBkmark > 0) {
-                            // Try an insert instead
-                            values.put(VideoContract.StatusEntry.COLUMN_VIDEO_URL, mVideo.videoUrl);
-                            // Insert the new row, returning the primary key value of the new row
-                            long newRowId = db.insert(VideoContract.StatusEntry.TABLE_NAME,
-                                    null, values);
-                        }
-                        db.close();
+                        VideoDbHelper.getInstance(main).setBookmark(mVideo.videoUrl, localBkmark);
                     } catch (IOException | XmlPullParserException e) {
                         e.printStackTrace();
                     }
@@ -497,6 +584,7 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
                     // Replace the video (channel dummy video) in this object with the recording
                     Video channel = mVideo;
                     mVideo = null;
+                    LiveTvTuner tuner = new LiveTvTuner(context, channel);
                     try {
                         // Get values needed to set up recording
                         Date startTime = new Date(System.currentTimeMillis() + mTimeAdjustment);
@@ -513,115 +601,13 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
                             duration = 15;
                         else if (duration > 360)
                             duration = 360;
-                        Date endTime = new Date(startTime.getTime()+duration*60*1000);
-                        SimpleDateFormat sdfDate = new SimpleDateFormat("yyyy-MM-dd");
-                        SimpleDateFormat sdfTime = new SimpleDateFormat("HH:mm:ss");
-                        String recDate = sdfDate.format(startTime);
-                        String recTime = sdfTime.format(startTime);
-                        String title = context.getString(R.string.title_livetv_recording)
-                                + " " + recDate;
-                        String subtitle = recTime + " ch " + channel.channum;
-                        SimpleDateFormat sdfUTC = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                        sdfUTC.setTimeZone(TimeZone.getTimeZone("UTC"));
-                        urlString = XmlNode.mythApiUrl(null,
-                                "/Dvr/AddRecordSchedule?Title="
-                                        + URLEncoder.encode(title, "UTF-8")
-                                        + "&Subtitle=" + URLEncoder.encode(subtitle, "UTF-8")
-                                        + "&Chanid=" + channel.chanid
-                                        + "&Station=" + channel.callsign
-                                        + "&StartTime=" + URLEncoder.encode(sdfUTC.format(startTime), "UTF-8")
-                                        + "&EndTime=" + URLEncoder.encode(sdfUTC.format(endTime), "UTF-8")
-                                        + "&Type=Single+Record"
-                                        // Use a nonsense FindDay and FindTime because they are required by the API
-                                        // but not used for this type of recording.
-                                        + "&FindDay=1&FindTime=21%3A30%3A00"
-                                        + "&SearchType=Manual+Search&AutoExpire=true&RecPriority=-99"
-                                        + "&RecGroup=LiveTV&StorageGroup=LiveTV"
-                                        );
-                        response = XmlNode.fetch(urlString, "POST");
-                        String result = response.getString();
-                        Log.i(TAG, CLASS + " Live TV scheduled, RecordId:" + result);
-                        mRecordId = Integer.parseInt(result);
-                        // Now try to find the recording
-                        urlString = XmlNode.mythApiUrl(null,
-                                "/Dvr/GetRecordedList?RecGroup=LiveTV"
-                                + "&TitleRegEx=" + URLEncoder.encode("^"+title+"$", "UTF-8"));
-                        found = false;
-                        int ixFound = -1;
-                        for (int icount = 0; icount < 15 && !found; icount ++) {
-                            response = XmlNode.fetch(urlString,null);
-                            Log.d(TAG, CLASS + " Found " + response.getString("Count") +" recordings");
-                            XmlNode programNode = null;
-                            for (ixFound = 0; ; ixFound++ ) {
-                                if (programNode == null)
-                                    programNode = response.getNode(VideoDbBuilder.XMLTAGS_PROGRAM, 0);
-                                else
-                                    programNode = programNode.getNextSibling();
-                                if (programNode == null)
-                                    break;
-                                String tmpRecordId = programNode.getString(XMLTAGS_RECORDID);
-                                if (tmpRecordId != null && Integer.parseInt(tmpRecordId) == mRecordId) {
-                                    String fileSizeStr = programNode.getString(VideoDbBuilder.XMLTAG_FILESIZE);
-                                    String tmpRecordedId = programNode.getString(XMLTAGS_RECORDEDID);
-                                    if (tmpRecordedId != null)
-                                        mRecordedId = Integer.parseInt(tmpRecordedId);
-                                    long fileSize = 0;
-                                    if (fileSizeStr != null)
-                                        fileSize = Long.parseLong(fileSizeStr);
-                                    // Skip dummy LiveTV entry
-                                    if (fileSize > 1000) {
-                                        Log.i(TAG, CLASS + " Found matching recording " + ixFound + ". RecordedId:" + tmpRecordedId);
-                                        found = true;
-                                        break;
-                                    }
-                                }
-                            }
-                            Thread.sleep(1000);
-                        }
-                        if (!found || ixFound < 0) {
-                            Log.e(TAG, CLASS + " Failed to find matching recording.");
-                            return null;
-                        }
-                        VideoDbBuilder builder = new VideoDbBuilder(context);
-                        List<ContentValues> contentValuesList = new ArrayList<>();
-                        builder.buildMedia(response, 0, ixFound, contentValuesList);
-                        ContentValues[] downloadedVideoContentValues =
-                                contentValuesList.toArray(new ContentValues[contentValuesList.size()]);
-                        context.getContentResolver().bulkInsert(VideoContract.VideoEntry.CONTENT_URI,
-                                downloadedVideoContentValues);
-
-                        // Get recording from DB
-                        VideoDbHelper dbh = new VideoDbHelper(context);
-                        SQLiteDatabase db = dbh.getReadableDatabase();
-
-                        // Filter results
-                        String selection = VideoContract.VideoEntry.COLUMN_RECORDEDID + " = " + mRecordedId
-                                + " AND " + VideoContract.VideoEntry.COLUMN_RECTYPE
-                                           + " = " + VideoContract.VideoEntry.RECTYPE_RECORDING;
-                        Cursor cursor = db.query(
-                                VideoContract.VideoEntry.TABLE_NAME,   // The table to query
-                                null,             // The array of columns to return (pass null to get all)
-                                selection,              // The columns for the WHERE clause
-                                null,          // The values for the WHERE clause
-                                null,                   // don't group the rows
-                                null,                   // don't filter by row groups
-                                null               // The sort order
-                        );
-
-                        // We expect one or zero results, never more than one.
-                        if (cursor.moveToNext()) {
-                            VideoCursorMapper mapper = new VideoCursorMapper();
-                            mVideo = (Video) mapper.convert(cursor);
-                        }
-                        else
-                            Log.e(TAG, CLASS + " Failed to find recording on SQLite.");
-
-                        cursor.close();
-                        db.close();
-                        Thread.sleep(5000);
+                        if (tuner.tune(startTime, duration))
+                            mVideo = tuner.getVideo();
                     } catch (Exception e) {
                         Log.e(TAG, CLASS + " Exception setting up Live TV.", e);
                     }
+                    mRecordId = tuner.getRecordId();
+                    mRecordedId = tuner.getRecordedId();
                     break;
                 case Video.ACTION_STOP_RECORDING:
                     // Stop recording
@@ -733,6 +719,29 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
                                         + URLEncoder.encode(sdfUTC.format(mStartTime), "UTF-8")
                                         + "&EndTime=" + URLEncoder.encode(sdfUTC.format(mEndTime), "UTF-8")
                                         + "&Details=1");
+                        if (mChanIds != null) {
+                            // Small requests for the given channels, so they
+                            // can be shown quickly. They are fetched in
+                            // parallel and the results kept in channel order.
+                            ArrayList<FutureTask<XmlNode>> fetches = new ArrayList<>();
+                            for (int chanId : mChanIds) {
+                                String chanUrl = urlString + "&ChanId=" + chanId;
+                                FutureTask<XmlNode> future
+                                        = new FutureTask<>(() -> XmlNode.fetch(chanUrl, null));
+                                fetches.add(future);
+                                sGuideExecutor.execute(future);
+                            }
+                            for (FutureTask<XmlNode> future : fetches) {
+                                xmlResult = null;
+                                try {
+                                    xmlResult = future.get();
+                                } catch (Exception e) {
+                                    Log.e(TAG, CLASS + " Exception Getting Guide.", e);
+                                }
+                                mXmlResults.add(xmlResult);
+                            }
+                            break;
+                        }
                         xmlResult = XmlNode.fetch(urlString, null);
                     } catch (Exception e) {
                         Log.e(TAG, CLASS + " Exception Getting Guide.", e);
@@ -834,6 +843,8 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
                     } catch (Exception e) {
                         Log.e(TAG, CLASS + " Exception Updating Record Schedule.", e);
                     }
+                    // The rule may have added a recording group
+                    clearCachedLists();
                     mXmlResults.add(xmlResult);
                     break;
 
@@ -859,6 +870,7 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
                     } catch (Exception e) {
                         Log.e(TAG, CLASS + " Exception removing Record Schedule.", e);
                     }
+                    clearCachedLists();
                     mXmlResults.add(xmlResult);
                     break;
 
@@ -875,39 +887,9 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
                     break;
 
                 default:
-                    String method = null;
-                    switch (task) {
-                        case Video.ACTION_GETPLAYGROUPLIST:
-                            method = "GetPlayGroupList";
-                            break;
-                        case Video.ACTION_GETRECGROUPLIST:
-                            method = "GetRecGroupList";
-                            break;
-                        case Video.ACTION_GETRECSTORAGEGROUPLIST:
-                            method = "GetRecStorageGroupList";
-                            break;
-                        case Video.ACTION_GETINPUTLIST:
-                            method = "GetInputList";
-                            break;
-                        case Video.ACTION_GETRECORDSCHEDULELIST:
-                            method = "GetRecordScheduleList";
-                            break;
-                        case Video.ACTION_GETRECRULEFILTERLIST:
-                            method = "GetRecRuleFilterList";
-                            break;
-                        case Video.ACTION_GETUPCOMINGLIST:
-                            method = "GetUpcomingList";
-                            break;
-                    }
-                    if (method == null)
+                    if (getDvrListMethod(task) == null)
                         break;
-                    try {
-                        urlString = XmlNode.mythApiUrl(null,
-                                        "/Dvr/" + method);
-                        xmlResult = XmlNode.fetch(urlString, null);
-                    } catch (Exception e) {
-                        Log.e(TAG, CLASS + " Exception In " + method, e);
-                    }
+                    xmlResult = getDvrList(task);
                     mXmlResults.add(xmlResult);
             }
         }
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.mythtv.leanfront.model.Video;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The breaks of a recording that are skipped in playback, from its cut
+ * list, or its commercial break list if it has no cut list. Each break has
+ * its start and end time, and where known the file offsets of the key
+ * frames around it from the seek table, so that the data source can stop
+ * loading when it reaches a break instead of downloading it.
+ *
+ * Lists are loaded once per recording and kept for the most recently
+ * played recordings.
+ */
+public class CutList {
+
+    private static final String TAG = "lfe";
+    private static final String CLASS = "CutList";
+    // Mark types from MythTV libmyth/programtypes.h
+    private static final int MARK_CUT_END = 0;
+    private static final int MARK_CUT_START = 1;
+    private static final int MARK_COMM_START = 4;
+    private static final int MARK_COMM_END = 5;
+    private static final int MAX_CACHED = 10;
+
+    /**
+     * One break. Byte offsets are -1 when the seek table is not available.
+     */
+    public static class Break {
+        public final long startMs;
+        public final long endMs;
+        // Offset of the first key frame at or after the start
+        public final long startByte;
+        // Offset of the last key frame at or before the end
+        public final long endByte;
+
+        Break(long startMs, long endMs, long startByte, long endByte) {
+            this.startMs = startMs;
+            this.endMs = endMs;
+            this.startByte = startByte;
+            this.endByte = endByte;
+        }
+    }
+
+    public interface Listener {
+        void onCutListLoaded(CutList cutList);
+    }
+
+    private static final LinkedHashMap<String, CutList> sCache
+            = new LinkedHashMap<String, CutList>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CutList> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private final Break[] mBreaks;
+
+    private CutList(Break[] breaks) {
+        mBreaks = breaks;
+    }
+
+    public boolean isEmpty() {
+        return mBreaks.length == 0;
+    }
+
+    /**
+     * Find the break that starts within a window of a position.
+     * @param positionMs Playback position
+     * @param beforeMs How far before the start of a break to match
+     * @param afterMs How far after the start of a break to match
+     * @return The break, or null if there is none
+     */
+    public Break findBreakStart(long positionMs, long beforeMs, long afterMs) {
+        for (Break brk : mBreaks) {
+            if (positionMs >= brk.startMs - beforeMs && positionMs < brk.startMs + afterMs
+                    && positionMs < brk.endMs)
+                return brk;
+        }
+        return null;
+    }
+
+    /**
+     * Find where loading should stop for a read from a file position.
+     * @param filePosition Offset that reading starts from
+     * @return Offset of the start of the next break, or -1 if there is none
+     */
+    public long getLoadLimit(long filePosition) {
+        for (Break brk : mBreaks) {
+            if (brk.startByte > filePosition && brk.endByte > brk.startByte)
+                return brk.startByte;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the list for a recording if it has already been loaded.
+     */
+    public static CutList getCached(String recordedId) {
+        synchronized (sCache) {
+            return sCache.get(recordedId);
+        }
+    }
+
+    /**
+     * Load the list for a recording in the background, or from the cache.
+     * The listener is called on the main thread, with null if the list
+     * could not be loaded.
+     */
+    public static void load(Video video, Listener listener) {
+        String recordedId = video.recordedid;
+        CutList cached = getCached(recordedId);
+        if (cached != null) {
+            listener.onCutListLoaded(cached);
+            return;
+        }
+        int progflags = 0;
+        try {
+            progflags = Integer.parseInt(video.progflags);
+        } catch (NumberFormatException | NullPointerException ignored) {
+        }
+        String method;
+        if ((progflags & Video.FL_CUTLIST) != 0)
+            method = "GetRecordedCutList";
+        else if ((progflags & Video.FL_COMMFLAG) != 0)
+            method = "GetRecordedCommBreak";
+        else {
+            listener.onCutListLoaded(new CutList(new Break[0]));
+            return;
+        }
+        Handler handler = new Handler(Looper.getMainLooper());
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            CutList cutList = null;
+            try {
+                cutList = fetch(recordedId, method);
+                synchronized (sCache) {
+                    sCache.put(recordedId, cutList);
+                }
+                Log.i(TAG, CLASS + " Recording " + recordedId + " has "
+                        + cutList.mBreaks.length + " breaks");
+            } catch (IOException | XmlPullParserException e) {
+                Log.e(TAG, CLASS + " Exception loading cut list " + recordedId, e);
+            }
+            CutList result = cutList;
+            handler.post(() -> listener.onCutListLoaded(result));
+        });
+    }
+
+    private static CutList fetch(String recordedId, String method)
+            throws IOException, XmlPullParserException {
+        String params = "/Dvr/" + method + "?RecordedId=" + recordedId + "&OffsetType=";
+        long[][] times = getMarks(XmlNode.fetch(XmlNode.mythApiUrl(null,
+                params + "Duration"), null));
+        long[][] frames = getMarks(XmlNode.fetch(XmlNode.mythApiUrl(null,
+                params + "Position"), null));
+        if (times.length == 0)
+            return new CutList(new Break[0]);
+        // Key frame number and file offset, in frame order
+        long[][] seek = null;
+        if (frames.length == times.length) {
+            try {
+                seek = getMarks(XmlNode.fetch(XmlNode.mythApiUrl(null,
+                        "/Dvr/GetRecordedSeek?RecordedId=" + recordedId
+                                + "&OffsetType=BYTES"), null));
+                Arrays.sort(seek, (a, b) -> Long.compare(a[0], b[0]));
+            } catch (IOException | XmlPullParserException e) {
+                // Older backends, breaks are still skipped but are loaded
+                Log.i(TAG, CLASS + " No seek table for " + recordedId + ": " + e);
+            }
+        }
+        ArrayList<Break> breaks = new ArrayList<>();
+        long startMs = -1;
+        long startFrame = -1;
+        for (int ix = 0; ix < times.length; ix++) {
+            int type = (int) times[ix][0];
+            if (type == MARK_CUT_START || type == MARK_COMM_START) {
+                if (startMs < 0) {
+                    startMs = times[ix][1];
+                    startFrame = seek == null ? -1 : frames[ix][1];
+                }
+            }
+            else if (type == MARK_CUT_END || type == MARK_COMM_END) {
+                // An end with no start is a break at the beginning
+                if (startMs < 0) {
+                    startMs = 0;
+                    startFrame = 0;
+                }
+                long startByte = -1;
+                long endByte = -1;
+                if (seek != null) {
+                    startByte = keyFrameOffset(seek, startFrame, true);
+                    endByte = keyFrameOffset(seek, frames[ix][1], false);
+                }
+                breaks.add(new Break(startMs, times[ix][1], startByte, endByte));
+                startMs = -1;
+            }
+        }
+        // A break running to the end is not skipped, playback ends there
+        return new CutList(breaks.toArray(new Break[0]));
+    }
+
+    // Get the type and offset of each mark in a response
+    private static long[][] getMarks(XmlNode response) {
+        ArrayList<long[]> marks = new ArrayList<>();
+        XmlNode cutting = response.getNode(new String[]{"Cuttings", "Cutting"}, 0);
+        while (cutting != null) {
+            try {
+                marks.add(new long[]{Long.parseLong(cutting.getString("Mark")),
+                        Long.parseLong(cutting.getString("Offset"))});
+            } catch (NumberFormatException | NullPointerException ignored) {
+            }
+            cutting = cutting.getNextSibling();
+        }
+        return marks.toArray(new long[0][]);
+    }
+
+    // Offset of the key frame after (or before) a frame, -1 if there is none
+    private static long keyFrameOffset(long[][] seek, long frame, boolean after) {
+        int low = 0;
+        int high = seek.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (after ? seek[mid][0] >= frame : seek[mid][0] <= frame) {
+                found = mid;
+                if (after)
+                    high = mid - 1;
+                else
+                    low = mid + 1;
+            }
+            else if (after)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return found < 0 ? -1 : seek[found][1];
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import static org.mythtv.leanfront.data.XmlNode.mythApiUrl;
+
+/**
+ * FetchGuideService keeps a local copy of the program guide for the next
+ * GUIDE_DAYS days, for searching. The guide is fetched in ranges of
+ * RANGE_HOURS, nearest first, and only ranges that are missing or were
+ * fetched more than REFRESH_HOURS ago are fetched again.
+ */
+public class FetchGuideService extends IntentService {
+    private static final String TAG = "FetchGuideService";
+    private static final int GUIDE_DAYS = 14;
+    private static final int RANGE_HOURS = 6;
+    private static final int REFRESH_HOURS = 12;
+    private static final long RANGE_MILLIS = RANGE_HOURS * 60 * 60 * 1000L;
+    private static final long REFRESH_MILLIS = REFRESH_HOURS * 60 * 60 * 1000L;
+
+    /**
+     * Creates an IntentService with a default name for the worker thread.
+     */
+    public FetchGuideService() {
+        super(TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent workIntent) {
+        SQLiteDatabase db = VideoDbHelper.getInstance(this).getWritableDatabase();
+        long now = System.currentTimeMillis();
+        long firstStart = now / RANGE_MILLIS * RANGE_MILLIS;
+        int rangeCount = (int) (GUIDE_DAYS * 24 / RANGE_HOURS);
+        SimpleDateFormat sdfUTC = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        sdfUTC.setTimeZone(TimeZone.getTimeZone("UTC"));
+        boolean written = false;
+        try {
+            GuideDbBuilder.expire(db, firstStart);
+            for (int ix = 0; ix < rangeCount; ix++) {
+                long rangeStart = firstStart + ix * RANGE_MILLIS;
+                long rangeEnd = rangeStart + RANGE_MILLIS;
+                if (GuideDbBuilder.getFetchTime(db, rangeStart) > now - REFRESH_MILLIS)
+                    continue;
+                String url = mythApiUrl(null, "/Guide/GetProgramList?StartTime="
+                        + URLEncoder.encode(sdfUTC.format(new Date(rangeStart)), "UTF-8")
+                        + "&EndTime=" + URLEncoder.encode(sdfUTC.format(new Date(rangeEnd)), "UTF-8")
+                        + "&Details=1");
+                XmlNode result = XmlNode.fetch(url, null);
+                if (result == null)
+                    break;
+                GuideDbBuilder.writeRange(db, result, rangeStart, rangeEnd, ix == 0);
+                written = true;
+            }
+        } catch (IOException | XmlPullParserException e) {
+            Log.e(TAG, "Error occurred in downloading guide", e);
+        }
+        // Guide searches that are open load again with the new programs
+        if (written)
+            getContentResolver().notifyChange(VideoContract.GuideEntry.SEARCH_URI, null);
+    }
+}
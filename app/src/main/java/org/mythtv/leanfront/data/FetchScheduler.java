@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.content.Context;
+import android.content.Intent;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+/**
+ * Collects requests to refresh the local video list and hands them to
+ * FetchVideoService in batches. While a batch is waiting for the service,
+ * new requests are merged into it: single recordings are fetched together,
+ * and are dropped when a fetch of their whole type or a full fetch is
+ * already waiting. Only one service intent is outstanding at a time.
+ */
+public class FetchScheduler {
+
+    /**
+     * The fetches waiting to be run.
+     */
+    public static class Batch {
+        // Fetch everything
+        public boolean full;
+        // Types to fetch completely
+        public final HashSet<Integer> recTypes = new HashSet<>();
+        // Recording groups to fetch
+        public final LinkedHashSet<String> recGroups = new LinkedHashSet<>();
+        // Single items to fetch, by type
+        public final HashMap<Integer, LinkedHashSet<String>> recordedIds = new HashMap<>();
+
+        boolean isEmpty() {
+            return !full && recTypes.isEmpty() && recGroups.isEmpty() && recordedIds.isEmpty();
+        }
+    }
+
+    private static Batch sPending = new Batch();
+    private static boolean sServiceQueued;
+
+    /**
+     * Request a fetch.
+     * @param recType -1 for everything, otherwise the type to fetch
+     * @param recordedId id of a single item, or null
+     * @param recGroup recording group to fetch, or null
+     */
+    public static void schedule(Context context, int recType, String recordedId, String recGroup) {
+        synchronized (FetchScheduler.class) {
+            add(recType, recordedId, recGroup);
+            if (sServiceQueued)
+                return;
+            sServiceQueued = true;
+        }
+        context.startService(new Intent(context, FetchVideoService.class));
+    }
+
+    /**
+     * Take the waiting fetches. Requests made after this start a new batch.
+     * @return The batch, null if there is nothing to fetch.
+     */
+    public static synchronized Batch takeBatch() {
+        Batch batch = sPending;
+        sPending = new Batch();
+        sServiceQueued = false;
+        return batch.isEmpty() ? null : batch;
+    }
+
+    private static void add(int recType, String recordedId, String recGroup) {
+        Batch batch = sPending;
+        if (batch.full)
+            return;
+        if (recType == -1) {
+            sPending = new Batch();
+            sPending.full = true;
+            return;
+        }
+        if (batch.recTypes.contains(recType))
+            return;
+        boolean isRecording = recType == VideoContract.VideoEntry.RECTYPE_RECORDING;
+        if (recordedId != null) {
+            LinkedHashSet<String> ids = batch.recordedIds.get(recType);
+            if (ids == null) {
+                ids = new LinkedHashSet<>();
+                batch.recordedIds.put(recType, ids);
+            }
+            ids.add(recordedId);
+        }
+        else if (recGroup != null && isRecording)
+            batch.recGroups.add(recGroup);
+        else {
+            batch.recTypes.add(recType);
+            batch.recordedIds.remove(recType);
+            if (isRecording)
+                batch.recGroups.clear();
+        }
+    }
+}
@@ -25,6 +25,7 @@
 package org.mythtv.leanfront.data;
 
 import android.app.IntentService;
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.database.sqlite.SQLiteDatabase;
@@ -36,19 +37,19 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import static org.mythtv.leanfront.data.XmlNode.mythApiUrl;
 
 /**
  * FetchVideoService is responsible for fetching the videos from the Internet and inserting the
- * results into a local SQLite database.
+ * results into a local SQLite database. Requests are queued with FetchScheduler, and each
+ * intent runs all the fetches waiting at that time, with a single insert into the database.
  */
 public class FetchVideoService extends IntentService {
     private static final String TAG = "FetchVideoService";
-    public static final String RECORDEDID = "RecordedId";
-    public static final String RECTYPE = "RecType";
-    public static final String RECGROUP = "RecGroup";
 
     /**
      * Creates an IntentService with a default name for the worker thread.
@@ -59,15 +60,58 @@ public class FetchVideoService extends IntentService {
 
     @Override
     protected void onHandleIntent(Intent workIntent) {
-        int recType = workIntent.getIntExtra(RECTYPE, -1);
-        String recordedId = workIntent.getStringExtra(RECORDEDID);
-        String recGroup = workIntent.getStringExtra(RECGROUP);
-
-        if (recType != VideoContract.VideoEntry.RECTYPE_RECORDING)
-            recGroup = null;
+        FetchScheduler.Batch batch = FetchScheduler.takeBatch();
+        if (batch == null)
+            return;
 
         VideoDbBuilder builder = new VideoDbBuilder(getApplicationContext());
+        List<ContentValues> contentValuesList = new ArrayList<>();
+        List<String> deletes = new ArrayList<>();
+
+        if (batch.full)
+            fetch(builder, -1, null, null, contentValuesList, deletes);
+        else {
+            for (int recType : batch.recTypes)
+                fetch(builder, recType, null, null, contentValuesList, deletes);
+            for (String recGroup : batch.recGroups)
+                fetch(builder, VideoContract.VideoEntry.RECTYPE_RECORDING, null, recGroup,
+                        contentValuesList, deletes);
+            for (Map.Entry<Integer, LinkedHashSet<String>> entry
+                    : batch.recordedIds.entrySet()) {
+                for (String recordedId : entry.getValue())
+                    fetch(builder, entry.getKey(), recordedId, null, contentValuesList, deletes);
+            }
+        }
+        if (deletes.isEmpty())
+            return;
 
+        ContentValues[] downloadedVideoContentValues =
+                contentValuesList.toArray(new ContentValues[contentValuesList.size()]);
+        ContentResolver resolver = getApplicationContext().getContentResolver();
+        if (batch.full) {
+            // Replacing everything, the derived tables are rebuilt once
+            SQLiteDatabase db = VideoDbHelper.getInstance(this).getWritableDatabase();
+            db.delete(VideoContract.VideoEntry.TABLE_NAME, null, null);
+            resolver.bulkInsert(VideoContract.VideoEntry.buildFullSyncUri(),
+                    downloadedVideoContentValues);
+            return;
+        }
+        // Through the provider, so only the groups of the rows
+        // replaced are updated in the derived tables
+        for (String delete : deletes)
+            resolver.delete(VideoContract.VideoEntry.CONTENT_URI, delete, null);
+        resolver.bulkInsert(VideoContract.VideoEntry.CONTENT_URI,
+                downloadedVideoContentValues);
+    }
+
+    /**
+     * Fetch one request, adding the results to contentValuesList and the selections
+     * of the rows being replaced to deletes. Nothing is added if it fails.
+     */
+    private void fetch(VideoDbBuilder builder, int recType, String recordedId, String recGroup,
+                       List<ContentValues> contentValuesList, List<String> deletes) {
+        if (recType != VideoContract.VideoEntry.RECTYPE_RECORDING)
+            recGroup = null;
         try {
             String[] urls = new String[3];
             if (recType == -1) {
@@ -95,43 +139,34 @@ public class FetchVideoService extends IntentService {
                 else
                     urls[1] = mythApiUrl(null, "/Video/GetVideoList");
             }
-            List<ContentValues> contentValuesList = new ArrayList<>();
+            List<ContentValues> fetched = new ArrayList<>();
             for (int i = 0; i < urls.length; i++) {
                 String url = urls[i];
                 if (url != null) {
                     // This call expects recordings to be 0, videos to be 1, channels to be 2
-                    builder.fetch(url, i, contentValuesList);
-                }
-            }
-            ContentValues[] downloadedVideoContentValues =
-                    contentValuesList.toArray(new ContentValues[contentValuesList.size()]);
-            VideoDbHelper dbh = new VideoDbHelper(this);
-            SQLiteDatabase db = dbh.getWritableDatabase();
-            if (recType == -1)
-                db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME); //delete all rows in a table
-            else {
-                if (recordedId == null && recGroup == null)
-                    db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
-                            + " WHERE RECTYPE = '" + recType + "'");
-                else if (recordedId != null)
-                    db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
-                            + " WHERE RECORDEDID = '" + recordedId
-                            + "' AND RECTYPE = '" + recType + "'");
-                else if (recGroup != null) {
-                    db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
-                            + " WHERE RECGROUP = '" + recGroup.replace("'", "''")
-                            + "' AND RECTYPE = '" + recType + "'");
-                    if ("LiveTV".equals(recGroup))
-                        db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
-                                + " WHERE RECTYPE = '" + VideoContract.VideoEntry.RECTYPE_CHANNEL + "'");
+                    builder.fetch(url, i, fetched);
                 }
             }
-            db.close();
-            getApplicationContext().getContentResolver().bulkInsert(VideoContract.VideoEntry.CONTENT_URI,
-                    downloadedVideoContentValues);
+            contentValuesList.addAll(fetched);
         } catch (IOException | XmlPullParserException e) {
             MainFragment.mFetchTime = 0;
             Log.e(TAG, "Error occurred in downloading videos", e);
+            return;
+        }
+        if (recType == -1)
+            deletes.add("1"); //delete all rows in a table
+        else {
+            if (recordedId == null && recGroup == null)
+                deletes.add("RECTYPE = '" + recType + "'");
+            else if (recordedId != null)
+                deletes.add("RECORDEDID = '" + recordedId.replace("'", "''")
+                        + "' AND RECTYPE = '" + recType + "'");
+            else if (recGroup != null) {
+                deletes.add("RECGROUP = '" + recGroup.replace("'", "''")
+                        + "' AND RECTYPE = '" + recType + "'");
+                if ("LiveTV".equals(recGroup))
+                    deletes.add("RECTYPE = '" + VideoContract.VideoEntry.RECTYPE_CHANNEL + "'");
+            }
         }
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.mythtv.leanfront.data.VideoContract.GuideEntry;
+import org.mythtv.leanfront.data.VideoContract.GuideRangeEntry;
+import org.mythtv.leanfront.model.GuideSlot;
+
+/**
+ * Writes ranges of the program guide into the local guide table.
+ */
+public class GuideDbBuilder {
+
+    /**
+     * Get the time a guide range was last fetched.
+     * @return milliseconds, 0 if it has not been fetched
+     */
+    public static long getFetchTime(SQLiteDatabase db, long rangeStart) {
+        Cursor cursor = db.query(GuideRangeEntry.TABLE_NAME,
+                new String[]{GuideRangeEntry.COLUMN_FETCHED},
+                GuideRangeEntry.COLUMN_RANGE_START + " = ?",
+                new String[]{String.valueOf(rangeStart)},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst())
+                return cursor.getLong(0);
+            return 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return true if any part of the guide has been fetched.
+     */
+    public static boolean hasGuide(SQLiteDatabase db) {
+        Cursor cursor = db.query(GuideRangeEntry.TABLE_NAME,
+                new String[]{GuideRangeEntry._ID},
+                null, null, null, null, null, "1");
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Replace the programs of one guide range. Programs are assigned to the
+     * range in which they start, so a program that spans two ranges is only
+     * stored once.
+     * @param db Writable database
+     * @param result Result of /Guide/GetProgramList for the range
+     * @param rangeStart Start of the range
+     * @param rangeEnd End of the range
+     * @param first True for the earliest range kept. It also holds
+     *              programs that started before it and are still on.
+     */
+    public static void writeRange(SQLiteDatabase db, XmlNode result,
+                                  long rangeStart, long rangeEnd, boolean first) {
+        long deleteFrom = first ? 0 : rangeStart;
+        db.beginTransaction();
+        try {
+            db.delete(GuideEntry.TABLE_NAME,
+                    GuideEntry.COLUMN_STARTTIME + " >= ? AND "
+                            + GuideEntry.COLUMN_STARTTIME + " < ?",
+                    new String[]{String.valueOf(deleteFrom), String.valueOf(rangeEnd)});
+            SQLiteStatement insert = db.compileStatement("INSERT INTO "
+                    + GuideEntry.TABLE_NAME + " ("
+                    + GuideEntry.COLUMN_CHANID + ", "
+                    + GuideEntry.COLUMN_STARTTIME + ", "
+                    + GuideEntry.COLUMN_ENDTIME + ", "
+                    + GuideEntry.COLUMN_TITLE + ", "
+                    + GuideEntry.COLUMN_SUBTITLE + ", "
+                    + GuideEntry.COLUMN_DESC + ", "
+                    + GuideEntry.COLUMN_CATEGORY + ", "
+                    + GuideEntry.COLUMN_SEASON + ", "
+                    + GuideEntry.COLUMN_EPISODE + ", "
+                    + GuideEntry.COLUMN_RECSTATUS + ", "
+                    + GuideEntry.COLUMN_CHANDETAILS
+                    + ") VALUES (?,?,?,?,?,?,?,?,?,?,?)");
+            XmlNode programNode = null;
+            for (; ; ) {
+                if (programNode == null)
+                    programNode = result.getNode("Programs").getNode("Program");
+                else
+                    programNode = programNode.getNextSibling();
+                if (programNode == null)
+                    break;
+                GuideSlot.Program program = new GuideSlot.Program(programNode);
+                if (program.startTime == null || program.endTime == null)
+                    continue;
+                long startTime = program.startTime.getTime();
+                if (startTime < deleteFrom || startTime >= rangeEnd)
+                    continue;
+                XmlNode channelNode = programNode.getNode("Channel");
+                String chanDetails = channelNode.getString("ChanNum")
+                        + " " + channelNode.getString("ChannelName")
+                        + " " + channelNode.getString("CallSign");
+                insert.clearBindings();
+                insert.bindLong(1, program.chanId);
+                insert.bindLong(2, startTime);
+                insert.bindLong(3, program.endTime.getTime());
+                bindString(insert, 4, program.title);
+                bindString(insert, 5, program.subTitle);
+                bindString(insert, 6, programNode.getString("Description"));
+                bindString(insert, 7, programNode.getString("Category"));
+                insert.bindLong(8, program.season);
+                insert.bindLong(9, program.episode);
+                bindString(insert, 10, program.recordingStatus);
+                bindString(insert, 11, chanDetails);
+                insert.executeInsert();
+            }
+            insert.close();
+            db.execSQL("INSERT OR REPLACE INTO " + GuideRangeEntry.TABLE_NAME + " ("
+                    + GuideRangeEntry.COLUMN_RANGE_START + ", "
+                    + GuideRangeEntry.COLUMN_FETCHED + ") VALUES (?,?)",
+                    new Object[]{rangeStart, System.currentTimeMillis()});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Remove programs and ranges that have ended.
+     * @param keepFrom Start of the earliest range kept
+     */
+    public static void expire(SQLiteDatabase db, long keepFrom) {
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            db.delete(GuideEntry.TABLE_NAME, GuideEntry.COLUMN_ENDTIME + " < ?",
+                    new String[]{String.valueOf(now)});
+            db.delete(GuideRangeEntry.TABLE_NAME, GuideRangeEntry.COLUMN_RANGE_START + " < ?",
+                    new String[]{String.valueOf(keepFrom)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null)
+            statement.bindNull(index);
+        else
+            statement.bindString(index, value);
+    }
+}
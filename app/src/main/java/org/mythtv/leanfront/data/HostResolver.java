@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import org.mythtv.leanfront.model.Settings;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Resolves backend host names to the address and port of their services
+ * API. Results are shared between threads, kept on disk across restarts,
+ * and refreshed in the background once they are older than TTL, while the
+ * old value is still used. Callers that want the same host at the same
+ * time share one lookup. On startup the known hosts are refreshed and the
+ * other backends are looked up in the background, so that a lookup is
+ * rarely needed when a host is first used.
+ */
+public class HostResolver {
+
+    private static final String TAG = "lfe";
+    private static final String CLASS = "HostResolver";
+    private static final String PREFS_NAME = "hostcache";
+    private static final long TTL = 24 * 60 * 60 * 1000;
+    // Separates fields in the stored keys and values
+    private static final char SEP = '|';
+
+    private static class Entry {
+        final String ipAndPort;
+        final long time;
+
+        Entry(String ipAndPort, long time) {
+            this.ipAndPort = ipAndPort;
+            this.time = time;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Entry> sEntries = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, FutureTask<String>> sInFlight
+            = new ConcurrentHashMap<>();
+    // Hosts with a background refresh queued
+    private static final ConcurrentHashMap<String, Boolean> sRefreshing = new ConcurrentHashMap<>();
+    // Backend, as ip:port, that the entries were looked up on
+    private static String sBackend;
+    private static SharedPreferences sPrefs;
+
+    /**
+     * Load the stored entries and bring them up to date in the background.
+     */
+    public static void init(Context context) {
+        synchronized (HostResolver.class) {
+            if (sPrefs == null)
+                sPrefs = context.getApplicationContext()
+                        .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(HostResolver::warm);
+    }
+
+    /**
+     * Forget the entries in memory. They are loaded again from storage and
+     * refreshed in the background when next used.
+     */
+    public static synchronized void clear() {
+        sBackend = null;
+        sEntries.clear();
+    }
+
+    /**
+     * @param backendIP Address of the main backend
+     * @param mainPort Services API port of the main backend
+     * @param hostname Backend host name
+     * @return ip:port of the host
+     */
+    static String resolve(String backendIP, String mainPort, String hostname)
+            throws IOException, XmlPullParserException {
+        String backend = backendIP + ":" + mainPort;
+        setBackend(backend);
+        Entry entry = sEntries.get(hostname);
+        if (entry != null) {
+            if (entry.time < System.currentTimeMillis() - TTL
+                    && sRefreshing.putIfAbsent(hostname, Boolean.TRUE) == null)
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+                    refresh(backendIP, mainPort, hostname);
+                    sRefreshing.remove(hostname);
+                });
+            return entry.ipAndPort;
+        }
+        return lookup(backend, hostname, backendIP, mainPort);
+    }
+
+    private static synchronized void setBackend(String backend) {
+        if (backend.equals(sBackend))
+            return;
+        sBackend = backend;
+        sEntries.clear();
+        if (sPrefs == null)
+            return;
+        String prefix = backend + SEP;
+        for (Map.Entry<String, ?> stored : sPrefs.getAll().entrySet()) {
+            String key = stored.getKey();
+            if (!key.startsWith(prefix) || !(stored.getValue() instanceof String))
+                continue;
+            String value = (String) stored.getValue();
+            int sep = value.lastIndexOf(SEP);
+            if (sep <= 0)
+                continue;
+            try {
+                long time = Long.parseLong(value.substring(sep + 1));
+                sEntries.put(key.substring(prefix.length()),
+                        new Entry(value.substring(0, sep), time));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+    }
+
+    // Look up a host, sharing the lookup with other threads wanting the same host
+    private static String lookup(String backend, String hostname, String backendIP, String mainPort)
+            throws IOException, XmlPullParserException {
+        FutureTask<String> task = new FutureTask<>(() -> query(hostname, backendIP, mainPort));
+        FutureTask<String> running = sInFlight.putIfAbsent(hostname, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                sInFlight.remove(hostname, task);
+            }
+        }
+        String ipAndPort = getResult(running, hostname);
+        if (running == task)
+            store(backend, hostname, ipAndPort);
+        return ipAndPort;
+    }
+
+    private static String query(String hostname, String backendIP, String mainPort)
+            throws IOException, XmlPullParserException {
+        // The two settings are requested at the same time
+        FutureTask<String> portTask = new FutureTask<>(() -> XmlNode.fetch(
+                XmlNode.mythApiUrl(null, "/Myth/GetSetting?Key=BackendStatusPort&HostName="
+                        + hostname), null).getString());
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(portTask);
+        XmlNode response = XmlNode.fetch(XmlNode.mythApiUrl(null,
+                "/Myth/GetSetting?Key=BackendServerAddr&HostName=" + hostname), null);
+        String hostIp = response.getString();
+        if (hostIp == null)
+            hostIp = backendIP;
+        // Run it here if no pool thread has started it
+        portTask.run();
+        String port = getResult(portTask, hostname);
+        if (port == null)
+            port = mainPort;
+        return hostIp + ":" + port;
+    }
+
+    private static String getResult(FutureTask<String> task, String hostname)
+            throws IOException, XmlPullParserException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted looking up " + hostname);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof XmlPullParserException)
+                throw (XmlPullParserException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static void store(String backend, String hostname, String ipAndPort) {
+        long now = System.currentTimeMillis();
+        synchronized (HostResolver.class) {
+            if (!backend.equals(sBackend))
+                return;
+            sEntries.put(hostname, new Entry(ipAndPort, now));
+            if (sPrefs != null)
+                sPrefs.edit().putString(backend + SEP + hostname, ipAndPort + SEP + now).apply();
+        }
+    }
+
+    private static void refresh(String backendIP, String mainPort, String hostname) {
+        try {
+            lookup(backendIP + ":" + mainPort, hostname, backendIP, mainPort);
+        } catch (IOException | XmlPullParserException e) {
+            // Keep using the old entry
+            Log.i(TAG, CLASS + " Unable to refresh " + hostname + ": " + e);
+        }
+    }
+
+    // Refresh the stored hosts and look up all the backends
+    private static void warm() {
+        String backendIP = Settings.getString("pref_backend");
+        String mainPort = Settings.getString("pref_http_port");
+        if (backendIP.length() == 0 || mainPort.length() == 0)
+            return;
+        try {
+            setBackend(backendIP + ":" + mainPort);
+            for (String hostname : sEntries.keySet())
+                refresh(backendIP, mainPort, hostname);
+            XmlNode hosts = XmlNode.fetch(XmlNode.mythApiUrl(null, "/Myth/GetHosts"), null);
+            XmlNode hostNode = hosts.getNode("String");
+            while (hostNode != null) {
+                String hostname = hostNode.getString();
+                if (hostname != null && !sEntries.containsKey(hostname))
+                    refresh(backendIP, mainPort, hostname);
+                hostNode = hostNode.getNextSibling();
+            }
+        } catch (IOException | XmlPullParserException e) {
+            Log.i(TAG, CLASS + " Unable to load backend hosts: " + e);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import org.mythtv.leanfront.R;
+import org.mythtv.leanfront.model.Video;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Tunes Live TV by scheduling a recording of the channel and waiting until
+ * the recording can be played. Each stage polls with short intervals that
+ * grow while it waits, and playback can start as soon as the file has
+ * enough data. The Video for the recording is built from the backend
+ * response; it is written to the local database in the background.
+ */
+public class LiveTvTuner {
+
+    private static final String TAG = "lfe";
+    private static final String CLASS = "LiveTvTuner";
+
+    // Polling starts at FIRST_POLL_MS and grows by half each time up to MAX_POLL_MS
+    private static final int FIRST_POLL_MS = 100;
+    private static final int MAX_POLL_MS = 1000;
+    // Time allowed for each stage that waits on the backend
+    private static final int STAGE_TIMEOUT_MS = 20000;
+    // Data needed in the file before playback, enough for the extractor
+    // to find the stream tables and the first key frame.
+    private static final long MIN_PLAYABLE_BYTES = 256 * 1024;
+
+    private static final String[] XMLTAGS_RECORDID = {"Recording", "RecordId"};
+    private static final String[] XMLTAGS_RECORDEDID = {"Recording", "RecordedId"};
+
+    private final Context mContext;
+    private final Video mChannel;
+    private long mRecordId = -1;
+    private long mRecordedId = -1;
+    private Video mVideo;
+    private int mFoundIndex = -1;
+
+    public LiveTvTuner(Context context, Video channel) {
+        mContext = context;
+        mChannel = channel;
+    }
+
+    public long getRecordId() {
+        return mRecordId;
+    }
+
+    public long getRecordedId() {
+        return mRecordedId;
+    }
+
+    /**
+     * @return The recording to play, null if tuning failed.
+     */
+    public Video getVideo() {
+        return mVideo;
+    }
+
+    /**
+     * Schedule the recording and wait until it can be played.
+     * @param startTime Start time of the recording, in backend time
+     * @param duration Length of the recording, minutes
+     * @return true if the recording is ready to play
+     */
+    public boolean tune(Date startTime, int duration) throws Exception {
+        // Time of each stage reached, logged however the tune ends
+        StringBuilder timings = new StringBuilder();
+        long tuneStart = System.currentTimeMillis();
+        long stageStart = tuneStart;
+        String stage = "schedule";
+        String outcome = "failed";
+        try {
+            String title = scheduleRecording(startTime, duration);
+            stageStart = addTiming(timings, stage, stageStart);
+            stage = "find recording";
+            XmlNode response = findRecording(title);
+            stageStart = addTiming(timings, stage, stageStart);
+            stage = null;
+            if (response == null) {
+                outcome = "timed out finding recording";
+                Log.e(TAG, CLASS + " Failed to find matching recording.");
+                return false;
+            }
+            stage = "build";
+            buildVideo(response);
+            stageStart = addTiming(timings, stage, stageStart);
+            stage = null;
+            if (mVideo == null) {
+                outcome = "failed to build recording";
+                Log.e(TAG, CLASS + " Failed to build recording.");
+                return false;
+            }
+            stage = "wait for data";
+            boolean ready = waitForData();
+            stageStart = addTiming(timings, stage, stageStart);
+            stage = null;
+            if (!ready) {
+                outcome = "timed out waiting for data";
+                Log.e(TAG, CLASS + " Recording has no data.");
+                mVideo = null;
+            }
+            else
+                outcome = "ready";
+            return ready;
+        } finally {
+            // A stage that threw is logged with the time it ran for
+            if (stage != null)
+                addTiming(timings, stage + " (unfinished)", stageStart);
+            long end = System.currentTimeMillis();
+            Log.i(TAG, CLASS + " Tune " + outcome + ", timings ms: " + timings
+                    + "total " + (end - tuneStart));
+        }
+    }
+
+    // Add the time since stageStart for a stage, and return the time now
+    private static long addTiming(StringBuilder timings, String stage, long stageStart) {
+        long now = System.currentTimeMillis();
+        timings.append(stage).append(" ").append(now - stageStart).append(", ");
+        return now;
+    }
+
+    // Returns the title used for the recording
+    private String scheduleRecording(Date startTime, int duration) throws Exception {
+        Date endTime = new Date(startTime.getTime() + duration * 60 * 1000);
+        SimpleDateFormat sdfDate = new SimpleDateFormat("yyyy-MM-dd");
+        SimpleDateFormat sdfTime = new SimpleDateFormat("HH:mm:ss");
+        String recDate = sdfDate.format(startTime);
+        String recTime = sdfTime.format(startTime);
+        String title = mContext.getString(R.string.title_livetv_recording)
+                + " " + recDate;
+        String subtitle = recTime + " ch " + mChannel.channum;
+        SimpleDateFormat sdfUTC = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        sdfUTC.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String urlString = XmlNode.mythApiUrl(null,
+                "/Dvr/AddRecordSchedule?Title="
+                        + URLEncoder.encode(title, "UTF-8")
+                        + "&Subtitle=" + URLEncoder.encode(subtitle, "UTF-8")
+                        + "&Chanid=" + mChannel.chanid
+                        + "&Station=" + mChannel.callsign
+                        + "&StartTime=" + URLEncoder.encode(sdfUTC.format(startTime), "UTF-8")
+                        + "&EndTime=" + URLEncoder.encode(sdfUTC.format(endTime), "UTF-8")
+                        + "&Type=Single+Record"
+                        // Use a nonsense FindDay and FindTime because they are required by the API
+                        // but not used for this type of recording.
+                        + "&FindDay=1&FindTime=21%3A30%3A00"
+                        + "&SearchType=Manual+Search&AutoExpire=true&RecPriority=-99"
+                        + "&RecGroup=LiveTV&StorageGroup=LiveTV"
+        );
+        XmlNode response = XmlNode.fetch(urlString, "POST");
+        String result = response.getString();
+        Log.i(TAG, CLASS + " Live TV scheduled, RecordId:" + result);
+        mRecordId = Integer.parseInt(result);
+        return title;
+    }
+
+    // Wait for the recording of our rule to start. Only the newest
+    // LiveTV recordings with our title are requested, not the whole list.
+    // Returns the response, with mFoundIndex set to the recording's position.
+    private XmlNode findRecording(String title) throws Exception {
+        String urlString = XmlNode.mythApiUrl(null,
+                "/Dvr/GetRecordedList?RecGroup=LiveTV&Descending=true&Count=2"
+                        + "&TitleRegEx=" + URLEncoder.encode("^" + title + "$", "UTF-8"));
+        long limit = System.currentTimeMillis() + STAGE_TIMEOUT_MS;
+        int interval = FIRST_POLL_MS;
+        for (;;) {
+            XmlNode response = XmlNode.fetch(urlString, null);
+            XmlNode programNode = null;
+            for (int ix = 0; ; ix++) {
+                if (programNode == null)
+                    programNode = response.getNode(VideoDbBuilder.XMLTAGS_PROGRAM, 0);
+                else
+                    programNode = programNode.getNextSibling();
+                if (programNode == null)
+                    break;
+                String tmpRecordId = programNode.getString(XMLTAGS_RECORDID);
+                if (tmpRecordId == null || Integer.parseInt(tmpRecordId) != mRecordId)
+                    continue;
+                String tmpRecordedId = programNode.getString(XMLTAGS_RECORDEDID);
+                if (tmpRecordedId != null)
+                    mRecordedId = Integer.parseInt(tmpRecordedId);
+                String fileSizeStr = programNode.getString(VideoDbBuilder.XMLTAG_FILESIZE);
+                long fileSize = 0;
+                if (fileSizeStr != null)
+                    fileSize = Long.parseLong(fileSizeStr);
+                // Skip dummy LiveTV entry
+                if (fileSize > 1000) {
+                    Log.i(TAG, CLASS + " Found matching recording " + ix + ". RecordedId:" + tmpRecordedId);
+                    mFoundIndex = ix;
+                    return response;
+                }
+            }
+            if (System.currentTimeMillis() + interval > limit) {
+                Log.w(TAG, CLASS + " Timed out finding recording, RecordId:" + mRecordId);
+                return null;
+            }
+            Thread.sleep(interval);
+            interval = Math.min(interval * 3 / 2, MAX_POLL_MS);
+        }
+    }
+
+    // Build the Video from the response and save it to the database
+    // in the background, so that it also appears in the recordings list.
+    private void buildVideo(XmlNode response) throws Exception {
+        VideoDbBuilder builder = new VideoDbBuilder(mContext);
+        List<ContentValues> contentValuesList = new ArrayList<>();
+        builder.buildMedia(response, 0, mFoundIndex, contentValuesList);
+        if (contentValuesList.isEmpty())
+            return;
+        mVideo = new Video.VideoBuilder().buildFromContentValues(contentValuesList.get(0));
+        final ContentValues[] values =
+                contentValuesList.toArray(new ContentValues[contentValuesList.size()]);
+        final Context context = mContext.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() ->
+                context.getContentResolver().bulkInsert(VideoContract.VideoEntry.CONTENT_URI,
+                        values));
+    }
+
+    // Wait until the file has enough data to start playback
+    private boolean waitForData() throws InterruptedException {
+        long limit = System.currentTimeMillis() + STAGE_TIMEOUT_MS;
+        int interval = FIRST_POLL_MS;
+        for (;;) {
+            long length = getFileLength(mVideo.videoUrl);
+            if (length >= MIN_PLAYABLE_BYTES)
+                return true;
+            if (System.currentTimeMillis() + interval > limit) {
+                Log.w(TAG, CLASS + " Timed out waiting for data, file length " + length);
+                return false;
+            }
+            Thread.sleep(interval);
+            interval = Math.min(interval * 3 / 2, MAX_POLL_MS);
+        }
+    }
+
+    private static long getFileLength(String urlString) {
+        HttpURLConnection urlConnection = null;
+        try {
+            URL url = new URL(urlString);
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.addRequestProperty("Cache-Control", "no-cache");
+            urlConnection.setConnectTimeout(5000);
+            urlConnection.setReadTimeout(5000);
+            urlConnection.setRequestMethod("HEAD");
+            String strContentLeng = urlConnection.getHeaderField("Content-Length");
+            if (strContentLeng != null)
+                return Long.parseLong(strContentLeng);
+        } catch (Exception e) {
+            Log.e(TAG, CLASS + " Exception getting file length.", e);
+        } finally {
+            if (urlConnection != null)
+                urlConnection.disconnect();
+        }
+        return -1;
+    }
+}
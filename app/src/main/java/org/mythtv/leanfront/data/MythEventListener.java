@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.mythtv.leanfront.model.Settings;
+import org.mythtv.leanfront.ui.MainFragment;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Listens for backend system events in a background thread and keeps the
+ * local recording list up to date from them. Recordings that are added or
+ * updated are fetched individually through FetchScheduler, and deleted
+ * ones are removed from the database. Full refreshes are only needed as a
+ * safety net while the listener is connected.
+ *
+ * Events are read from an EventSource, so the listener can be driven by
+ * a local fake source as well as a backend.
+ */
+public class MythEventListener implements Runnable {
+
+    /**
+     * A source of backend events.
+     */
+    public interface EventSource {
+        void open() throws IOException;
+        /**
+         * Wait for the next event.
+         * @return The event text, e.g. "RECORDING_LIST_CHANGE ADD 1234",
+         *         followed by any extra fields of the event.
+         */
+        String[] readEvent() throws IOException;
+        void close();
+    }
+
+    public interface EventSourceFactory {
+        EventSource create();
+    }
+
+    /**
+     * The backend does not speak a protocol version that the source
+     * knows, so connecting again will not help.
+     */
+    public static class UnsupportedVersionException extends IOException {
+        public UnsupportedVersionException(String message) {
+            super(message);
+        }
+    }
+
+    private static final String TAG = "lfe";
+    private static final String CLASS = "MythEventListener";
+    // Fetches are sent once events have been quiet for this long
+    private static final int FLUSH_DELAY = 2000;
+    private static final int MIN_RETRY_DELAY = 5000;
+    private static final int MAX_RETRY_DELAY = 5 * 60 * 1000;
+    // Fields of the ProgramInfo that follows RECORDING_LIST_CHANGE UPDATE
+    private static final int PI_CHANID = 8;
+    private static final int PI_RECSTARTTS = 27;
+    private static final int PI_RECORDEDID = 49;
+
+    private static MythEventListener sListener;
+
+    private final Context mContext;
+    private final EventSourceFactory mFactory;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final LinkedHashSet<String> mPendingFetches = new LinkedHashSet<>();
+    private final Runnable mFlush = this::flush;
+    private volatile boolean mStopped;
+    private volatile boolean mConnected;
+    private volatile EventSource mSource;
+    private Thread mThread;
+
+    public MythEventListener(Context context, EventSourceFactory factory) {
+        mContext = context.getApplicationContext();
+        mFactory = factory;
+    }
+
+    /**
+     * Start listening to the backend in the settings, replacing any
+     * listener already running.
+     */
+    public static synchronized void start(Context context) {
+        stop();
+        String host = Settings.getString("pref_backend");
+        if (host == null || host.length() == 0)
+            return;
+        sListener = new MythEventListener(context,
+                () -> new MythProtocolEventSource(host, MythProtocolEventSource.DEFAULT_PORT));
+        sListener.startThread();
+    }
+
+    public static synchronized void stop() {
+        if (sListener != null)
+            sListener.stopThread();
+        sListener = null;
+    }
+
+    /**
+     * @return true if events are being received, so the local
+     *         list is kept up to date without full refreshes.
+     */
+    public static synchronized boolean isConnected() {
+        return sListener != null && sListener.mConnected;
+    }
+
+    public void startThread() {
+        mThread = new Thread(this, CLASS);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    public void stopThread() {
+        mStopped = true;
+        EventSource source = mSource;
+        if (source != null)
+            source.close();
+        if (mThread != null)
+            mThread.interrupt();
+        mHandler.removeCallbacks(mFlush);
+    }
+
+    @Override
+    public void run() {
+        int retryDelay = MIN_RETRY_DELAY;
+        while (!mStopped) {
+            EventSource source = mFactory.create();
+            mSource = source;
+            try {
+                source.open();
+                mConnected = true;
+                retryDelay = MIN_RETRY_DELAY;
+                while (!mStopped)
+                    handleEvent(source.readEvent());
+            } catch (UnsupportedVersionException e) {
+                // Leave updates to the regular full refresh
+                Log.i(TAG, CLASS + " Events not available: " + e.getMessage());
+                mStopped = true;
+            } catch (IOException e) {
+                if (!mStopped)
+                    Log.i(TAG, CLASS + " Event connection lost: " + e);
+            } finally {
+                source.close();
+                mSource = null;
+            }
+            if (mConnected) {
+                // Events may have been missed
+                mConnected = false;
+                MainFragment.mFetchTime = 0;
+            }
+            if (mStopped)
+                break;
+            try {
+                Thread.sleep(retryDelay);
+            } catch (InterruptedException e) {
+                break;
+            }
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+        }
+    }
+
+    /**
+     * Act on one event.
+     * @param fields Event text followed by any extra fields
+     */
+    void handleEvent(String[] fields) {
+        if (fields == null || fields.length == 0)
+            return;
+        String[] parts = fields[0].trim().split(" +");
+        switch (parts[0]) {
+            case "SCHEDULE_CHANGE":
+                // Recording rules changed, groups may have been added
+                AsyncBackendCall.clearCachedLists();
+                break;
+            case "RECORDING_LIST_CHANGE":
+                recordingListChange(parts, fields);
+                break;
+        }
+    }
+
+    /**
+     * ADD and DELETE name the recording in the event text, by recordedid
+     * or by channel and start time. UPDATE is followed by the ProgramInfo
+     * of the recording, for changes such as watched, recording group,
+     * title, deletion to the Deleted group or the end of recording.
+     */
+    private void recordingListChange(String[] parts, String[] fields) {
+        if (parts.length < 2) {
+            // Change not identified, refresh everything
+            MainFragment.mFetchTime = 0;
+            return;
+        }
+        String recordedId = null;
+        if (parts.length == 3)
+            recordedId = parts[2];
+        else if (parts.length >= 4)
+            recordedId = lookupRecordedId(parts[2], parts[3]);
+        else if ("UPDATE".equals(parts[1]))
+            recordedId = programRecordedId(fields);
+        if (recordedId == null || !recordedId.matches("\\d+") || "0".equals(recordedId)) {
+            MainFragment.mFetchTime = 0;
+            return;
+        }
+        switch (parts[1]) {
+            case "ADD":
+            case "UPDATE":
+                queueFetch(recordedId);
+                break;
+            case "DELETE":
+                mContext.getContentResolver().delete(VideoContract.VideoEntry.CONTENT_URI,
+                        VideoContract.VideoEntry.COLUMN_RECORDEDID + " = ? AND "
+                                + VideoContract.VideoEntry.COLUMN_RECTYPE + " = ?",
+                        new String[]{recordedId,
+                                String.valueOf(VideoContract.VideoEntry.RECTYPE_RECORDING)});
+                break;
+        }
+    }
+
+    /**
+     * @param fields Event text followed by the ProgramInfo fields
+     * @return recordedid from the ProgramInfo, looked up from the channel
+     *         and recording start time when it is not set
+     */
+    private static String programRecordedId(String[] fields) {
+        if (fields.length <= 1 + PI_RECSTARTTS)
+            return null;
+        if (fields.length > 1 + PI_RECORDEDID) {
+            String recordedId = fields[1 + PI_RECORDEDID];
+            if (recordedId.matches("\\d+") && !"0".equals(recordedId))
+                return recordedId;
+        }
+        try {
+            // Start time is in seconds since the epoch
+            long startSecs = Long.parseLong(fields[1 + PI_RECSTARTTS]);
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return lookupRecordedId(fields[1 + PI_CHANID],
+                    format.format(new Date(startSecs * 1000)));
+        } catch (NumberFormatException e) {
+            Log.e(TAG, CLASS + " Invalid program in event.", e);
+            return null;
+        }
+    }
+
+    // Older backends identify a recording by channel and start time
+    private static String lookupRecordedId(String chanId, String startTime) {
+        try {
+            String url = XmlNode.mythApiUrl(null, "/Dvr/RecordedIdForKey?ChanId="
+                    + chanId + "&StartTime=" + URLEncoder.encode(startTime, "UTF-8"));
+            XmlNode result = XmlNode.fetch(url, null);
+            return result.getString();
+        } catch (Exception e) {
+            Log.e(TAG, CLASS + " Exception looking up recording.", e);
+            return null;
+        }
+    }
+
+    private void queueFetch(String recordedId) {
+        synchronized (mPendingFetches) {
+            mPendingFetches.add(recordedId);
+        }
+        mHandler.removeCallbacks(mFlush);
+        mHandler.postDelayed(mFlush, FLUSH_DELAY);
+    }
+
+    private void flush() {
+        String[] recordedIds;
+        synchronized (mPendingFetches) {
+            recordedIds = mPendingFetches.toArray(new String[0]);
+            mPendingFetches.clear();
+        }
+        for (String recordedId : recordedIds)
+            FetchScheduler.schedule(mContext, VideoContract.VideoEntry.RECTYPE_RECORDING,
+                    recordedId, null);
+    }
+}
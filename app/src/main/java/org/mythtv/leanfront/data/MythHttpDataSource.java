@@ -24,12 +24,16 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.upstream.BaseDataSource;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
 import com.google.android.exoplayer2.upstream.HttpDataSource;
 
+import org.mythtv.leanfront.model.Settings;
+import org.mythtv.leanfront.player.GrowingFile;
+import org.mythtv.leanfront.player.TimeShiftBuffer;
 import org.mythtv.leanfront.ui.MainActivity;
 import org.mythtv.leanfront.ui.playback.PlaybackFragment;
 
@@ -40,9 +44,26 @@ public class MythHttpDataSource extends BaseDataSource implements DataSource {
     private DataSpec mDataSpec;
     private PlaybackFragment mPlaybackFragment;
     private HttpDataSource mHttpDataSource;
+    private String mUserAgent;
+    // Reads ahead over several connections when parallel mode is on
+    private ParallelRangeReader mParallel;
+    private boolean mParallelMode;
+    // Bytes read in sequence since the open, parallel reads only start
+    // after this many so that short reads for seeking stay on one connection
+    private long mSequentialBytes;
+    private static final long PARALLEL_AFTER_BYTES = 2 * 1024 * 1024;
+    // Live TV bytes kept on the device, and whether reads come from there
+    private TimeShiftBuffer mTimeShift;
+    private boolean mLocal;
+    // Url as requested, before routing, which identifies the stream
+    private String mKey;
     private long mTotalLength;
     private long mCurrentPos;
-    private long mOffsetBytes;
+    // File offset to stop reading at, the start of a skipped break, or -1
+    private long mLoadLimit;
+    // Bytes read and time spent reading since open, for StreamRouter
+    private long mBytesRead;
+    private long mReadNanos;
     private static final String TAG = "lfe";
     private static final String CLASS = "MythHttpDataSource";
 
@@ -51,49 +72,145 @@ public class MythHttpDataSource extends BaseDataSource implements DataSource {
         super(true);
         mPlaybackFragment = playbackFragment;
         mHttpDataSource = new DefaultHttpDataSource(userAgent);
+        mUserAgent = userAgent;
+        mParallelMode = "true".equals(Settings.getString("pref_parallel"));
         mPlaybackFragment.setDataSource(this);
     }
 
     @Override
     public long open(DataSpec dataSpec)
             throws IOException {
-        mOffsetBytes = mPlaybackFragment.getOffsetBytes();
-        this.mDataSpec = new DataSpec(dataSpec.uri,
+        String fileHost = mPlaybackFragment.getFileHost();
+        String url = dataSpec.uri.toString();
+        mKey = url;
+        String routedUrl = StreamRouter.route(url, fileHost);
+        this.mDataSpec = new DataSpec(Uri.parse(routedUrl),
                 dataSpec.httpMethod,
                 dataSpec.httpBody,
-                dataSpec.absoluteStreamPosition + mOffsetBytes,
-                dataSpec.position + mOffsetBytes,
+                dataSpec.absoluteStreamPosition,
+                dataSpec.position,
                 dataSpec.length,
                 dataSpec.key,
                 dataSpec.flags);
+        mBytesRead = 0;
+        mReadNanos = 0;
+        mSequentialBytes = 0;
+        mCurrentPos = mDataSpec.absoluteStreamPosition;
+        CutList cutList = mPlaybackFragment.getSkipList();
+        mLoadLimit = cutList == null ? -1 : cutList.getLoadLimit(mCurrentPos);
+        mTimeShift = mPlaybackFragment.getTimeShiftBuffer();
+        mLocal = mTimeShift != null && mDataSpec.length == C.LENGTH_UNSET
+                && mTimeShift.contains(mKey, mCurrentPos);
+        if (mLocal) {
+            // The backend is opened when the reads get past the buffer
+            Log.i(TAG, CLASS + " Reading from time shift buffer at " + mCurrentPos);
+            mTotalLength = mCurrentPos;
+            return C.LENGTH_UNSET;
+        }
+
+        long leng;
+        try {
+            leng = openSpec(mDataSpec);
+        } catch (IOException e) {
+            StreamRouter.addTransfer(mDataSpec.uri.getAuthority(), 0, 0, true);
+            if (routedUrl.equals(url))
+                throw e;
+            // Backend with the file cannot be used, stream through the master
+            Log.e(TAG, CLASS + " Unable to stream from " + fileHost + ", using " + url, e);
+            StreamRouter.markFailed(fileHost);
+            mDataSpec = mDataSpec.withUri(dataSpec.uri);
+            leng = openSpec(mDataSpec);
+        }
+        setLength(leng);
+        return leng;
+    }
+
+    private void setLength(long leng) {
+        mTotalLength = mDataSpec.absoluteStreamPosition + leng;
+        GrowingFile growingFile = mPlaybackFragment.getGrowingFile();
+        if (growingFile != null && mDataSpec.length == C.LENGTH_UNSET)
+            growingFile.update(mTotalLength);
+    }
+
+    /**
+     * Continue from the backend where the time shift buffer ends.
+     * @return Length from the open
+     */
+    private long handOff() throws IOException {
+        Log.i(TAG, CLASS + " End of time shift buffer, reading from backend at " + mCurrentPos);
+        mLocal = false;
+        mDataSpec = new DataSpec(mDataSpec.uri,
+                mDataSpec.httpMethod,
+                mDataSpec.httpBody,
+                mCurrentPos,
+                mCurrentPos,
+                C.LENGTH_UNSET,
+                mDataSpec.key,
+                mDataSpec.flags);
+        long leng = openSpec(mDataSpec);
+        setLength(leng);
+        mSequentialBytes = 0;
+        return leng;
+    }
+
+    /**
+     * In parallel mode, once enough has been read in sequence, read the
+     * rest of the known length of the file over several connections
+     * instead of the one that was opened. Bytes after that, in a file that
+     * is still recording, are read over one connection again until there
+     * are enough for another parallel read.
+     */
+    private void startParallel() throws IOException {
+        if (!mParallelMode || mParallel != null || mSequentialBytes < PARALLEL_AFTER_BYTES)
+            return;
+        long end = mTotalLength;
+        if (mLoadLimit >= 0 && mLoadLimit < end)
+            end = mLoadLimit;
+        if (end - mCurrentPos < ParallelRangeReader.MIN_BYTES)
+            return;
+        mHttpDataSource.close();
+        mParallel = new ParallelRangeReader(mUserAgent, mDataSpec.uri, mCurrentPos, end,
+                mPlaybackFragment.getLoadControl());
+    }
 
-        long leng = 0;
+    private long openSpec(DataSpec dataSpec) throws IOException {
         try {
-            leng = mHttpDataSource.open(mDataSpec);
+            return mHttpDataSource.open(dataSpec);
         } catch (HttpDataSource.InvalidResponseCodeException e) {
             // Response code 416 = read past eof
             if (e.responseCode == 416) {
-                leng = 0;
                 Log.i(TAG, CLASS + " End of file.");
+                return 0;
             }
-            else {
-                Log.e(TAG, CLASS + " Bad Http Response Code:" +e.responseCode
-                    + " " + e.responseMessage);
-                throw e;
-            }
+            Log.e(TAG, CLASS + " Bad Http Response Code:" +e.responseCode
+                + " " + e.responseMessage);
+            throw e;
         }
-        mTotalLength = mDataSpec.absoluteStreamPosition + leng;
-        mCurrentPos = mDataSpec.absoluteStreamPosition;
-        if (!mPlaybackFragment.isBounded())
-            leng = -1;
-        return leng;
     }
 
     @Override
     public int read(byte[] buffer, int offset, int readLength) throws IOException {
         if (readLength <= 0)
             return 0;
-        int leng = mHttpDataSource.read(buffer,offset,readLength);
+        if (mLoadLimit >= 0) {
+            // The break is skipped in playback, so it is not loaded
+            if (mCurrentPos >= mLoadLimit)
+                return C.RESULT_END_OF_INPUT;
+            readLength = (int) Math.min(readLength, mLoadLimit - mCurrentPos);
+        }
+        // Opening the backend at its end of file leaves nothing to read
+        boolean atEnd = false;
+        if (mLocal) {
+            int leng = mTimeShift.read(mKey, mCurrentPos, buffer, offset, readLength);
+            if (leng > 0) {
+                mCurrentPos += leng;
+                return leng;
+            }
+            atEnd = handOff() == 0;
+        }
+        long startNanos = System.nanoTime();
+        int leng = atEnd ? 0 : readNetwork(buffer, offset, readLength);
+        mReadNanos += System.nanoTime() - startNanos;
         if (leng == -1) {
             leng = 0;
         }
@@ -140,18 +257,41 @@ public class MythHttpDataSource extends BaseDataSource implements DataSource {
             Log.d(TAG, CLASS + " Incremental data length:" + leng2);
             if (totalLength2 > mTotalLength) {
                 mTotalLength = totalLength2;
+                GrowingFile growingFile = mPlaybackFragment.getGrowingFile();
+                if (growingFile != null)
+                    growingFile.update(totalLength2);
+                startNanos = System.nanoTime();
                 leng = mHttpDataSource.read(buffer, offset, readLength);
+                mReadNanos += System.nanoTime() - startNanos;
                 mCurrentPos = dataSpec2.absoluteStreamPosition;
                 mDataSpec = dataSpec2;
             }
         }
-        if (leng > 0)
+        if (leng > 0) {
+            if (mTimeShift != null)
+                mTimeShift.write(mKey, mCurrentPos, buffer, offset, leng);
             mCurrentPos += leng;
+            mBytesRead += leng;
+            mSequentialBytes += leng;
+            startParallel();
+        }
         else
             leng = -1;
         return leng;
     }
 
+    private int readNetwork(byte[] buffer, int offset, int readLength) throws IOException {
+        if (mParallel == null)
+            return mHttpDataSource.read(buffer,offset,readLength);
+        int leng = mParallel.read(buffer, offset, readLength);
+        if (leng == C.RESULT_END_OF_INPUT) {
+            // End of the parallel range, reopen below if still recording
+            mParallel.close();
+            mParallel = null;
+        }
+        return leng;
+    }
+
     @Nullable
     @Override
     public Uri getUri() {
@@ -160,6 +300,15 @@ public class MythHttpDataSource extends BaseDataSource implements DataSource {
 
     @Override
     public void close() throws IOException {
+        if (mDataSpec != null && mBytesRead > 0) {
+            StreamRouter.addTransfer(mDataSpec.uri.getAuthority(), mBytesRead, mReadNanos, false);
+            mBytesRead = 0;
+            mReadNanos = 0;
+        }
+        if (mParallel != null) {
+            mParallel.close();
+            mParallel = null;
+        }
         mHttpDataSource.close();
     }
 
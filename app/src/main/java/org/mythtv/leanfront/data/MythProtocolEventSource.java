@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Receives system events from a MythTV backend over the myth protocol,
+ * by connecting as a monitor client. Each message is an 8 character
+ * length followed by fields separated by "[]:[]".
+ * The host and port can point at a local fake backend for testing.
+ */
+public class MythProtocolEventSource implements MythEventListener.EventSource {
+
+    private static final String TAG = "lfe";
+    private static final String CLASS = "MythProtocolEventSource";
+    public static final int DEFAULT_PORT = 6543;
+    private static final int CONNECT_TIMEOUT = 5000;
+    // Protocol versions and their tokens, newest first
+    private static final String[][] PROTO_VERSIONS = {
+            {"91", "BuzzOff"},
+            {"88", "XmasGift"}
+    };
+
+    private final String mHost;
+    private final int mPort;
+    private Socket mSocket;
+    private DataInputStream mInput;
+    private OutputStream mOutput;
+
+    public MythProtocolEventSource(String host, int port) {
+        mHost = host;
+        mPort = port;
+    }
+
+    @Override
+    public void open() throws IOException {
+        HashMap<String, String> tokens = new HashMap<>();
+        for (String[] version : PROTO_VERSIONS)
+            tokens.put(version[0], version[1]);
+        String version = PROTO_VERSIONS[0][0];
+        // The backend rejects a version it does not speak and replies
+        // with its own, then we try again with that one.
+        for (int attempt = 0; attempt < 2; attempt++) {
+            connect();
+            send("MYTH_PROTO_VERSION " + version + " " + tokens.get(version));
+            String[] reply = receive();
+            if ("ACCEPT".equals(reply[0]))
+                break;
+            close();
+            String backendVersion = reply.length > 1 ? reply[1] : null;
+            if (attempt > 0 || !tokens.containsKey(backendVersion))
+                throw new MythEventListener.UnsupportedVersionException(
+                        "Unsupported protocol version " + backendVersion);
+            version = backendVersion;
+        }
+        send("ANN Monitor " + Build.MODEL.replace(' ', '_') + " 1");
+        String[] reply = receive();
+        if (!"OK".equals(reply[0])) {
+            close();
+            throw new IOException("Monitor connection refused");
+        }
+        Log.i(TAG, CLASS + " Connected for events, protocol " + version);
+    }
+
+    @Override
+    public String[] readEvent() throws IOException {
+        for (;;) {
+            String[] fields = receive();
+            if ("BACKEND_MESSAGE".equals(fields[0]) && fields.length > 1) {
+                String[] event = new String[fields.length - 1];
+                System.arraycopy(fields, 1, event, 0, event.length);
+                return event;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (mSocket != null)
+                mSocket.close();
+        } catch (IOException e) {
+            Log.e(TAG, CLASS + " Exception closing socket.", e);
+        }
+        mSocket = null;
+    }
+
+    private void connect() throws IOException {
+        mSocket = new Socket();
+        mSocket.setKeepAlive(true);
+        mSocket.connect(new InetSocketAddress(mHost, mPort), CONNECT_TIMEOUT);
+        mInput = new DataInputStream(mSocket.getInputStream());
+        mOutput = mSocket.getOutputStream();
+    }
+
+    private void send(String message) throws IOException {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        String length = String.format("%-8d", data.length);
+        mOutput.write(length.getBytes(StandardCharsets.US_ASCII));
+        mOutput.write(data);
+        mOutput.flush();
+    }
+
+    private String[] receive() throws IOException {
+        byte[] lengthBytes = new byte[8];
+        mInput.readFully(lengthBytes);
+        int length;
+        try {
+            length = Integer.parseInt(new String(lengthBytes, StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid message length");
+        }
+        byte[] data = new byte[length];
+        mInput.readFully(data);
+        return new String(data, StandardCharsets.UTF_8).split("\\[\\]:\\[\\]", -1);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import org.mythtv.leanfront.player.MythLoadControl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a range of a file as fixed size chunks fetched over several HTTP
+ * connections at once, and returns the bytes in order. On links with high
+ * latency per connection, such as Wi-Fi or powerline, one connection may
+ * not keep up with a high bitrate recording while several can.
+ *
+ * The number of connections is adjusted from the measured throughput of
+ * the chunks, and is kept for the next reader. Chunk buffers are reserved
+ * in the byte budget of MythLoadControl, which limits how many are fetched
+ * ahead. Only the bytes known to be in the file are read, so a recording
+ * that is still growing is handled by MythHttpDataSource when the reader
+ * reaches the end.
+ */
+class ParallelRangeReader {
+
+    private static final String TAG = "lfe";
+    private static final String CLASS = "ParallelRangeReader";
+    static final int CHUNK_BYTES = 1024 * 1024;
+    // Ranges shorter than this are read over one connection
+    static final long MIN_BYTES = 4L * CHUNK_BYTES;
+    private static final int MAX_CONNECTIONS = 6;
+    // Chunks measured before the number of connections is changed
+    private static final int ADAPT_CHUNKS = 12;
+
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+    // Throughput measurement, shared by all readers
+    private static int sConnections = 2;
+    private static int sDirection = 1;
+    private static long sLastKbps;
+    private static long sWindowBytes;
+    private static long sWindowNanos;
+    private static int sWindowChunks;
+
+    private final String mUserAgent;
+    private final MythLoadControl mLoadControl;
+    // Chunk buffers allocated, all reserved in the load control
+    private int mBuffers;
+    private final Uri mUri;
+    private final long mEnd;
+    private long mPosition;
+    private long mNextFetch;
+    private final ArrayDeque<Chunk> mChunks = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> mFreeBuffers = new ArrayDeque<>();
+    private volatile boolean mClosed;
+
+    private static class Chunk {
+        final long start;
+        final int length;
+        final byte[] data;
+        // Connections in use when the fetch started
+        final int connections;
+        // Guarded by the chunk
+        int filled;
+        boolean done;
+        IOException error;
+        Future<?> future;
+
+        Chunk(long start, int length, byte[] data, int connections) {
+            this.start = start;
+            this.length = length;
+            this.data = data;
+            this.connections = connections;
+        }
+    }
+
+    /**
+     * @param start File offset of the first byte to read
+     * @param end   File offset after the last byte to read
+     * @param loadControl Budget for chunk buffers, may be null
+     */
+    ParallelRangeReader(String userAgent, Uri uri, long start, long end,
+                        MythLoadControl loadControl) {
+        mUserAgent = userAgent;
+        mLoadControl = loadControl;
+        mUri = uri;
+        mPosition = start;
+        mNextFetch = start;
+        mEnd = end;
+        fetchAhead();
+    }
+
+    long getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * Read the next bytes, waiting for their chunk if needed.
+     * @return Bytes read, or C.RESULT_END_OF_INPUT at the end of the range
+     */
+    int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (mPosition >= mEnd)
+            return C.RESULT_END_OF_INPUT;
+        Chunk chunk = mChunks.peekFirst();
+        if (chunk == null)
+            return C.RESULT_END_OF_INPUT;
+        int chunkOffset = (int) (mPosition - chunk.start);
+        int available;
+        synchronized (chunk) {
+            try {
+                while (chunk.filled <= chunkOffset && !chunk.done)
+                    chunk.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (chunk.filled <= chunkOffset && chunk.error != null)
+                throw chunk.error;
+            available = chunk.filled - chunkOffset;
+        }
+        if (available <= 0) {
+            // The file ended before the chunk did
+            return C.RESULT_END_OF_INPUT;
+        }
+        int leng = Math.min(readLength, available);
+        System.arraycopy(chunk.data, chunkOffset, buffer, offset, leng);
+        mPosition += leng;
+        if (mPosition >= chunk.start + chunk.length) {
+            mChunks.removeFirst();
+            mFreeBuffers.add(chunk.data);
+            fetchAhead();
+        }
+        return leng;
+    }
+
+    /**
+     * Stop all fetches. The reader cannot be used after this.
+     */
+    void close() {
+        mClosed = true;
+        for (Chunk chunk : mChunks) {
+            if (chunk.future != null)
+                chunk.future.cancel(true);
+        }
+        mChunks.clear();
+        mFreeBuffers.clear();
+        if (mLoadControl != null)
+            mLoadControl.releaseReadAhead(mBuffers * CHUNK_BYTES);
+        mBuffers = 0;
+    }
+
+    // Start fetching chunks until there is one for each connection, or
+    // the budget has no room for more buffers
+    private void fetchAhead() {
+        int connections = getConnections();
+        while (mChunks.size() < connections && mNextFetch < mEnd) {
+            int length = (int) Math.min(CHUNK_BYTES, mEnd - mNextFetch);
+            byte[] data = mFreeBuffers.poll();
+            if (data == null) {
+                // One chunk is always allowed so that reading can go on
+                if (mLoadControl != null
+                        && !mLoadControl.reserveReadAhead(CHUNK_BYTES, mChunks.isEmpty()))
+                    break;
+                data = new byte[CHUNK_BYTES];
+                mBuffers++;
+            }
+            Chunk chunk = new Chunk(mNextFetch, length, data, connections);
+            mNextFetch += length;
+            mChunks.addLast(chunk);
+            chunk.future = sExecutor.submit(() -> fetch(chunk));
+        }
+    }
+
+    private void fetch(Chunk chunk) {
+        HttpDataSource dataSource = new DefaultHttpDataSource(mUserAgent);
+        long startNanos = System.nanoTime();
+        IOException error = null;
+        try {
+            dataSource.open(new DataSpec(mUri, chunk.start, chunk.length));
+            int filled = 0;
+            while (filled < chunk.length && !mClosed) {
+                int leng = dataSource.read(chunk.data, filled, chunk.length - filled);
+                if (leng == C.RESULT_END_OF_INPUT)
+                    break;
+                filled += leng;
+                synchronized (chunk) {
+                    chunk.filled = filled;
+                    chunk.notifyAll();
+                }
+            }
+            if (filled == chunk.length)
+                recordChunk(filled, System.nanoTime() - startNanos, chunk.connections);
+        } catch (IOException e) {
+            if (!mClosed)
+                Log.e(TAG, CLASS + " Chunk at " + chunk.start + " failed", e);
+            error = e;
+        } finally {
+            try {
+                dataSource.close();
+            } catch (IOException ignored) {
+            }
+            synchronized (chunk) {
+                chunk.error = error;
+                chunk.done = true;
+                chunk.notifyAll();
+            }
+        }
+    }
+
+    private static synchronized int getConnections() {
+        return sConnections;
+    }
+
+    /**
+     * Add a fetched chunk to the measurement, and after enough chunks
+     * move the number of connections toward the best throughput. Each
+     * connection is assumed to run alongside the others, so the total is
+     * the rate of one connection times the number of connections. The
+     * number keeps moving the same way while the total improves, and
+     * turns back when it falls. Chunks started with a different number of
+     * connections are not counted.
+     */
+    private static synchronized void recordChunk(long bytes, long nanos, int connections) {
+        if (connections != sConnections)
+            return;
+        sWindowBytes += bytes;
+        sWindowNanos += nanos;
+        if (++sWindowChunks < ADAPT_CHUNKS || sWindowNanos == 0)
+            return;
+        long kbps = sWindowBytes * 8 * 1000000 / sWindowNanos * sConnections;
+        int next = sConnections;
+        if (sLastKbps == 0 || kbps > sLastKbps * 11 / 10)
+            next += sDirection;
+        else if (kbps < sLastKbps * 9 / 10) {
+            sDirection = -sDirection;
+            next += sDirection;
+        }
+        if (next < 1 || next > MAX_CONNECTIONS) {
+            sDirection = -sDirection;
+            next = Math.max(1, Math.min(MAX_CONNECTIONS, next));
+        }
+        if (next != sConnections)
+            Log.i(TAG, CLASS + " " + kbps + " kbps with " + sConnections
+                    + " connections, changing to " + next);
+        sConnections = next;
+        sLastKbps = kbps;
+        sWindowBytes = 0;
+        sWindowNanos = 0;
+        sWindowChunks = 0;
+    }
+}
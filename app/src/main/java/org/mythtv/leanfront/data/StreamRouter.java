@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.util.Log;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chooses the backend to stream a file from. When MasterBackendOverride is
+ * set the stored urls are off the master, which then proxies files that are
+ * on other backends. Streams are sent to the backend that has the file
+ * instead, and go back to the url as stored if that backend cannot be
+ * reached. Bytes and read time are kept per host for checking where the
+ * data comes from.
+ */
+public class StreamRouter {
+
+    private static final String TAG = "lfe";
+    private static final String CLASS = "StreamRouter";
+    // A host that failed is not used again for this long
+    private static final long FAILED_RETRY_MS = 5 * 60 * 1000;
+    private static final String CONTENT_PATH = "/Content/";
+
+    private static final ConcurrentHashMap<String, Long> sFailedHosts = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, HostStats> sStats = new ConcurrentHashMap<>();
+
+    /**
+     * Transfer totals for one host, by ip and port.
+     */
+    public static class HostStats {
+        private long mBytes;
+        private long mNanos;
+        private int mStreams;
+        private int mFailures;
+
+        public synchronized long getBytes() {
+            return mBytes;
+        }
+
+        public synchronized int getStreams() {
+            return mStreams;
+        }
+
+        public synchronized int getFailures() {
+            return mFailures;
+        }
+
+        /**
+         * @return Average rate while reading, in kilobits per second
+         */
+        public synchronized long getKbps() {
+            if (mNanos == 0)
+                return 0;
+            return mBytes * 8 * 1000000 / mNanos;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "bytes " + mBytes + ", " + getKbps() + " kbps, streams " + mStreams
+                    + ", failures " + mFailures;
+        }
+    }
+
+    /**
+     * Get the url to stream from. This can look up the host address,
+     * so it must not be called on the UI thread.
+     * @param videoUrl Url as stored
+     * @param fileHost Backend that has the file, may be null
+     * @return The url off fileHost, or videoUrl if that is not possible
+     */
+    public static String route(String videoUrl, String fileHost) {
+        if (videoUrl == null || fileHost == null || fileHost.length() == 0)
+            return videoUrl;
+        int pos = videoUrl.indexOf(CONTENT_PATH);
+        if (pos < 0)
+            return videoUrl;
+        Long failed = sFailedHosts.get(fileHost);
+        if (failed != null) {
+            if (failed > System.currentTimeMillis() - FAILED_RETRY_MS)
+                return videoUrl;
+            sFailedHosts.remove(fileHost);
+        }
+        try {
+            String base = XmlNode.mythApiUrl(fileHost, null);
+            if (base == null)
+                return videoUrl;
+            return base + videoUrl.substring(pos);
+        } catch (IOException | XmlPullParserException e) {
+            Log.e(TAG, CLASS + " Exception resolving " + fileHost, e);
+            markFailed(fileHost);
+            return videoUrl;
+        }
+    }
+
+    /**
+     * Stop using a backend for a while after it could not be read from.
+     */
+    public static void markFailed(String fileHost) {
+        if (fileHost != null)
+            sFailedHosts.put(fileHost, System.currentTimeMillis());
+    }
+
+    /**
+     * Record a stream that has been read from.
+     * @param host ip and port of the url
+     * @param bytes Bytes read
+     * @param nanos Time spent reading
+     * @param failed true if it could not be opened
+     */
+    public static void addTransfer(String host, long bytes, long nanos, boolean failed) {
+        if (host == null)
+            return;
+        HostStats stats = sStats.get(host);
+        if (stats == null) {
+            sStats.putIfAbsent(host, new HostStats());
+            stats = sStats.get(host);
+        }
+        synchronized (stats) {
+            stats.mBytes += bytes;
+            stats.mNanos += nanos;
+            stats.mStreams++;
+            if (failed)
+                stats.mFailures++;
+        }
+    }
+
+    /**
+     * @return Transfer totals by host since the app started.
+     */
+    public static Map<String, HostStats> getStats() {
+        return new TreeMap<>(sStats);
+    }
+
+    public static void logStats() {
+        for (Map.Entry<String, HostStats> entry : getStats().entrySet())
+            Log.d(TAG, CLASS + " " + entry.getKey() + ": " + entry.getValue());
+    }
+}
@@ -40,6 +40,10 @@ public final class VideoContract {
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     // The content paths.
     public static final String PATH_VIDEO = "video";
+    public static final String PATH_SUMMARY = "summary";
+    public static final String PATH_VIDEODIR = "videodir";
+    public static final String PATH_GUIDE = "guide";
+    public static final String PATH_GUIDE_SEARCH = "guide/search";
 
     public static final class VideoEntry implements BaseColumns {
         public static final Uri CONTENT_URI =
@@ -64,6 +68,8 @@ public final class VideoContract {
         public static final String COLUMN_VIDEO_URL = "video_url";
         // Directory and name of video file, applies only to Videos storage group
         public static final String COLUMN_FILENAME = "filename";
+        // Directory part of filename, "" for top level, null except for videos
+        public static final String COLUMN_DIRECTORY = "directory";
         // Host name of video file
         public static final String COLUMN_HOSTNAME = "hostname";
         // The url to the background image.
@@ -98,14 +104,112 @@ public final class VideoContract {
         public static Uri buildVideoUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+        // Query parameter for a bulk insert that follows deleting the whole
+        // table, so the derived tables are rebuilt instead of updated.
+        public static final String PARAM_FULL_SYNC = "fullsync";
+        public static Uri buildFullSyncUri() {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_FULL_SYNC, "true").build();
+        }
         // see libmyth/programtypes.h for list of values.
         public static final String COLUMN_PROGFLAGS = "progflags";
         // Channel columns - use channel for the channel name
         public static final String COLUMN_CHANID = "chanid";
         public static final String COLUMN_CHANNUM = "channum";
         public static final String COLUMN_CALLSIGN = "callsign";
+        // Backend that has the file, hostname may be the master instead
+        public static final String COLUMN_FILEHOST = "filehost";
     } // end of VideoEntry
 
+    /* Inner class that defines the summary table.
+       One row per recording title in each recgroup, per top level video
+       file or directory, and per recgroup of channels, pointing at the video
+       row that represents it on the top level screen. Rebuilt by
+       VideoProvider whenever the video table changes. */
+    public static final class SummaryEntry implements BaseColumns {
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SUMMARY).build();
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "." + PATH_SUMMARY;
+        public static final String TABLE_NAME = "videosummary";
+        // _id of the representative row in the video table
+        public static final String COLUMN_REP_ID = "rep_id";
+        // Rectype of the rows summarized
+        public static final String COLUMN_GROUP_TYPE = "group_type";
+        // Recgroup, null for videos
+        public static final String COLUMN_GROUP_RECGROUP = "group_recgroup";
+        // Title for recordings, top level file or directory name for videos
+        public static final String COLUMN_GROUP_NAME = "group_name";
+        public static final String COLUMN_ITEM_COUNT = "item_count";
+        public static final String COLUMN_UNWATCHED_COUNT = "unwatched_count";
+        public static final String COLUMN_NEWEST_AIRDATE = "newest_airdate";
+    }
+
+    /* Inner class that defines the video directory table.
+       One row for every directory that contains videos at any depth,
+       rebuilt by VideoProvider whenever the video table changes. */
+    public static final class DirEntry implements BaseColumns {
+        // Query on this uri with the directory being browsed as the only
+        // selection argument. It returns the video rows in the directory
+        // and in its subdirectories, plus one placeholder row for each
+        // directory below those, with COLUMN_IS_DIR set.
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_VIDEODIR).build();
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "." + PATH_VIDEODIR;
+        public static final String TABLE_NAME = "videodir";
+        // Full path of the directory, without trailing /
+        public static final String COLUMN_PATH = "path";
+        // Path of the parent directory, "" for top level
+        public static final String COLUMN_PARENT = "parent";
+        // Last part of the path
+        public static final String COLUMN_NAME = "name";
+        // Number of parts in the path
+        public static final String COLUMN_DEPTH = "depth";
+        // Column in query results, 1 for a directory placeholder
+        public static final String COLUMN_IS_DIR = "is_dir";
+    }
+
+    /* Inner class that defines the local program guide table.
+       Filled in the background by FetchGuideService, one range of
+       hours at a time, and searched through a full text index. */
+    public static final class GuideEntry implements BaseColumns {
+        // Query with the search text as the only selection argument.
+        // Results are ranked, best first, and only include programs
+        // that have not ended.
+        public static final Uri SEARCH_URI =
+                BASE_CONTENT_URI.buildUpon().appendEncodedPath(PATH_GUIDE_SEARCH).build();
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "." + PATH_GUIDE;
+        public static final String TABLE_NAME = "guide";
+        // Full text index over title, subtitle, description and category
+        public static final String FTS_TABLE_NAME = "guide_fts";
+        public static final String COLUMN_CHANID = "chanid";
+        // Start and end times in milliseconds
+        public static final String COLUMN_STARTTIME = "starttime";
+        public static final String COLUMN_ENDTIME = "endtime";
+        public static final String COLUMN_TITLE = "title";
+        public static final String COLUMN_SUBTITLE = "subtitle";
+        public static final String COLUMN_DESC = "description";
+        public static final String COLUMN_CATEGORY = "category";
+        public static final String COLUMN_SEASON = "season";
+        public static final String COLUMN_EPISODE = "episode";
+        public static final String COLUMN_RECSTATUS = "recstatus";
+        // Channel number, name and callsign for display
+        public static final String COLUMN_CHANDETAILS = "chandetails";
+        // Column in search results, higher is a better match
+        public static final String COLUMN_RANK = "rank";
+    }
+
+    /* Inner class that defines the table of guide ranges fetched */
+    public static final class GuideRangeEntry implements BaseColumns {
+        public static final String TABLE_NAME = "guiderange";
+        // Start of the range in milliseconds
+        public static final String COLUMN_RANGE_START = "range_start";
+        // When the range was fetched, milliseconds
+        public static final String COLUMN_FETCHED = "fetched";
+    }
+
         /* Inner class that defines the status table */
     public static class StatusEntry implements BaseColumns {
         public static final String TABLE_NAME = "videostatus";
@@ -95,6 +95,16 @@ public class VideoDbBuilder {
     private Context mContext;
     private boolean mBackendOverride;
     private String mMasterServer;
+    // Backend override settings are kept for SETTINGS_TTL so that each
+    // fetch does not have to read them again.
+    private static final long SETTINGS_TTL = 60 * 60 * 1000;
+    private static String sSettingsBackend;
+    private static long sSettingsTime;
+    private static boolean sBackendOverride;
+    private static String sMasterServer;
+    // Size of preview images requested from the backend, 0 for full size
+    private int mPreviewWidth;
+    private int mPreviewHeight;
 
 
     // 2018-05-23T00:00:00Z
@@ -111,25 +121,49 @@ public class VideoDbBuilder {
 
     public VideoDbBuilder(Context context) {
         this.mContext = context;
-        try {
-            String url = XmlNode.mythApiUrl(null, "/Myth/GetSetting?key=MasterBackendOverride&Default=0&HostName=_GLOBAL_");
-            XmlNode result = XmlNode.fetch(url, null);
-            String resultValue = result.getString();
-            mBackendOverride = ("1".equals(resultValue));
-            mMasterServer = null;
-            if (mBackendOverride) {
-                url = XmlNode.mythApiUrl(null, "/Myth/GetSetting?key=MasterServerName&Default=0&HostName=_GLOBAL_");
-                result = XmlNode.fetch(url, null);
-                resultValue = result.getString();
-                // cater for old version where MasterServerName is not valued
-                if ("0".equals(resultValue))
-                    mBackendOverride = false;
-                else
-                    mMasterServer = resultValue;
+        // Request previews at the size the cards display them
+        mPreviewWidth = context.getResources().getDimensionPixelSize(R.dimen.card_width);
+        mPreviewHeight = context.getResources().getDimensionPixelSize(R.dimen.card_height);
+        loadBackendOverride();
+    }
+
+    public static synchronized void clearCachedSettings() {
+        sSettingsBackend = null;
+    }
+
+    private void loadBackendOverride() {
+        synchronized (VideoDbBuilder.class) {
+            try {
+                String backend = XmlNode.mythApiUrl(null, null);
+                if (backend != null && backend.equals(sSettingsBackend)
+                        && sSettingsTime > System.currentTimeMillis() - SETTINGS_TTL) {
+                    mBackendOverride = sBackendOverride;
+                    mMasterServer = sMasterServer;
+                    return;
+                }
+                String url = XmlNode.mythApiUrl(null, "/Myth/GetSetting?key=MasterBackendOverride&Default=0&HostName=_GLOBAL_");
+                XmlNode result = XmlNode.fetch(url, null);
+                String resultValue = result.getString();
+                mBackendOverride = ("1".equals(resultValue));
+                mMasterServer = null;
+                if (mBackendOverride) {
+                    url = XmlNode.mythApiUrl(null, "/Myth/GetSetting?key=MasterServerName&Default=0&HostName=_GLOBAL_");
+                    result = XmlNode.fetch(url, null);
+                    resultValue = result.getString();
+                    // cater for old version where MasterServerName is not valued
+                    if ("0".equals(resultValue))
+                        mBackendOverride = false;
+                    else
+                        mMasterServer = resultValue;
+                }
+                sBackendOverride = mBackendOverride;
+                sMasterServer = mMasterServer;
+                sSettingsBackend = backend;
+                sSettingsTime = System.currentTimeMillis();
+            } catch (IOException | XmlPullParserException e) {
+                e.printStackTrace();
+                mBackendOverride = false;
             }
-        } catch (IOException | XmlPullParserException e) {
-            e.printStackTrace();
-            mBackendOverride = false;
         }
     }
 
@@ -261,19 +295,22 @@ public class VideoDbBuilder {
             String fanArtUrl = null;
             String prodYear = null;
             String baseHostUrl = null;
+            String fileHost = null;
             if (phase == 0 || phase == 1) {
                 recordedid = recordingNode.getString(tagRecordedId);
                 title = programNode.getString(XMLTAG_TITLE);
-                // These next three lines cause chaos.!!!
+                fileHost = recordingNode.getString(XMLTAG_HOSTNAME);
+                // With the override the stored url is off the master. Playback
+                // is routed to fileHost by StreamRouter when it can be reached.
                 if (phase == 0 && mBackendOverride)  // Recordings
                     hostName = mMasterServer;
                 else
-                    hostName = recordingNode.getString(XMLTAG_HOSTNAME);
+                    hostName = fileHost;
                 subtitle = programNode.getString(XMLTAG_SUBTITLE);
                 description = programNode.getString(XMLTAG_DESCRIPTION);
                 videoFileName = recordingNode.getString(XMLTAG_FILENAME);
                 baseUrl = XmlNode.mythApiUrl(hostName, null);
-                baseHostUrl = XmlNode.mythApiUrl(recordingNode.getString(XMLTAG_HOSTNAME), null);
+                baseHostUrl = XmlNode.mythApiUrl(fileHost, null);
                 videoUrl = baseUrl + "/Content/GetFile?StorageGroup="
                         + storageGroup + "&FileName=/" + URLEncoder.encode(videoFileName, "UTF-8");
                 XmlNode artInfoNode = null;
@@ -306,8 +343,21 @@ public class VideoDbBuilder {
             String cardImageURL = null;
             String dbFileName = null;
             dbFileName = videoFileName;
+            // Directory of a video file, "" for the top level,
+            // used for browsing videos by directory.
+            String directory = null;
+            if (phase == 1 && dbFileName != null) {
+                int slash = dbFileName.lastIndexOf('/');
+                if (slash >= 0)
+                    directory = dbFileName.substring(0, slash);
+                else
+                    directory = "";
+            }
             if (phase == 0) { // Recordings
-                cardImageURL = baseHostUrl + "/Content/GetPreviewImage?Format=png&RecordedId=" + recordedid;
+                // jpg at card size is much cheaper for the backend than a full size png
+                cardImageURL = baseHostUrl + "/Content/GetPreviewImage?Format=jpg&RecordedId=" + recordedid;
+                if (mPreviewWidth > 0 && mPreviewHeight > 0)
+                    cardImageURL = cardImageURL + "&Width=" + mPreviewWidth + "&Height=" + mPreviewHeight;
             }
             if (phase == 1) { // Videos
                 cardImageURL = coverArtUrl;
@@ -329,7 +379,9 @@ public class VideoDbBuilder {
             videoValues.put(VideoContract.VideoEntry.COLUMN_DESC, description);
             videoValues.put(VideoContract.VideoEntry.COLUMN_VIDEO_URL, videoUrl);
             videoValues.put(VideoContract.VideoEntry.COLUMN_FILENAME, dbFileName);
+            videoValues.put(VideoContract.VideoEntry.COLUMN_DIRECTORY, directory);
             videoValues.put(VideoContract.VideoEntry.COLUMN_HOSTNAME, hostName);
+            videoValues.put(VideoContract.VideoEntry.COLUMN_FILEHOST, fileHost);
             videoValues.put(VideoContract.VideoEntry.COLUMN_CARD_IMG, cardImageURL);
             videoValues.put(VideoContract.VideoEntry.COLUMN_BG_IMAGE_URL, fanArtUrl);
             videoValues.put(VideoContract.VideoEntry.COLUMN_CHANNEL, channel);
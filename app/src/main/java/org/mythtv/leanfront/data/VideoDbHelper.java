@@ -26,25 +26,110 @@ package org.mythtv.leanfront.data;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
+import org.mythtv.leanfront.data.VideoContract.DirEntry;
+import org.mythtv.leanfront.data.VideoContract.GuideEntry;
+import org.mythtv.leanfront.data.VideoContract.GuideRangeEntry;
 import org.mythtv.leanfront.data.VideoContract.VideoEntry;
 import org.mythtv.leanfront.data.VideoContract.StatusEntry;
+import org.mythtv.leanfront.data.VideoContract.SummaryEntry;
 
 
 /**
  * VideoDbHelper manages the creation and upgrade of the database used in this sample.
+ * There is one instance per process, obtained with getInstance. Its database
+ * stays open for the life of the process and must not be closed by callers.
+ * Write ahead logging lets reads go ahead while a refresh is being written.
  */
 public class VideoDbHelper extends SQLiteOpenHelper {
 
     // Change this when you change the database schema.
-    private static final int DATABASE_VERSION = 10;
+    private static final int DATABASE_VERSION = 15;
 
     // The name of our database.
     private static final String DATABASE_NAME = "leanback.db";
 
-    public VideoDbHelper(Context context) {
+    private static VideoDbHelper sInstance;
+
+    // Prepared statements for frequent lookups, created on first use.
+    // Statements are not thread safe, so they are used under the lock of this object.
+    private SQLiteStatement mBookmarkQuery;
+    private SQLiteStatement mBookmarkUpdate;
+    private SQLiteStatement mBookmarkInsert;
+
+    private VideoDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    public static synchronized VideoDbHelper getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new VideoDbHelper(context.getApplicationContext());
+        return sInstance;
+    }
+
+    /**
+     * Get the local bookmark for a video.
+     * @param videoUrl Url of the video
+     * @return bookmark in milliseconds, 0 if there is none
+     */
+    public synchronized long getBookmark(String videoUrl) {
+        if (videoUrl == null)
+            return 0;
+        if (mBookmarkQuery == null)
+            mBookmarkQuery = getWritableDatabase().compileStatement(
+                    "SELECT " + StatusEntry.COLUMN_BOOKMARK
+                    + " FROM " + StatusEntry.TABLE_NAME
+                    + " WHERE " + StatusEntry.COLUMN_VIDEO_URL + " = ?");
+        mBookmarkQuery.bindString(1, videoUrl);
+        try {
+            return mBookmarkQuery.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // No bookmark
+            return 0;
+        } finally {
+            mBookmarkQuery.clearBindings();
+        }
+    }
+
+    /**
+     * Save the local bookmark for a video. A new entry is only
+     * created if the bookmark is not zero.
+     * @param videoUrl Url of the video
+     * @param bookmark bookmark in milliseconds
+     */
+    public synchronized void setBookmark(String videoUrl, long bookmark) {
+        if (videoUrl == null)
+            return;
+        SQLiteDatabase db = getWritableDatabase();
+        if (mBookmarkUpdate == null) {
+            mBookmarkUpdate = db.compileStatement(
+                    "UPDATE " + StatusEntry.TABLE_NAME
+                    + " SET " + StatusEntry.COLUMN_LAST_USED + " = ?, "
+                    + StatusEntry.COLUMN_BOOKMARK + " = ?"
+                    + " WHERE " + StatusEntry.COLUMN_VIDEO_URL + " = ?");
+            mBookmarkInsert = db.compileStatement(
+                    "INSERT INTO " + StatusEntry.TABLE_NAME + " ("
+                    + StatusEntry.COLUMN_LAST_USED + ", "
+                    + StatusEntry.COLUMN_BOOKMARK + ", "
+                    + StatusEntry.COLUMN_VIDEO_URL + ") VALUES (?,?,?)");
+        }
+        long now = System.currentTimeMillis();
+        mBookmarkUpdate.bindLong(1, now);
+        mBookmarkUpdate.bindLong(2, bookmark);
+        mBookmarkUpdate.bindString(3, videoUrl);
+        int sqlCount = mBookmarkUpdate.executeUpdateDelete();
+        mBookmarkUpdate.clearBindings();
+        if (sqlCount == 0 && bookmark > 0) {
+            mBookmarkInsert.bindLong(1, now);
+            mBookmarkInsert.bindLong(2, bookmark);
+            mBookmarkInsert.bindString(3, videoUrl);
+            mBookmarkInsert.executeInsert();
+            mBookmarkInsert.clearBindings();
+        }
     }
 
     @Override
@@ -66,6 +151,7 @@ public class VideoDbHelper extends SQLiteOpenHelper {
                     VideoEntry.COLUMN_SUBTITLE + " TEXT, " +
                     VideoEntry.COLUMN_VIDEO_URL + " TEXT, " +
                     VideoEntry.COLUMN_FILENAME + " TEXT, " +
+                    VideoEntry.COLUMN_DIRECTORY + " TEXT, " +
                     VideoEntry.COLUMN_HOSTNAME + " TEXT, " +
                     VideoEntry.COLUMN_DESC + " TEXT, " +
                     VideoEntry.COLUMN_BG_IMAGE_URL + " TEXT, " +
@@ -86,11 +172,91 @@ public class VideoDbHelper extends SQLiteOpenHelper {
                     VideoEntry.COLUMN_PROGFLAGS + " TEXT," +
                     VideoEntry.COLUMN_CHANID   + " TEXT," +
                     VideoEntry.COLUMN_CHANNUM  + " TEXT," +
-                    VideoEntry.COLUMN_CALLSIGN + " TEXT" +
+                    VideoEntry.COLUMN_CALLSIGN + " TEXT," +
+                    VideoEntry.COLUMN_FILEHOST + " TEXT" +
                     " );";
 
             // Do the creating of the table.
             db.execSQL(SQL_CREATE_VIDEO_TABLE);
+            db.execSQL("CREATE INDEX IF NOT EXISTS video_recordedid ON "
+                    + VideoEntry.TABLE_NAME + " (" + VideoEntry.COLUMN_RECORDEDID + ")");
+
+            // Summary of the video table, rebuilt along with it
+            db.execSQL("DROP TABLE IF EXISTS " + SummaryEntry.TABLE_NAME);
+            final String SQL_CREATE_SUMMARY_TABLE = "CREATE TABLE " + SummaryEntry.TABLE_NAME + " (" +
+                    SummaryEntry._ID + " INTEGER PRIMARY KEY," +
+                    SummaryEntry.COLUMN_REP_ID + " INTEGER NOT NULL, " +
+                    SummaryEntry.COLUMN_GROUP_TYPE + " INTEGER, " +
+                    SummaryEntry.COLUMN_GROUP_RECGROUP + " TEXT, " +
+                    SummaryEntry.COLUMN_GROUP_NAME + " TEXT, " +
+                    SummaryEntry.COLUMN_ITEM_COUNT + " INTEGER, " +
+                    SummaryEntry.COLUMN_UNWATCHED_COUNT + " INTEGER, " +
+                    SummaryEntry.COLUMN_NEWEST_AIRDATE + " TEXT" +
+                    " );";
+            db.execSQL(SQL_CREATE_SUMMARY_TABLE);
+
+            // Directories of videos, rebuilt along with the video table
+            db.execSQL("CREATE INDEX IF NOT EXISTS video_directory ON "
+                    + VideoEntry.TABLE_NAME + " (" + VideoEntry.COLUMN_DIRECTORY + ")");
+            db.execSQL("DROP TABLE IF EXISTS " + DirEntry.TABLE_NAME);
+            final String SQL_CREATE_DIR_TABLE = "CREATE TABLE " + DirEntry.TABLE_NAME + " (" +
+                    DirEntry._ID + " INTEGER PRIMARY KEY," +
+                    DirEntry.COLUMN_PATH + " TEXT NOT NULL UNIQUE, " +
+                    DirEntry.COLUMN_PARENT + " TEXT NOT NULL, " +
+                    DirEntry.COLUMN_NAME + " TEXT NOT NULL, " +
+                    DirEntry.COLUMN_DEPTH + " INTEGER" +
+                    " );";
+            db.execSQL(SQL_CREATE_DIR_TABLE);
+            db.execSQL("CREATE INDEX IF NOT EXISTS videodir_parent ON "
+                    + DirEntry.TABLE_NAME + " (" + DirEntry.COLUMN_PARENT + ")");
+
+            // Local copy of the program guide. It is only a cache of the
+            // backend guide, so it is recreated empty on upgrade.
+            db.execSQL("DROP TABLE IF EXISTS " + GuideEntry.FTS_TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + GuideEntry.TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + GuideRangeEntry.TABLE_NAME);
+            final String SQL_CREATE_GUIDE_TABLE = "CREATE TABLE " + GuideEntry.TABLE_NAME + " (" +
+                    GuideEntry._ID + " INTEGER PRIMARY KEY," +
+                    GuideEntry.COLUMN_CHANID + " INTEGER, " +
+                    GuideEntry.COLUMN_STARTTIME + " INTEGER, " +
+                    GuideEntry.COLUMN_ENDTIME + " INTEGER, " +
+                    GuideEntry.COLUMN_TITLE + " TEXT, " +
+                    GuideEntry.COLUMN_SUBTITLE + " TEXT, " +
+                    GuideEntry.COLUMN_DESC + " TEXT, " +
+                    GuideEntry.COLUMN_CATEGORY + " TEXT, " +
+                    GuideEntry.COLUMN_SEASON + " INTEGER, " +
+                    GuideEntry.COLUMN_EPISODE + " INTEGER, " +
+                    GuideEntry.COLUMN_RECSTATUS + " TEXT, " +
+                    GuideEntry.COLUMN_CHANDETAILS + " TEXT" +
+                    " );";
+            db.execSQL(SQL_CREATE_GUIDE_TABLE);
+            db.execSQL("CREATE INDEX IF NOT EXISTS guide_starttime ON "
+                    + GuideEntry.TABLE_NAME + " (" + GuideEntry.COLUMN_STARTTIME + ")");
+            // The full text table reads its text from the guide table,
+            // triggers keep its index in step.
+            String ftsColumns = GuideEntry.COLUMN_TITLE + ", "
+                    + GuideEntry.COLUMN_SUBTITLE + ", "
+                    + GuideEntry.COLUMN_DESC + ", "
+                    + GuideEntry.COLUMN_CATEGORY;
+            db.execSQL("CREATE VIRTUAL TABLE " + GuideEntry.FTS_TABLE_NAME
+                    + " USING fts4(content=\"" + GuideEntry.TABLE_NAME + "\", "
+                    + ftsColumns + ", tokenize=unicode61)");
+            db.execSQL("CREATE TRIGGER guide_bd BEFORE DELETE ON " + GuideEntry.TABLE_NAME
+                    + " BEGIN DELETE FROM " + GuideEntry.FTS_TABLE_NAME
+                    + " WHERE docid = old.rowid; END");
+            db.execSQL("CREATE TRIGGER guide_ai AFTER INSERT ON " + GuideEntry.TABLE_NAME
+                    + " BEGIN INSERT INTO " + GuideEntry.FTS_TABLE_NAME
+                    + " (docid, " + ftsColumns + ") VALUES (new.rowid, new."
+                    + GuideEntry.COLUMN_TITLE + ", new."
+                    + GuideEntry.COLUMN_SUBTITLE + ", new."
+                    + GuideEntry.COLUMN_DESC + ", new."
+                    + GuideEntry.COLUMN_CATEGORY + "); END");
+            final String SQL_CREATE_GUIDERANGE_TABLE = "CREATE TABLE " + GuideRangeEntry.TABLE_NAME + " (" +
+                    GuideRangeEntry._ID + " INTEGER PRIMARY KEY," +
+                    GuideRangeEntry.COLUMN_RANGE_START + " INTEGER NOT NULL UNIQUE, " +
+                    GuideRangeEntry.COLUMN_FETCHED + " INTEGER NOT NULL" +
+                    " );";
+            db.execSQL(SQL_CREATE_GUIDERANGE_TABLE);
         }
         // This table needs to be preserved. Use alter rather than recreating
         if (oldVersion == 0) {
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.mythtv.leanfront.data.VideoContract.DirEntry;
+import org.mythtv.leanfront.data.VideoContract.VideoEntry;
+
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * Rebuilds the video directory table from the directory column of the
+ * video table, so that browsing a directory is an indexed lookup of its
+ * children instead of splitting the file name of every video. After a
+ * change to a few videos only their directories are checked again.
+ */
+public class VideoDirectoryBuilder {
+
+    /**
+     * Replace the contents of the directory table. Every directory that
+     * contains a video at any depth gets a row, including directories
+     * that only contain other directories.
+     * @param db Writable database
+     */
+    public static void rebuild(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            TreeSet<String> paths = new TreeSet<>();
+            Cursor cursor = db.query(true, VideoEntry.TABLE_NAME,
+                    new String[]{VideoEntry.COLUMN_DIRECTORY},
+                    VideoEntry.COLUMN_RECTYPE + " = " + VideoEntry.RECTYPE_VIDEO
+                            + " AND " + VideoEntry.COLUMN_DIRECTORY + " <> ''",
+                    null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    String path = cursor.getString(0);
+                    // Add the directory and any parents not already added
+                    while (path.length() > 0 && paths.add(path)) {
+                        int slash = path.lastIndexOf('/');
+                        path = slash >= 0 ? path.substring(0, slash) : "";
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+
+            db.delete(DirEntry.TABLE_NAME, null, null);
+            SQLiteStatement insert = compileInsert(db, "INSERT");
+            for (String path : paths)
+                insertPath(insert, path);
+            insert.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Check some directories and their parents again, after videos in them
+     * have been added, changed or removed. A directory is kept if any video
+     * is in it or below it.
+     * @param db Writable database
+     * @param directories Directories of the videos before and after the change
+     */
+    public static void update(SQLiteDatabase db, Collection<String> directories) {
+        TreeSet<String> paths = new TreeSet<>();
+        for (String path : directories) {
+            while (path != null && path.length() > 0 && paths.add(path)) {
+                int slash = path.lastIndexOf('/');
+                path = slash >= 0 ? path.substring(0, slash) : "";
+            }
+        }
+        if (paths.isEmpty())
+            return;
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = compileInsert(db, "INSERT OR IGNORE");
+            for (String path : paths) {
+                // Escape the LIKE wildcards in the path
+                String pattern = path.replace("\\", "\\\\").replace("%", "\\%")
+                        .replace("_", "\\_") + "/%";
+                Cursor cursor = db.query(VideoEntry.TABLE_NAME,
+                        new String[]{VideoEntry._ID},
+                        VideoEntry.COLUMN_RECTYPE + " = " + VideoEntry.RECTYPE_VIDEO
+                                + " AND (" + VideoEntry.COLUMN_DIRECTORY + " = ? OR "
+                                + VideoEntry.COLUMN_DIRECTORY + " LIKE ? ESCAPE '\\')",
+                        new String[]{path, pattern}, null, null, null, "1");
+                boolean used;
+                try {
+                    used = cursor.moveToFirst();
+                } finally {
+                    cursor.close();
+                }
+                if (used)
+                    insertPath(insert, path);
+                else
+                    db.delete(DirEntry.TABLE_NAME, DirEntry.COLUMN_PATH + " = ?",
+                            new String[]{path});
+            }
+            insert.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static SQLiteStatement compileInsert(SQLiteDatabase db, String verb) {
+        return db.compileStatement(verb + " INTO "
+                + DirEntry.TABLE_NAME + " ("
+                + DirEntry.COLUMN_PATH + ", "
+                + DirEntry.COLUMN_PARENT + ", "
+                + DirEntry.COLUMN_NAME + ", "
+                + DirEntry.COLUMN_DEPTH
+                + ") VALUES (?,?,?,?)");
+    }
+
+    private static void insertPath(SQLiteStatement insert, String path) {
+        int slash = path.lastIndexOf('/');
+        int depth = 1;
+        for (int ix = path.indexOf('/'); ix >= 0; ix = path.indexOf('/', ix + 1))
+            depth++;
+        insert.clearBindings();
+        insert.bindString(1, path);
+        insert.bindString(2, slash >= 0 ? path.substring(0, slash) : "");
+        insert.bindString(3, path.substring(slash + 1));
+        insert.bindLong(4, depth);
+        insert.executeInsert();
+    }
+}
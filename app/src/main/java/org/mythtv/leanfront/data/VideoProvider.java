@@ -31,13 +31,17 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.text.TextUtils;
 import androidx.annotation.NonNull;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 /**
  * VideoProvider is a ContentProvider that provides videos for the rest of applications.
@@ -51,6 +55,42 @@ public class VideoProvider extends ContentProvider {
     private static final int VIDEO_WITH_CATEGORY = 2;
     private static final int SEARCH_SUGGEST = 3;
     private static final int REFRESH_SHORTCUT = 4;
+    private static final int SUMMARY = 5;
+    private static final int VIDEODIR = 6;
+    private static final int GUIDE_SEARCH = 7;
+
+    // Weights for guide search matches in each column. Every program that
+    // matches all the words anywhere scores 1, and more for each column
+    // that has all the words.
+    private static final String[] sGuideSearchColumns = {
+            VideoContract.GuideEntry.COLUMN_TITLE,
+            VideoContract.GuideEntry.COLUMN_SUBTITLE,
+            VideoContract.GuideEntry.COLUMN_CATEGORY
+    };
+    private static final int[] sGuideSearchWeights = {8, 4, 2};
+    private static final String sGuideSearchQuery = buildGuideSearchQuery();
+
+    // Summary rows joined to their representative video rows
+    private static final String SUMMARY_TABLES = VideoContract.VideoEntry.TABLE_NAME
+            + " JOIN " + VideoContract.SummaryEntry.TABLE_NAME
+            + " ON " + VideoContract.VideoEntry.TABLE_NAME + "." + VideoContract.VideoEntry._ID
+            + " = " + VideoContract.SummaryEntry.TABLE_NAME + "."
+            + VideoContract.SummaryEntry.COLUMN_REP_ID;
+    private static final String[] sSummaryColumns = {
+            VideoContract.VideoEntry.TABLE_NAME + ".*",
+            VideoContract.SummaryEntry.COLUMN_GROUP_NAME,
+            VideoContract.SummaryEntry.COLUMN_ITEM_COUNT,
+            VideoContract.SummaryEntry.COLUMN_UNWATCHED_COUNT,
+            VideoContract.SummaryEntry.COLUMN_NEWEST_AIRDATE
+    };
+
+    // Video rows for browsing a directory, merged with placeholder rows for
+    // directories two levels down. The same selection argument (the
+    // directory being browsed) is used for each ?.
+    private static final String sChildDirs = "SELECT " + VideoContract.DirEntry.COLUMN_PATH
+            + " FROM " + VideoContract.DirEntry.TABLE_NAME
+            + " WHERE " + VideoContract.DirEntry.COLUMN_PARENT + " = ?";
+    private static final String sVideoDirQuery = buildVideoDirQuery();
 
     private static final SQLiteQueryBuilder sVideosContainingQueryBuilder;
     private static final String[] sVideosContainingQueryColumns;
@@ -61,7 +101,7 @@ public class VideoProvider extends ContentProvider {
     public boolean onCreate() {
         Context context = getContext();
         mContentResolver = context.getContentResolver();
-        mOpenHelper = new VideoDbHelper(context);
+        mOpenHelper = VideoDbHelper.getInstance(context);
         return true;
     }
 
@@ -102,6 +142,9 @@ public class VideoProvider extends ContentProvider {
         // For each type of URI to add, create a corresponding code.
         matcher.addURI(authority, VideoContract.PATH_VIDEO, VIDEO);
         matcher.addURI(authority, VideoContract.PATH_VIDEO + "/*", VIDEO_WITH_CATEGORY);
+        matcher.addURI(authority, VideoContract.PATH_SUMMARY, SUMMARY);
+        matcher.addURI(authority, VideoContract.PATH_VIDEODIR, VIDEODIR);
+        matcher.addURI(authority, VideoContract.PATH_GUIDE_SEARCH, GUIDE_SEARCH);
 
         // Search related URIs.
         matcher.addURI(authority, "search/" + SearchManager.SUGGEST_URI_PATH_QUERY, SEARCH_SUGGEST);
@@ -123,6 +166,118 @@ public class VideoProvider extends ContentProvider {
         );
     }
 
+    private static String buildVideoDirQuery() {
+        // All columns of the video table, in the order they were created.
+        String[] columns = {
+                VideoContract.VideoEntry._ID,
+                VideoContract.VideoEntry.COLUMN_RECTYPE,
+                VideoContract.VideoEntry.COLUMN_TITLE,
+                VideoContract.VideoEntry.COLUMN_SUBTITLE,
+                VideoContract.VideoEntry.COLUMN_VIDEO_URL,
+                VideoContract.VideoEntry.COLUMN_FILENAME,
+                VideoContract.VideoEntry.COLUMN_DIRECTORY,
+                VideoContract.VideoEntry.COLUMN_HOSTNAME,
+                VideoContract.VideoEntry.COLUMN_DESC,
+                VideoContract.VideoEntry.COLUMN_BG_IMAGE_URL,
+                VideoContract.VideoEntry.COLUMN_CHANNEL,
+                VideoContract.VideoEntry.COLUMN_CARD_IMG,
+                VideoContract.VideoEntry.COLUMN_CONTENT_TYPE,
+                VideoContract.VideoEntry.COLUMN_PRODUCTION_YEAR,
+                VideoContract.VideoEntry.COLUMN_DURATION,
+                VideoContract.VideoEntry.COLUMN_ACTION,
+                VideoContract.VideoEntry.COLUMN_AIRDATE,
+                VideoContract.VideoEntry.COLUMN_STARTTIME,
+                VideoContract.VideoEntry.COLUMN_ENDTIME,
+                VideoContract.VideoEntry.COLUMN_RECORDEDID,
+                VideoContract.VideoEntry.COLUMN_STORAGEGROUP,
+                VideoContract.VideoEntry.COLUMN_RECGROUP,
+                VideoContract.VideoEntry.COLUMN_SEASON,
+                VideoContract.VideoEntry.COLUMN_EPISODE,
+                VideoContract.VideoEntry.COLUMN_PROGFLAGS,
+                VideoContract.VideoEntry.COLUMN_CHANID,
+                VideoContract.VideoEntry.COLUMN_CHANNUM,
+                VideoContract.VideoEntry.COLUMN_CALLSIGN,
+                VideoContract.VideoEntry.COLUMN_FILEHOST
+        };
+        // Values for the directory placeholders, other columns are null.
+        // The file name with a trailing / makes a placeholder sort just
+        // before the files it contains.
+        HashMap<String, String> dirValues = new HashMap<>();
+        dirValues.put(VideoContract.VideoEntry.COLUMN_RECTYPE,
+                String.valueOf(VideoContract.VideoEntry.RECTYPE_VIDEO));
+        dirValues.put(VideoContract.VideoEntry.COLUMN_TITLE, VideoContract.DirEntry.COLUMN_NAME);
+        dirValues.put(VideoContract.VideoEntry.COLUMN_RECORDEDID, VideoContract.DirEntry.COLUMN_NAME);
+        dirValues.put(VideoContract.VideoEntry.COLUMN_FILENAME,
+                VideoContract.DirEntry.COLUMN_PATH + "||'/'");
+        dirValues.put(VideoContract.VideoEntry.COLUMN_DIRECTORY, VideoContract.DirEntry.COLUMN_PARENT);
+        dirValues.put(VideoContract.VideoEntry.COLUMN_PROGFLAGS, "'0'");
+
+        StringBuilder files = new StringBuilder("SELECT ");
+        StringBuilder dirs = new StringBuilder("SELECT ");
+        for (String column : columns) {
+            files.append(column).append(", ");
+            String value = dirValues.get(column);
+            dirs.append(value == null ? "NULL" : value).append(" AS ").append(column).append(", ");
+        }
+        files.append("0 AS ").append(VideoContract.DirEntry.COLUMN_IS_DIR)
+                .append(" FROM ").append(VideoContract.VideoEntry.TABLE_NAME)
+                .append(" WHERE ").append(VideoContract.VideoEntry.COLUMN_RECTYPE)
+                .append(" = ").append(VideoContract.VideoEntry.RECTYPE_VIDEO)
+                .append(" AND (").append(VideoContract.VideoEntry.COLUMN_DIRECTORY).append(" = ?")
+                .append(" OR ").append(VideoContract.VideoEntry.COLUMN_DIRECTORY)
+                .append(" IN (").append(sChildDirs).append("))");
+        dirs.append("1 AS ").append(VideoContract.DirEntry.COLUMN_IS_DIR)
+                .append(" FROM ").append(VideoContract.DirEntry.TABLE_NAME)
+                .append(" WHERE ").append(VideoContract.DirEntry.COLUMN_PARENT)
+                .append(" IN (").append(sChildDirs).append(")");
+        // Wrapped so that the order by can use expressions
+        return "SELECT * FROM (" + files + " UNION ALL " + dirs + ")";
+    }
+
+    private static String buildGuideSearchQuery() {
+        String fts = VideoContract.GuideEntry.FTS_TABLE_NAME;
+        StringBuilder matches = new StringBuilder();
+        matches.append("SELECT docid, 1 AS w FROM ").append(fts)
+                .append(" WHERE ").append(fts).append(" MATCH ?");
+        for (int ix = 0; ix < sGuideSearchColumns.length; ix++)
+            matches.append(" UNION ALL SELECT docid, ").append(sGuideSearchWeights[ix])
+                    .append(" AS w FROM ").append(fts)
+                    .append(" WHERE ").append(fts).append(" MATCH ?");
+        String guide = VideoContract.GuideEntry.TABLE_NAME;
+        return "SELECT " + guide + ".*, r." + VideoContract.GuideEntry.COLUMN_RANK
+                + " FROM " + guide + " JOIN (SELECT docid, SUM(w) AS "
+                + VideoContract.GuideEntry.COLUMN_RANK + " FROM (" + matches
+                + ") GROUP BY docid) r ON " + guide + "." + VideoContract.GuideEntry._ID
+                + " = r.docid WHERE " + guide + "." + VideoContract.GuideEntry.COLUMN_ENDTIME
+                + " > ? ORDER BY r." + VideoContract.GuideEntry.COLUMN_RANK + " DESC, "
+                + guide + "." + VideoContract.GuideEntry.COLUMN_STARTTIME;
+    }
+
+    // Selection arguments for sGuideSearchQuery. Each word of the search
+    // text is matched as a prefix, in any column and then in each column.
+    private static String[] buildGuideSearchArgs(String text) {
+        StringBuilder words = new StringBuilder();
+        String[] args = new String[sGuideSearchColumns.length + 2];
+        StringBuilder[] columnWords = new StringBuilder[sGuideSearchColumns.length];
+        for (int ix = 0; ix < columnWords.length; ix++)
+            columnWords[ix] = new StringBuilder();
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() == 0)
+                continue;
+            words.append(word).append("* ");
+            for (int ix = 0; ix < columnWords.length; ix++)
+                columnWords[ix].append(sGuideSearchColumns[ix]).append(':')
+                        .append(word).append("* ");
+        }
+        if (words.length() == 0)
+            return null;
+        args[0] = words.toString().trim();
+        for (int ix = 0; ix < columnWords.length; ix++)
+            args[ix + 1] = columnWords[ix].toString().trim();
+        args[args.length - 1] = String.valueOf(System.currentTimeMillis());
+        return args;
+    }
+
     private static HashMap<String, String> buildColumnMap() {
         HashMap<String, String> map = new HashMap<>();
         map.put(VideoContract.VideoEntry._ID, VideoContract.VideoEntry._ID);
@@ -155,6 +310,7 @@ public class VideoProvider extends ContentProvider {
         map.put(VideoContract.VideoEntry.COLUMN_CHANID, VideoContract.VideoEntry.COLUMN_CHANID);
         map.put(VideoContract.VideoEntry.COLUMN_CHANNUM, VideoContract.VideoEntry.COLUMN_CHANNUM);
         map.put(VideoContract.VideoEntry.COLUMN_CALLSIGN, VideoContract.VideoEntry.COLUMN_CALLSIGN);
+        map.put(VideoContract.VideoEntry.COLUMN_FILEHOST, VideoContract.VideoEntry.COLUMN_FILEHOST);
 
         map.put(SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID, VideoContract.VideoEntry._ID + " AS " +
                 SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID);
@@ -188,6 +344,44 @@ public class VideoProvider extends ContentProvider {
                 );
                 break;
             }
+            case VIDEODIR: {
+                String dirName = "";
+                if (selectionArgs != null && selectionArgs.length > 0
+                        && selectionArgs[0] != null)
+                    dirName = selectionArgs[0];
+                String sql = sVideoDirQuery;
+                if (sortOrder != null && sortOrder.length() > 0)
+                    sql = sql + " ORDER BY " + sortOrder;
+                retCursor = mOpenHelper.getReadableDatabase().rawQuery(sql,
+                        new String[]{dirName, dirName, dirName});
+                break;
+            }
+            case GUIDE_SEARCH: {
+                String[] args = null;
+                if (selectionArgs != null && selectionArgs.length > 0
+                        && selectionArgs[0] != null)
+                    args = buildGuideSearchArgs(selectionArgs[0]);
+                if (args == null)
+                    // Nothing to search for
+                    retCursor = new MatrixCursor(new String[]{VideoContract.GuideEntry._ID});
+                else
+                    retCursor = mOpenHelper.getReadableDatabase().rawQuery(sGuideSearchQuery, args);
+                break;
+            }
+            case SUMMARY: {
+                if (projection == null)
+                    projection = sSummaryColumns;
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        SUMMARY_TABLES,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
             default: {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
@@ -205,6 +399,12 @@ public class VideoProvider extends ContentProvider {
                 return VideoContract.VideoEntry.CONTENT_TYPE;
             case VIDEO:
                 return VideoContract.VideoEntry.CONTENT_TYPE;
+            case SUMMARY:
+                return VideoContract.SummaryEntry.CONTENT_TYPE;
+            case VIDEODIR:
+                return VideoContract.DirEntry.CONTENT_TYPE;
+            case GUIDE_SEARCH:
+                return VideoContract.GuideEntry.CONTENT_TYPE;
 
             // The Android TV global search is querying our app for relevant content.
             case SEARCH_SUGGEST:
@@ -225,8 +425,21 @@ public class VideoProvider extends ContentProvider {
 
         switch (match) {
             case VIDEO: {
-                long _id = mOpenHelper.getWritableDatabase().insert(
-                        VideoContract.VideoEntry.TABLE_NAME, null, values);
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                long _id;
+                db.beginTransaction();
+                try {
+                    _id = db.insert(
+                            VideoContract.VideoEntry.TABLE_NAME, null, values);
+                    if (_id > 0) {
+                        DerivedKeys keys = new DerivedKeys();
+                        keys.read(db, VideoContract.VideoEntry._ID + " = " + _id, null);
+                        keys.update(db);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 if (_id > 0) {
                     returnUri = VideoContract.VideoEntry.buildVideoUri(_id);
                 } else {
@@ -239,7 +452,7 @@ public class VideoProvider extends ContentProvider {
             }
         }
 
-        mContentResolver.notifyChange(uri, null);
+        notifyVideoChange(uri);
         return returnUri;
     }
 
@@ -253,8 +466,19 @@ public class VideoProvider extends ContentProvider {
 
         switch (sUriMatcher.match(uri)) {
             case VIDEO: {
-                rowsDeleted = mOpenHelper.getWritableDatabase().delete(
-                        VideoContract.VideoEntry.TABLE_NAME, selection, selectionArgs);
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    DerivedKeys keys = new DerivedKeys();
+                    keys.read(db, selection, selectionArgs);
+                    rowsDeleted = db.delete(
+                            VideoContract.VideoEntry.TABLE_NAME, selection, selectionArgs);
+                    if (rowsDeleted != 0)
+                        keys.update(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             }
             default: {
@@ -263,7 +487,7 @@ public class VideoProvider extends ContentProvider {
         }
 
         if (rowsDeleted != 0) {
-            mContentResolver.notifyChange(uri, null);
+            notifyVideoChange(uri);
         }
 
         return rowsDeleted;
@@ -276,8 +500,23 @@ public class VideoProvider extends ContentProvider {
 
         switch (sUriMatcher.match(uri)) {
             case VIDEO: {
-                rowsUpdated = mOpenHelper.getWritableDatabase().update(
-                        VideoContract.VideoEntry.TABLE_NAME, values, selection, selectionArgs);
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    // The rows may move to other groups, so both the groups
+                    // before and after the change are built again
+                    DerivedKeys keys = new DerivedKeys();
+                    String ids = keys.read(db, selection, selectionArgs);
+                    rowsUpdated = db.update(
+                            VideoContract.VideoEntry.TABLE_NAME, values, selection, selectionArgs);
+                    if (rowsUpdated != 0) {
+                        keys.read(db, VideoContract.VideoEntry._ID + " IN (" + ids + ")", null);
+                        keys.update(db);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             }
             default: {
@@ -286,7 +525,7 @@ public class VideoProvider extends ContentProvider {
         }
 
         if (rowsUpdated != 0) {
-            mContentResolver.notifyChange(uri, null);
+            notifyVideoChange(uri);
         }
 
         return rowsUpdated;
@@ -298,22 +537,42 @@ public class VideoProvider extends ContentProvider {
             case VIDEO: {
                 final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
                 int returnCount = 0;
+                // A full sync deletes the whole table directly before calling
+                // this, so everything is rebuilt even if nothing was inserted.
+                boolean fullSync = uri.getBooleanQueryParameter(
+                        VideoContract.VideoEntry.PARAM_FULL_SYNC, false);
+                DerivedKeys keys = fullSync ? null : new DerivedKeys();
+                ArrayList<String> ids = new ArrayList<>();
 
                 db.beginTransaction();
                 try {
                     for (ContentValues value : values) {
+                        // A row with the same id is replaced, so its old
+                        // groups change as well
+                        Long oldId = value.getAsLong(VideoContract.VideoEntry._ID);
+                        if (keys != null && oldId != null)
+                            keys.read(db, VideoContract.VideoEntry._ID + " = " + oldId, null);
                         long _id = db.insertWithOnConflict(VideoContract.VideoEntry.TABLE_NAME,
                                 null, value, SQLiteDatabase.CONFLICT_REPLACE);
                         if (_id != -1) {
                             returnCount++;
+                            ids.add(String.valueOf(_id));
                         }
                     }
+                    if (keys == null)
+                        rebuildDerivedTables(db);
+                    else {
+                        if (!ids.isEmpty())
+                            keys.read(db, VideoContract.VideoEntry._ID + " IN ("
+                                    + TextUtils.join(",", ids) + ")", null);
+                        keys.update(db);
+                    }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
 
-                mContentResolver.notifyChange(uri, null);
+                notifyVideoChange(uri.buildUpon().clearQuery().build());
                 return returnCount;
             }
             default: {
@@ -321,4 +580,66 @@ public class VideoProvider extends ContentProvider {
             }
         }
     }
+
+    // Tables derived from the video table, kept in the same transaction
+    private static void rebuildDerivedTables(SQLiteDatabase db) {
+        VideoSummaryBuilder.rebuild(db);
+        VideoDirectoryBuilder.rebuild(db);
+    }
+
+    /**
+     * Summary groups and directories of the rows touched by a single
+     * change, so that only those parts of the derived tables are built
+     * again instead of all of them.
+     */
+    private static class DerivedKeys {
+        private static final String[] COLUMNS = {
+                VideoContract.VideoEntry._ID,
+                VideoContract.VideoEntry.COLUMN_RECTYPE,
+                VideoContract.VideoEntry.COLUMN_RECGROUP,
+                VideoContract.VideoEntry.COLUMN_TITLE,
+                VideoContract.VideoEntry.COLUMN_FILENAME,
+                VideoContract.VideoEntry.COLUMN_DIRECTORY
+        };
+        final HashSet<VideoSummaryBuilder.GroupKey> groups = new HashSet<>();
+        final HashSet<String> directories = new HashSet<>();
+
+        /**
+         * Add the groups and directories of the selected rows.
+         * @return Comma separated ids of the rows
+         */
+        String read(SQLiteDatabase db, String selection, String[] selectionArgs) {
+            ArrayList<String> ids = new ArrayList<>();
+            Cursor cursor = db.query(VideoContract.VideoEntry.TABLE_NAME, COLUMNS,
+                    selection, selectionArgs, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    ids.add(String.valueOf(cursor.getLong(0)));
+                    int rectype = cursor.getInt(1);
+                    VideoSummaryBuilder.GroupKey key = VideoSummaryBuilder.getGroupKey(
+                            rectype, cursor.getString(2), cursor.getString(3),
+                            cursor.getString(4));
+                    if (key != null)
+                        groups.add(key);
+                    if (rectype == VideoContract.VideoEntry.RECTYPE_VIDEO)
+                        directories.add(cursor.getString(5));
+                }
+            } finally {
+                cursor.close();
+            }
+            return TextUtils.join(",", ids);
+        }
+
+        void update(SQLiteDatabase db) {
+            VideoSummaryBuilder.update(db, groups);
+            VideoDirectoryBuilder.update(db, directories);
+        }
+    }
+
+    // Changes to the video table also change the derived tables
+    private void notifyVideoChange(Uri uri) {
+        mContentResolver.notifyChange(uri, null);
+        mContentResolver.notifyChange(VideoContract.SummaryEntry.CONTENT_URI, null);
+        mContentResolver.notifyChange(VideoContract.DirEntry.CONTENT_URI, null);
+    }
 }
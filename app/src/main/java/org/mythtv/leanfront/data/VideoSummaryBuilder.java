@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.mythtv.leanfront.data.VideoContract.SummaryEntry;
+import org.mythtv.leanfront.data.VideoContract.VideoEntry;
+import org.mythtv.leanfront.model.Settings;
+import org.mythtv.leanfront.model.Video;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+/**
+ * Rebuilds the summary table from the video table. The top level
+ * browse screen reads the summary, so it only has to load one row per
+ * title instead of every episode. After a change to a few videos only
+ * their groups are built again.
+ */
+public class VideoSummaryBuilder {
+
+    /**
+     * Identifies the summary group that a video belongs to.
+     */
+    public static final class GroupKey {
+        final int type;
+        final String recgroup;
+        final String name;
+
+        private GroupKey(int type, String recgroup, String name) {
+            this.type = type;
+            this.recgroup = recgroup;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GroupKey))
+                return false;
+            GroupKey other = (GroupKey) o;
+            return type == other.type && Objects.equals(recgroup, other.recgroup)
+                    && Objects.equals(name, other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, recgroup, name);
+        }
+    }
+
+    private static class Group {
+        long repId;
+        int type;
+        String recgroup;
+        String name;
+        int count;
+        int unwatched;
+        String newestAirdate;
+    }
+
+    private static final String[] COLUMNS = {
+            VideoEntry._ID,
+            VideoEntry.COLUMN_RECTYPE,
+            VideoEntry.COLUMN_RECGROUP,
+            VideoEntry.COLUMN_TITLE,
+            VideoEntry.COLUMN_FILENAME,
+            VideoEntry.COLUMN_AIRDATE,
+            VideoEntry.COLUMN_PROGFLAGS
+    };
+
+    /**
+     * Replace the contents of the summary table. The representative row of
+     * each group is the one that sorts first in the current sequence
+     * preference, which is the one the top level screen used to show.
+     * @param db Writable database
+     */
+    public static void rebuild(SQLiteDatabase db) {
+        // Read and write in one transaction so the summary cannot be
+        // built from a half updated video table.
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(VideoEntry.TABLE_NAME, COLUMNS,
+                    null, null, null, null, getOrderBy());
+            LinkedHashMap<GroupKey, Group> groups = readGroups(cursor);
+            db.delete(SummaryEntry.TABLE_NAME, null, null);
+            insertGroups(db, groups.values());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Build the summary rows of some groups again, after videos in them
+     * have been added, changed or removed.
+     * @param db Writable database
+     * @param keys Groups of the videos before and after the change
+     */
+    public static void update(SQLiteDatabase db, Collection<GroupKey> keys) {
+        if (keys.isEmpty())
+            return;
+        String orderby = getOrderBy();
+        db.beginTransaction();
+        try {
+            for (GroupKey key : keys) {
+                ArrayList<String> args = new ArrayList<>();
+                String summaryWhere = SummaryEntry.COLUMN_GROUP_TYPE + " = " + key.type
+                        + " AND " + matches(SummaryEntry.COLUMN_GROUP_RECGROUP, key.recgroup, args)
+                        + " AND " + matches(SummaryEntry.COLUMN_GROUP_NAME, key.name, args);
+                db.delete(SummaryEntry.TABLE_NAME, summaryWhere, args.toArray(new String[0]));
+
+                args.clear();
+                StringBuilder where = new StringBuilder();
+                where.append(VideoEntry.COLUMN_RECTYPE).append(" = ").append(key.type)
+                        .append(" AND ").append(matches(VideoEntry.COLUMN_RECGROUP, key.recgroup, args));
+                if (key.type == VideoEntry.RECTYPE_RECORDING)
+                    where.append(" AND ").append(matches(VideoEntry.COLUMN_TITLE, key.name, args));
+                else if (key.type == VideoEntry.RECTYPE_VIDEO) {
+                    if (key.name != null && key.name.endsWith("/")) {
+                        // Everything in the directory
+                        where.append(" AND substr(").append(VideoEntry.COLUMN_FILENAME)
+                                .append(", 1, ").append(key.name.length()).append(") = ?");
+                        args.add(key.name);
+                    }
+                    else
+                        where.append(" AND ").append(matches(VideoEntry.COLUMN_FILENAME, key.name, args));
+                }
+                Cursor cursor = db.query(VideoEntry.TABLE_NAME, COLUMNS,
+                        where.toString(), args.toArray(new String[0]), null, null, orderby);
+                insertGroups(db, readGroups(cursor).values());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return The summary group of a video, null for types not summarized
+     */
+    public static GroupKey getGroupKey(int rectype, String recgroup, String title,
+                                       String filename) {
+        String name;
+        switch (rectype) {
+            case VideoEntry.RECTYPE_RECORDING:
+                name = title;
+                break;
+            case VideoEntry.RECTYPE_VIDEO:
+                // Top level file name, or directory name followed by /
+                name = filename;
+                if (name != null) {
+                    int slash = name.indexOf('/');
+                    if (slash >= 0)
+                        name = name.substring(0, slash + 1);
+                }
+                break;
+            case VideoEntry.RECTYPE_CHANNEL:
+                name = null;
+                break;
+            default:
+                return null;
+        }
+        return new GroupKey(rectype, recgroup, name);
+    }
+
+    // Selection arguments cannot be null, so nulls are matched with IS NULL
+    private static String matches(String column, String value, ArrayList<String> args) {
+        if (value == null)
+            return column + " IS NULL";
+        args.add(value);
+        return column + " = ?";
+    }
+
+    // The first row of each group becomes its representative. For videos
+    // that is the first file name, for channels the first title, and for
+    // recordings the first in date sequence (the CASE is null for them).
+    private static String getOrderBy() {
+        String seq = Settings.getString("pref_seq");
+        String ascdesc = Settings.getString("pref_seq_ascdesc");
+        if (!"desc".equals(ascdesc))
+            ascdesc = "asc";
+
+        StringBuilder orderby = new StringBuilder();
+        orderby.append("CASE WHEN ").append(VideoEntry.COLUMN_RECTYPE)
+                .append(" = ").append(VideoEntry.RECTYPE_VIDEO)
+                .append(" THEN ").append(VideoEntry.COLUMN_FILENAME)
+                .append(" WHEN ").append(VideoEntry.COLUMN_RECTYPE)
+                .append(" = ").append(VideoEntry.RECTYPE_CHANNEL)
+                .append(" THEN ").append(VideoEntry.COLUMN_TITLE)
+                .append(" END, ");
+        if ("airdate".equals(seq)) {
+            orderby.append(VideoEntry.COLUMN_AIRDATE).append(" ").append(ascdesc).append(", ");
+            orderby.append(VideoEntry.COLUMN_STARTTIME).append(" ").append(ascdesc);
+        }
+        else {
+            orderby.append(VideoEntry.COLUMN_STARTTIME).append(" ").append(ascdesc).append(", ");
+            orderby.append(VideoEntry.COLUMN_AIRDATE).append(" ").append(ascdesc);
+        }
+        orderby.append(", ").append(VideoEntry.COLUMN_RECORDEDID).append(" ").append(ascdesc);
+        return orderby.toString();
+    }
+
+    private static void insertGroups(SQLiteDatabase db, Collection<Group> groups) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO "
+                + SummaryEntry.TABLE_NAME + " ("
+                + SummaryEntry.COLUMN_REP_ID + ", "
+                + SummaryEntry.COLUMN_GROUP_TYPE + ", "
+                + SummaryEntry.COLUMN_GROUP_RECGROUP + ", "
+                + SummaryEntry.COLUMN_GROUP_NAME + ", "
+                + SummaryEntry.COLUMN_ITEM_COUNT + ", "
+                + SummaryEntry.COLUMN_UNWATCHED_COUNT + ", "
+                + SummaryEntry.COLUMN_NEWEST_AIRDATE
+                + ") VALUES (?,?,?,?,?,?,?)");
+        for (Group group : groups) {
+            insert.clearBindings();
+            insert.bindLong(1, group.repId);
+            insert.bindLong(2, group.type);
+            bindString(insert, 3, group.recgroup);
+            bindString(insert, 4, group.name);
+            insert.bindLong(5, group.count);
+            insert.bindLong(6, group.unwatched);
+            bindString(insert, 7, group.newestAirdate);
+            insert.executeInsert();
+        }
+        insert.close();
+    }
+
+    // Read video rows in representative order into their groups
+    private static LinkedHashMap<GroupKey, Group> readGroups(Cursor cursor) {
+        LinkedHashMap<GroupKey, Group> groups = new LinkedHashMap<>();
+        try {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                int rectype = cursor.getInt(1);
+                GroupKey key = getGroupKey(rectype, cursor.getString(2),
+                        cursor.getString(3), cursor.getString(4));
+                if (key == null)
+                    continue;
+                Group group = groups.get(key);
+                if (group == null) {
+                    group = new Group();
+                    group.repId = id;
+                    group.type = rectype;
+                    group.recgroup = key.recgroup;
+                    group.name = key.name;
+                    groups.put(key, group);
+                }
+                group.count++;
+                if (rectype != VideoEntry.RECTYPE_CHANNEL
+                        && (parseFlags(cursor.getString(6)) & Video.FL_WATCHED) == 0)
+                    group.unwatched++;
+                String airdate = cursor.getString(5);
+                if (airdate != null && (group.newestAirdate == null
+                        || airdate.compareTo(group.newestAirdate) > 0))
+                    group.newestAirdate = airdate;
+            }
+        } finally {
+            cursor.close();
+        }
+        return groups;
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null)
+            statement.bindNull(index);
+        else
+            statement.bindString(index, value);
+    }
+
+    private static int parseFlags(String progflags) {
+        if (progflags == null)
+            return 0;
+        try {
+            return Integer.parseInt(progflags);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
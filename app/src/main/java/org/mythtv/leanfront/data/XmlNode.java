@@ -47,9 +47,6 @@ public class XmlNode {
     private HashMap<String, String> attributeMap = new HashMap<>();
     private String text = null;
     private XmlNode nextSibling;
-    private static HashMap<String, String> sHostMap;
-    private static String sBackendIP;
-
     private static String getIpAndPort(String hostname) throws IOException, XmlPullParserException {
         String backendIP = Settings.getString("pref_backend");
         String mainPort = Settings.getString("pref_http_port");
@@ -57,37 +54,14 @@ public class XmlNode {
             Log.e(TAG, CLASS + " Backend port or IP address not specified");
             return null;
         }
-        if (!backendIP.equals(sBackendIP)) {
-            sBackendIP = backendIP;
-            sHostMap = new HashMap<>();
-        }
         if (hostname == null)
-            return sBackendIP + ":" + mainPort;
-        String hostIpAndPort = sHostMap.get(hostname);
-        if (hostIpAndPort == null) {
-            String urlString = XmlNode.mythApiUrl(null,
-                    "/Myth/GetSetting?Key=BackendServerAddr&HostName="
-                            + hostname);
-            XmlNode response = XmlNode.fetch(urlString, null);
-            String hostIp = response.getString();
-            if (hostIp == null)
-                hostIp = backendIP;
-            urlString = XmlNode.mythApiUrl(null,
-                    "/Myth/GetSetting?Key=BackendStatusPort&HostName="
-                            + hostname);
-            response = XmlNode.fetch(urlString, null);
-            String port = response.getString();
-            if (port == null)
-                port = mainPort;
-            hostIpAndPort = hostIp + ":" + port;
-            sHostMap.put(hostname, hostIpAndPort);
-        }
-        return hostIpAndPort;
+            return backendIP + ":" + mainPort;
+        return HostResolver.resolve(backendIP, mainPort, hostname);
     }
 
     public static void clearCache() {
-        sBackendIP = null;
-        sHostMap = new HashMap<>();
+        HostResolver.clear();
+        VideoDbBuilder.clearCachedSettings();
     }
 
     public static XmlNode parseStream(InputStream in) throws XmlPullParserException, IOException {
@@ -974,6 +974,22 @@ import java.util.Map;
     return sampleQueues;
   }
 
+  /**
+   * Read the duration from the seek map again, for a file that is still growing.
+   */
+  /* package */ void refreshDuration() {
+    handler.post(() -> {
+      if (released || seekMap == null) {
+        return;
+      }
+      long newDurationUs = seekMap.getDurationUs();
+      if (newDurationUs != C.TIME_UNSET && newDurationUs > durationUs) {
+        durationUs = newDurationUs;
+        listener.onSourceInfoRefreshed(durationUs, seekMap.isSeekable(), isLive);
+      }
+    });
+  }
+
   private final class SampleStreamImpl implements SampleStream {
 
     private final int track;
@@ -323,6 +323,16 @@ public final class ProgressiveMediaSource extends BaseMediaSource
     return mediaPeriod.getSampleQueues();
   }
 
+  /**
+   * Extend the duration in place when a file that is still recording has grown.
+   */
+  public void refreshDuration() {
+    ProgressiveMediaPeriod period = mediaPeriod;
+    if (period != null) {
+      period.refreshDuration();
+    }
+  }
+
   @Override
   protected void releaseSourceInternal() {
     drmSessionManager.release();
@@ -140,6 +140,9 @@ public class GuideSlot {
         private static final String TAG = "lfe";
         private static final String CLASS = "Program";
 
+        public Program() {
+        }
+
         public Program(XmlNode programNode) {
             try {
                 chanId = Integer.parseInt(programNode.getNode("Channel").getString("ChanId"));
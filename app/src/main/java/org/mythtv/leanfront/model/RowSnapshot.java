@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable contents of one row of the browse screen, built on a
+ * background thread and turned into a ListRow on the main thread.
+ */
+public final class RowSnapshot {
+    // Header name, type and base name as used in MyHeaderItem
+    public final String name;
+    public final int rowType;
+    public final String baseName;
+    public final List<Video> items;
+
+    public RowSnapshot(String name, int rowType, String baseName, List<Video> items) {
+        this.name = name;
+        this.rowType = rowType;
+        this.baseName = baseName;
+        this.items = Collections.unmodifiableList(items);
+    }
+
+    // Identifies the row across reloads
+    public String getKey() {
+        return rowType + "\t" + name;
+    }
+
+    /**
+     * Compare with the same row from a prior load.
+     * @return true if the row would display exactly the same cards.
+     */
+    public boolean sameContent(RowSnapshot other) {
+        if (other == null
+                || rowType != other.rowType
+                || !Objects.equals(name, other.name)
+                || !Objects.equals(baseName, other.baseName)
+                || items.size() != other.items.size())
+            return false;
+        for (int ix = 0; ix < items.size(); ix++) {
+            if (!sameItem(items.get(ix), other.items.get(ix)))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean sameItem(Video a, Video b) {
+        return a.id == b.id
+                && a.type == b.type
+                && a.rectype == b.rectype
+                && Objects.equals(a.recordedid, b.recordedid)
+                && Objects.equals(a.title, b.title)
+                && Objects.equals(a.subtitle, b.subtitle)
+                && Objects.equals(a.recGroup, b.recGroup)
+                && Objects.equals(a.progflags, b.progflags)
+                && Objects.equals(a.videoUrl, b.videoUrl)
+                && Objects.equals(a.cardImageUrl, b.cardImageUrl)
+                && Objects.equals(a.endtime, b.endtime)
+                && Objects.equals(a.season, b.season)
+                && Objects.equals(a.episode, b.episode);
+    }
+}
@@ -96,6 +96,10 @@ public class Settings {
         mEditor.putString("pref_subtitle_size",str);
         str = mPrefs.getString("pref_error_toast", "false");
         mEditor.putString("pref_error_toast",str);
+        str = mPrefs.getString("pref_commskip", "false");
+        mEditor.putString("pref_commskip",str);
+        str = mPrefs.getString("pref_parallel", "false");
+        mEditor.putString("pref_parallel",str);
         mEditor.apply();
     }
 }
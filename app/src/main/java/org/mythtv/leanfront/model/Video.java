@@ -24,6 +24,7 @@
 
 package org.mythtv.leanfront.model;
 
+import android.content.ContentValues;
 import android.media.MediaDescription;
 import android.os.Parcel;
 import android.os.Parcelable;
@@ -62,6 +63,8 @@ public final class Video implements Parcelable, ListItem {
     public final String hostname;
     public String progflags;
     // From MythTV libmyth/programtypes.h
+    public static final int FL_COMMFLAG = 0x00000001;
+    public static final int FL_CUTLIST = 0x00000002;
     // This flag is also set for videos as needed.
     public static final int FL_WATCHED = 0x00000200;
     // Channel values
@@ -69,6 +72,8 @@ public final class Video implements Parcelable, ListItem {
     public final String channum;
     public final String callsign;
     public final String storageGroup;
+    // Backend that has the file, for streaming from it directly
+    public final String fileHost;
 
     // Actions used by multiple classes
     public static final int ACTION_PLAY                 =  1;
@@ -142,7 +147,8 @@ public final class Video implements Parcelable, ListItem {
             final String chanid,
             final String channum,
             final String callsign,
-            final String storageGroup) {
+            final String storageGroup,
+            final String fileHost) {
         this.id = id;
         this.rectype = rectype;
         this.title = title;
@@ -168,6 +174,7 @@ public final class Video implements Parcelable, ListItem {
         this.channum = channum;
         this.callsign = callsign;
         this.storageGroup = storageGroup;
+        this.fileHost = fileHost;
     }
 
     protected Video(Parcel in) {
@@ -196,6 +203,7 @@ public final class Video implements Parcelable, ListItem {
         channum = in.readString();
         callsign = in.readString();
         storageGroup = in.readString();
+        fileHost = in.readString();
     }
 
     public static final Creator<Video> CREATOR = new Creator<Video>() {
@@ -246,6 +254,7 @@ public final class Video implements Parcelable, ListItem {
         dest.writeString(channum);
         dest.writeString(callsign);
         dest.writeString(storageGroup);
+        dest.writeString(fileHost);
     }
 
     @Override
@@ -309,6 +318,7 @@ public final class Video implements Parcelable, ListItem {
         private String channum;
         private String callsign;
         private String storageGroup;
+        private String fileHost;
 
         public VideoBuilder id(long id) {
             this.id = id;
@@ -387,7 +397,7 @@ public final class Video implements Parcelable, ListItem {
         }
 
         public VideoBuilder endtime(String endtime) {
-            this.starttime = endtime;
+            this.endtime = endtime;
             return this;
         }
 
@@ -436,6 +446,11 @@ public final class Video implements Parcelable, ListItem {
             return this;
         }
 
+        public VideoBuilder fileHost(String fileHost) {
+            this.fileHost = fileHost;
+            return this;
+        }
+
         public Video buildFromMediaDesc(MediaDescription desc) {
             return new Video(
                     Long.parseLong(desc.getMediaId()),
@@ -448,10 +463,45 @@ public final class Video implements Parcelable, ListItem {
                     String.valueOf(desc.getIconUri()),
                     String.valueOf(desc.getSubtitle()),
                     "", //recordid not provided
-                    "","","","","","","","","","","","","","",""
+                    "","","","","","","","","","","","","","","",""
             );
         }
 
+        /**
+         * Build from the values VideoDbBuilder creates for the video table,
+         * without going through the database. There is no row id.
+         */
+        public Video buildFromContentValues(ContentValues values) {
+            Integer rectype = values.getAsInteger(VideoContract.VideoEntry.COLUMN_RECTYPE);
+            return id(-1)
+                    .rectype(rectype == null ? 0 : rectype)
+                    .title(values.getAsString(VideoContract.VideoEntry.COLUMN_TITLE))
+                    .subtitle(values.getAsString(VideoContract.VideoEntry.COLUMN_SUBTITLE))
+                    .description(values.getAsString(VideoContract.VideoEntry.COLUMN_DESC))
+                    .videoUrl(values.getAsString(VideoContract.VideoEntry.COLUMN_VIDEO_URL))
+                    .bgImageUrl(values.getAsString(VideoContract.VideoEntry.COLUMN_BG_IMAGE_URL))
+                    .cardImageUrl(values.getAsString(VideoContract.VideoEntry.COLUMN_CARD_IMG))
+                    .channel(values.getAsString(VideoContract.VideoEntry.COLUMN_CHANNEL))
+                    .recordedid(values.getAsString(VideoContract.VideoEntry.COLUMN_RECORDEDID))
+                    .recGroup(values.getAsString(VideoContract.VideoEntry.COLUMN_RECGROUP))
+                    .season(values.getAsString(VideoContract.VideoEntry.COLUMN_SEASON))
+                    .episode(values.getAsString(VideoContract.VideoEntry.COLUMN_EPISODE))
+                    .airdate(values.getAsString(VideoContract.VideoEntry.COLUMN_AIRDATE))
+                    .starttime(values.getAsString(VideoContract.VideoEntry.COLUMN_STARTTIME))
+                    .endtime(values.getAsString(VideoContract.VideoEntry.COLUMN_ENDTIME))
+                    .duration(values.getAsString(VideoContract.VideoEntry.COLUMN_DURATION))
+                    .prodyear(values.getAsString(VideoContract.VideoEntry.COLUMN_PRODUCTION_YEAR))
+                    .filename(values.getAsString(VideoContract.VideoEntry.COLUMN_FILENAME))
+                    .hostname(values.getAsString(VideoContract.VideoEntry.COLUMN_HOSTNAME))
+                    .progflags(values.getAsString(VideoContract.VideoEntry.COLUMN_PROGFLAGS))
+                    .chanid(values.getAsString(VideoContract.VideoEntry.COLUMN_CHANID))
+                    .channum(values.getAsString(VideoContract.VideoEntry.COLUMN_CHANNUM))
+                    .callsign(values.getAsString(VideoContract.VideoEntry.COLUMN_CALLSIGN))
+                    .storageGroup(values.getAsString(VideoContract.VideoEntry.COLUMN_STORAGEGROUP))
+                    .fileHost(values.getAsString(VideoContract.VideoEntry.COLUMN_FILEHOST))
+                    .build();
+        }
+
         public Video build() {
             return new Video(
                     id,
@@ -478,7 +528,8 @@ public final class Video implements Parcelable, ListItem {
                     chanid,
                     channum,
                     callsign,
-                    storageGroup
+                    storageGroup,
+                    fileHost
             );
         }
     }
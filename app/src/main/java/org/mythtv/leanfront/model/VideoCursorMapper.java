@@ -34,31 +34,32 @@ import org.mythtv.leanfront.data.VideoContract;
  */
 public final class VideoCursorMapper extends CursorMapper {
 
-    private static int idIndex;
-    private static int rectypeIndex;
-    private static int titleIndex;
-    private static int nameIndex;
-    private static int descIndex;
-    private static int videoUrlIndex;
-    private static int bgImageUrlIndex;
-    private static int cardImageUrlIndex;
-    private static int channelIndex;
-    private static int recordedidIndex;
-    private static int recGroupIndex;
-    private static int seasonIndex;
-    private static int episodeIndex;
-    private static int airdateIndex;
-    private static int starttimeIndex;
-    private static int endtimeIndex;
-    private static int durationIndex;
-    private static int prodyearIndex;
-    private static int filenameIndex;
-    private static int hostnameIndex;
-    private static int progflagsIndex;
-    private static int chanidIndex;
-    private static int channumIndex;
-    private static int callsignIndex;
-    private static int storageGroupIndex;
+    private int idIndex;
+    private int rectypeIndex;
+    private int titleIndex;
+    private int nameIndex;
+    private int descIndex;
+    private int videoUrlIndex;
+    private int bgImageUrlIndex;
+    private int cardImageUrlIndex;
+    private int channelIndex;
+    private int recordedidIndex;
+    private int recGroupIndex;
+    private int seasonIndex;
+    private int episodeIndex;
+    private int airdateIndex;
+    private int starttimeIndex;
+    private int endtimeIndex;
+    private int durationIndex;
+    private int prodyearIndex;
+    private int filenameIndex;
+    private int hostnameIndex;
+    private int progflagsIndex;
+    private int chanidIndex;
+    private int channumIndex;
+    private int callsignIndex;
+    private int storageGroupIndex;
+    private int fileHostIndex;
 
     @Override
     protected void bindColumns(Cursor cursor) {
@@ -87,6 +88,7 @@ public final class VideoCursorMapper extends CursorMapper {
         channumIndex = cursor.getColumnIndex(VideoContract.VideoEntry.COLUMN_CHANNUM);
         callsignIndex = cursor.getColumnIndex(VideoContract.VideoEntry.COLUMN_CALLSIGN);
         storageGroupIndex = cursor.getColumnIndex(VideoContract.VideoEntry.COLUMN_STORAGEGROUP);
+        fileHostIndex = cursor.getColumnIndex(VideoContract.VideoEntry.COLUMN_FILEHOST);
     }
 
     @Override
@@ -124,6 +126,7 @@ public final class VideoCursorMapper extends CursorMapper {
         String channum = cursor.getString(channumIndex);
         String callsign = cursor.getString(callsignIndex);
         String storageGroup = cursor.getString(storageGroupIndex);
+        String fileHost = fileHostIndex >= 0 ? cursor.getString(fileHostIndex) : null;
 
         // Build a Video object to be processed.
         return new Video.VideoBuilder()
@@ -152,6 +155,7 @@ public final class VideoCursorMapper extends CursorMapper {
                 .channum(channum)
                 .callsign(callsign)
                 .storageGroup(storageGroup)
+                .fileHost(fileHost)
                 .build();
     }
 }
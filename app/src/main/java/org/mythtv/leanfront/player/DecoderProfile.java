@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.player;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.decoder.DecoderCounters;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+
+/**
+ * How well each audio decoder path has worked on this device, by codec.
+ * For each audio mime type and path (MediaCodec or FFmpeg) it keeps the
+ * video frames rendered and dropped, audio underruns, decoder start time
+ * and whether speed changes worked. The figures are stored, and are
+ * cleared when the system is updated since the decoders may have changed.
+ *
+ * In auto mode MythRenderersFactory asks which path to use when the audio
+ * format is known, so that a path that cannot change speed, or that drops
+ * more frames, is not used again for that codec.
+ */
+public class DecoderProfile implements AnalyticsListener {
+
+    private static final String TAG = "lfe";
+    private static final String CLASS = "DecoderProfile";
+    private static final String PREFS_NAME = "decoderprofile";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    public static final String PATH_MEDIACODEC = "mediacodec";
+    public static final String PATH_EXTENSION = "ffmpeg";
+    // Frames needed before the drop figures are used
+    private static final long MIN_FRAMES = 3000;
+    // An underrun is counted as this many dropped frames
+    private static final int UNDERRUN_FRAMES = 30;
+    // FFmpeg is only chosen for speed when it is this much better
+    private static final float EXTENSION_MARGIN = 0.8f;
+    // Average decoder start time above which MediaCodec is slow to start
+    private static final long SLOW_INIT_MS = 500;
+    // A speed change counts as working once it has held this long
+    private static final long SPEED_HOLD_MS = 5000;
+
+    private final SharedPreferences mPrefs;
+
+    // The session being measured
+    private String mMime;
+    private String mPath;
+    private DecoderCounters mCounters;
+    private int mStartRendered;
+    private int mStartDropped;
+    private int mUnderruns;
+    private long mInitMs;
+    private int mInits;
+    // When a speed change was applied, 0 if none is waiting to be counted
+    private long mSpeedAppliedAt;
+
+    /**
+     * Totals for one codec and path.
+     */
+    private static class Stats {
+        int sessions;
+        long rendered;
+        long dropped;
+        long underruns;
+        long initMs;
+        int inits;
+        int speedOk;
+        int speedFail;
+
+        static Stats parse(String value) {
+            Stats stats = new Stats();
+            if (value == null)
+                return stats;
+            String[] parts = value.split(",");
+            try {
+                if (parts.length >= 8) {
+                    stats.sessions = Integer.parseInt(parts[0]);
+                    stats.rendered = Long.parseLong(parts[1]);
+                    stats.dropped = Long.parseLong(parts[2]);
+                    stats.underruns = Long.parseLong(parts[3]);
+                    stats.initMs = Long.parseLong(parts[4]);
+                    stats.inits = Integer.parseInt(parts[5]);
+                    stats.speedOk = Integer.parseInt(parts[6]);
+                    stats.speedFail = Integer.parseInt(parts[7]);
+                }
+            } catch (NumberFormatException e) {
+                return new Stats();
+            }
+            return stats;
+        }
+
+        @Override
+        public String toString() {
+            return sessions + "," + rendered + "," + dropped + "," + underruns + ","
+                    + initMs + "," + inits + "," + speedOk + "," + speedFail;
+        }
+
+        boolean isSpeedBad() {
+            return speedFail > speedOk;
+        }
+
+        long getAverageInitMs() {
+            return inits == 0 ? 0 : initMs / inits;
+        }
+
+        // Share of frames lost to drops and underruns
+        float getCost() {
+            long frames = rendered + dropped;
+            if (frames == 0)
+                return 0;
+            return (float) (dropped + underruns * UNDERRUN_FRAMES) / frames;
+        }
+    }
+
+    public DecoderProfile(Context context) {
+        mPrefs = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (!Build.FINGERPRINT.equals(mPrefs.getString(KEY_FINGERPRINT, null)))
+            mPrefs.edit().clear().putString(KEY_FINGERPRINT, Build.FINGERPRINT).apply();
+    }
+
+    private static String getKey(String mime, String path) {
+        return mime + "|" + path;
+    }
+
+    private Stats load(String mime, String path) {
+        return Stats.parse(mPrefs.getString(getKey(mime, path), null));
+    }
+
+    /**
+     * Choose the audio path for a codec from the figures so far.
+     * MediaCodec is used unless it could not change speed and FFmpeg
+     * could, or FFmpeg has clearly lost fewer frames. Without enough
+     * frames to compare, FFmpeg is also used when MediaCodec is slow to
+     * start and FFmpeg is clearly faster.
+     * @param mime Audio sample mime type
+     * @return true to decode with FFmpeg
+     */
+    public boolean preferExtension(String mime) {
+        if (mime == null)
+            return false;
+        Stats mediaCodec = load(mime, PATH_MEDIACODEC);
+        Stats extension = load(mime, PATH_EXTENSION);
+        if (mediaCodec.isSpeedBad() != extension.isSpeedBad())
+            return mediaCodec.isSpeedBad();
+        if (mediaCodec.rendered >= MIN_FRAMES && extension.rendered >= MIN_FRAMES)
+            return extension.getCost() < mediaCodec.getCost() * EXTENSION_MARGIN;
+        if (mediaCodec.inits > 0 && extension.inits > 0) {
+            long mediaCodecInit = mediaCodec.getAverageInitMs();
+            return mediaCodecInit > SLOW_INIT_MS
+                    && extension.getAverageInitMs() < mediaCodecInit * EXTENSION_MARGIN;
+        }
+        return false;
+    }
+
+    /**
+     * Start measuring playback with a codec and path. Any session already
+     * running is ended first.
+     * @param videoCounters Counters of the video renderer, may be null
+     */
+    public synchronized void startSession(String mime, String path, DecoderCounters videoCounters) {
+        if (mime != null && mime.equals(mMime) && path.equals(mPath))
+            return;
+        endSession(videoCounters);
+        mMime = mime;
+        mPath = path;
+        mCounters = videoCounters;
+        if (videoCounters != null) {
+            videoCounters.ensureUpdated();
+            mStartRendered = videoCounters.renderedOutputBufferCount;
+            mStartDropped = videoCounters.droppedBufferCount;
+        }
+    }
+
+    /**
+     * Add the figures of the session to the stored totals.
+     * @param videoCounters Counters of the video renderer, may be null
+     */
+    public synchronized void endSession(DecoderCounters videoCounters) {
+        if (mMime == null)
+            return;
+        confirmSpeed();
+        Stats stats = load(mMime, mPath);
+        stats.sessions++;
+        if (videoCounters != null) {
+            videoCounters.ensureUpdated();
+            // The renderer has new counters each time it is enabled
+            boolean same = videoCounters == mCounters;
+            stats.rendered += videoCounters.renderedOutputBufferCount
+                    - (same ? mStartRendered : 0);
+            stats.dropped += videoCounters.droppedBufferCount
+                    - (same ? mStartDropped : 0);
+        }
+        stats.underruns += mUnderruns;
+        stats.initMs += mInitMs;
+        stats.inits += mInits;
+        mPrefs.edit().putString(getKey(mMime, mPath), stats.toString()).apply();
+        Log.i(TAG, CLASS + " " + mMime + " " + mPath + ": " + stats);
+        mMime = null;
+        mPath = null;
+        mCounters = null;
+        mUnderruns = 0;
+        mInitMs = 0;
+        mInits = 0;
+        mSpeedAppliedAt = 0;
+    }
+
+    /**
+     * Note that the player took a speed change with the current path. The
+     * player reports the new speed before the renderer can fail with it,
+     * so it only counts as working if no failure follows for a while.
+     */
+    public synchronized void speedApplied() {
+        confirmSpeed();
+        if (mMime != null)
+            mSpeedAppliedAt = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Record that a speed change failed with the current path. A change
+     * waiting to be counted as working is dropped.
+     */
+    public synchronized void speedFailed() {
+        mSpeedAppliedAt = 0;
+        if (mMime == null)
+            return;
+        Stats stats = load(mMime, mPath);
+        stats.speedFail++;
+        mPrefs.edit().putString(getKey(mMime, mPath), stats.toString()).apply();
+    }
+
+    // Count a speed change that has held long enough as working
+    private void confirmSpeed() {
+        if (mSpeedAppliedAt == 0 || mMime == null
+                || SystemClock.elapsedRealtime() - mSpeedAppliedAt < SPEED_HOLD_MS)
+            return;
+        mSpeedAppliedAt = 0;
+        Stats stats = load(mMime, mPath);
+        stats.speedOk++;
+        mPrefs.edit().putString(getKey(mMime, mPath), stats.toString()).apply();
+    }
+
+    @Override
+    public synchronized void onPlaybackStateChanged(EventTime eventTime, int state) {
+        if (state == Player.STATE_READY)
+            confirmSpeed();
+    }
+
+    @Override
+    public synchronized void onAudioUnderrun(EventTime eventTime, int bufferSize,
+                                             long bufferSizeMs, long elapsedSinceLastFeedMs) {
+        mUnderruns++;
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public synchronized void onDecoderInitialized(EventTime eventTime, int trackType,
+                                                  String decoderName,
+                                                  long initializationDurationMs) {
+        if (trackType == C.TRACK_TYPE_AUDIO) {
+            mInitMs += initializationDurationMs;
+            mInits++;
+        }
+    }
+}
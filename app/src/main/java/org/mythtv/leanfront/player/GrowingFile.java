@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.player;
+
+import com.google.android.exoplayer2.C;
+
+/**
+ * The latest known length of a file that may still be recording. It is
+ * updated from file length checks and from reads past the previous end,
+ * and TsExtractor extends its seek map from it, so that the whole of the
+ * file as it is now can be seeked in without preparing the player again.
+ */
+public class GrowingFile {
+
+    private volatile long mLength = C.LENGTH_UNSET;
+
+    /**
+     * @return Length in bytes, or C.LENGTH_UNSET if not known yet
+     */
+    public long getLength() {
+        return mLength;
+    }
+
+    /**
+     * Record a length. Lengths smaller than the known length are ignored.
+     */
+    public synchronized void update(long length) {
+        if (length > mLength)
+            mLength = length;
+    }
+}
@@ -20,12 +20,17 @@
 package org.mythtv.leanfront.player;
 
 import android.net.Uri;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
 
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
 import com.google.android.exoplayer2.extractor.Extractor;
 import com.google.android.exoplayer2.extractor.ExtractorsFactory;
 import com.google.android.exoplayer2.extractor.ts.DefaultTsPayloadReaderFactory;
+import com.google.android.exoplayer2.extractor.ts.H262Reader;
+import com.google.android.exoplayer2.extractor.ts.PesReader;
 import com.google.android.exoplayer2.extractor.ts.TsPayloadReader;
 import com.google.android.exoplayer2.util.MimeTypes;
 import com.google.android.exoplayer2.util.TimestampAdjuster;
@@ -37,9 +42,26 @@ import java.util.Map;
 public class MyExtractorsFactory implements ExtractorsFactory {
 
     private DefaultExtractorsFactory defaultFactory;
+    private GrowingFile growingFile;
+    private volatile boolean captions;
 
-    public MyExtractorsFactory() {
+    public MyExtractorsFactory(GrowingFile growingFile) {
         this.defaultFactory = new DefaultExtractorsFactory();
+        this.growingFile = growingFile;
+    }
+
+    /**
+     * Whether CEA-608 captions are parsed in transport streams. When off,
+     * the caption tracks are left out, and MPEG-2 video has no user data
+     * reader, so that the caption data in the video is not extracted for
+     * every frame. It applies to extractors created afterwards.
+     */
+    public void setCaptions(boolean captions) {
+        this.captions = captions;
+    }
+
+    public boolean isCaptions() {
+        return captions;
     }
 
     @Override
@@ -53,24 +75,33 @@ public class MyExtractorsFactory implements ExtractorsFactory {
         for (int ix = 0; ix < exts.length; ix++) {
             if (exts[ix] instanceof com.google.android.exoplayer2.extractor.ts.TsExtractor) {
                 List<Format> closedCaptionFormats = new ArrayList<>();
-                closedCaptionFormats.add(
-                        new Format.Builder()
-                                .setAccessibilityChannel(1)
-                                .setSampleMimeType(MimeTypes.APPLICATION_CEA608)
-                                .build());
-                closedCaptionFormats.add(
-                        new Format.Builder()
-                                .setAccessibilityChannel(2)
-                                .setSampleMimeType(MimeTypes.APPLICATION_CEA608)
-                                .build());
+                int flags = 0;
+                if (!captions) {
+                    // An empty list with this flag declares no caption tracks
+                    flags = DefaultTsPayloadReaderFactory.FLAG_OVERRIDE_CAPTION_DESCRIPTORS;
+                } else {
+                    closedCaptionFormats.add(
+                            new Format.Builder()
+                                    .setAccessibilityChannel(1)
+                                    .setSampleMimeType(MimeTypes.APPLICATION_CEA608)
+                                    .build());
+                    closedCaptionFormats.add(
+                            new Format.Builder()
+                                    .setAccessibilityChannel(2)
+                                    .setSampleMimeType(MimeTypes.APPLICATION_CEA608)
+                                    .build());
+                }
                 TsPayloadReader.Factory payloadReaderFactory
                         =  new DefaultTsPayloadReaderFactory(
-                        0,
+                        flags,
                         closedCaptionFormats);
+                if (!captions)
+                    payloadReaderFactory = new NoCaptionsPayloadReaderFactory(payloadReaderFactory);
                 exts[ix] = new TsExtractor(
                         TsExtractor.MODE_SINGLE_PMT,
                         new TimestampAdjuster(0),
-                        payloadReaderFactory);
+                        payloadReaderFactory,
+                        growingFile);
             }
         }
     }
@@ -80,4 +111,30 @@ public class MyExtractorsFactory implements ExtractorsFactory {
         updateExtractors(exts);
         return exts;
     }
+
+    /**
+     * Builds MPEG-2 video readers without a user data reader, which would
+     * otherwise be created for captions even with no caption tracks.
+     * Other stream types are left to the default factory.
+     */
+    private static class NoCaptionsPayloadReaderFactory implements TsPayloadReader.Factory {
+        private final TsPayloadReader.Factory defaultFactory;
+
+        NoCaptionsPayloadReaderFactory(TsPayloadReader.Factory defaultFactory) {
+            this.defaultFactory = defaultFactory;
+        }
+
+        @Override
+        public SparseArray<TsPayloadReader> createInitialPayloadReaders() {
+            return defaultFactory.createInitialPayloadReaders();
+        }
+
+        @Nullable
+        @Override
+        public TsPayloadReader createPayloadReader(int streamType, TsPayloadReader.EsInfo esInfo) {
+            if (streamType == TsExtractor.TS_STREAM_TYPE_H262)
+                return new PesReader(new H262Reader());
+            return defaultFactory.createPayloadReader(streamType, esInfo);
+        }
+    }
 }
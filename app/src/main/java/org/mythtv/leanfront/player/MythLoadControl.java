@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.player;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LoadControl that sizes the buffer from the memory the device has and
+ * the bitrate of the stream. The byte budget is a share of the app's
+ * memory class, limited by the heap that is free when playback starts.
+ * The buffer durations are then set so that the budget holds them at the
+ * bitrate measured from the buffered data: high bitrate recordings on small
+ * devices buffer fewer seconds instead of running out of memory, and low
+ * bitrate recordings buffer more seconds to ride out network stalls.
+ *
+ * Decisions are logged and available from getDebugInfo().
+ */
+public class MythLoadControl implements LoadControl {
+
+    private static final String TAG = "lfe";
+    private static final String CLASS = "MythLoadControl";
+
+    private static final int MB = 1024 * 1024;
+    // Limits of the byte budget
+    private static final int MIN_BUDGET_BYTES = 8 * MB;
+    private static final int MAX_BUDGET_BYTES = 96 * MB;
+    // Share of the memory class used, larger share on devices with more memory
+    private static final int BUDGET_DIVISOR = 4;
+    private static final int LOW_RAM_BUDGET_DIVISOR = 6;
+    // Limits of the buffer durations
+    private static final long MIN_BUFFER_US = 5 * C.MICROS_PER_SECOND;
+    private static final long MAX_BUFFER_US = 120 * C.MICROS_PER_SECOND;
+    // Data needed before playback starts, and after a rebuffer
+    private static final long BUFFER_FOR_PLAYBACK_US = 2500 * 1000L;
+    private static final long BUFFER_FOR_REBUFFER_US = 5 * C.MICROS_PER_SECOND;
+    // Buffered duration needed to measure the bitrate
+    private static final long MIN_MEASURE_US = C.MICROS_PER_SECOND;
+    // Data loaded after each seek in trick play, enough for a key frame
+    private static final int TRICK_PLAY_BYTES = 2 * MB;
+    // Read ahead outside the allocator may use this share of the budget
+    private static final int READ_AHEAD_DIVISOR = 4;
+
+    private final Context mContext;
+    private final DefaultAllocator mAllocator;
+    private int mBudgetBytes;
+    private long mMinBufferUs = MIN_BUFFER_US;
+    private long mMaxBufferUs = MAX_BUFFER_US;
+    // Bytes per second of the buffered data, 0 until measured
+    private long mByteRate;
+    private boolean mIsLoading;
+    private int mRebufferCount;
+    private int mBudgetStops;
+    private volatile boolean mTrickPlay;
+    // Bytes held by the data source for parallel reads
+    private final AtomicInteger mReadAheadBytes = new AtomicInteger();
+
+    public MythLoadControl(Context context) {
+        mContext = context.getApplicationContext();
+        mAllocator = new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+        mBudgetBytes = calculateBudget();
+    }
+
+    /**
+     * Work out the byte budget from the memory class of the app and the
+     * heap that is free now.
+     */
+    private int calculateBudget() {
+        ActivityManager activityManager =
+                (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClass = 64;
+        boolean lowRam = false;
+        if (activityManager != null) {
+            memoryClass = activityManager.getMemoryClass();
+            lowRam = activityManager.isLowRamDevice();
+        }
+        long budget = (long) memoryClass * MB
+                / (lowRam ? LOW_RAM_BUDGET_DIVISOR : BUDGET_DIVISOR);
+        Runtime runtime = Runtime.getRuntime();
+        long freeHeap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        // Leave half of the free heap for decoders and the rest of the app
+        budget = Math.min(budget, freeHeap / 2);
+        budget = Math.max(MIN_BUDGET_BYTES, Math.min(MAX_BUDGET_BYTES, budget));
+        Log.i(TAG, CLASS + " Buffer budget " + budget / MB + " MB, memory class "
+                + memoryClass + " MB" + (lowRam ? ", low RAM" : "")
+                + ", free heap " + freeHeap / MB + " MB");
+        return (int) budget;
+    }
+
+    /**
+     * Set the buffer durations that the budget holds at the measured bitrate.
+     */
+    private void updateDurations(long allocatedBytes, long bufferedDurationUs) {
+        if (bufferedDurationUs < MIN_MEASURE_US || allocatedBytes <= 0)
+            return;
+        long byteRate = allocatedBytes * C.MICROS_PER_SECOND / bufferedDurationUs;
+        // Only act on changes of more than a quarter
+        if (mByteRate != 0 && Math.abs(byteRate - mByteRate) < mByteRate / 4)
+            return;
+        mByteRate = byteRate;
+        // Keep a fifth of the budget spare for bitrate peaks
+        long maxUs = (long) mBudgetBytes * 4 / 5 * C.MICROS_PER_SECOND / byteRate;
+        mMaxBufferUs = Math.max(MIN_BUFFER_US, Math.min(MAX_BUFFER_US, maxUs));
+        mMinBufferUs = Math.max(MIN_BUFFER_US, mMaxBufferUs / 2);
+        Log.i(TAG, CLASS + " Stream " + byteRate * 8 / 1000 + " kbps, buffer "
+                + mMinBufferUs / C.MICROS_PER_SECOND + " - "
+                + mMaxBufferUs / C.MICROS_PER_SECOND + " s");
+    }
+
+    /**
+     * In trick play only the start of each seek position is needed.
+     */
+    public void setTrickPlay(boolean trickPlay) {
+        mTrickPlay = trickPlay;
+    }
+
+    /**
+     * Reserve memory for data that the data source reads ahead outside the
+     * allocator. It counts against the budget, and only a quarter of the
+     * budget can be reserved unless forced.
+     * @param force Reserve even when over the limit, so that a read can
+     *              go ahead at all
+     * @return true if the bytes were reserved
+     */
+    public boolean reserveReadAhead(int bytes, boolean force) {
+        int limit = mBudgetBytes / READ_AHEAD_DIVISOR;
+        for (;;) {
+            int current = mReadAheadBytes.get();
+            if (!force && current + bytes > limit)
+                return false;
+            if (mReadAheadBytes.compareAndSet(current, current + bytes))
+                return true;
+        }
+    }
+
+    public void releaseReadAhead(int bytes) {
+        mReadAheadBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * @return The current buffer settings and counts, for debugging.
+     */
+    public String getDebugInfo() {
+        return "budget " + mBudgetBytes / MB + " MB"
+                + ", used " + mAllocator.getTotalBytesAllocated() / MB + " MB"
+                + ", read ahead " + mReadAheadBytes.get() / MB + " MB"
+                + ", stream " + mByteRate * 8 / 1000 + " kbps"
+                + ", buffer " + mMinBufferUs / C.MICROS_PER_SECOND + " - "
+                + mMaxBufferUs / C.MICROS_PER_SECOND + " s"
+                + ", rebuffers " + mRebufferCount
+                + ", budget stops " + mBudgetStops;
+    }
+
+    @Override
+    public void onPrepared() {
+        reset(false);
+        mBudgetBytes = calculateBudget();
+    }
+
+    @Override
+    public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+                                 TrackSelectionArray trackSelections) {
+        // New tracks may have a different bitrate
+        mByteRate = 0;
+    }
+
+    @Override
+    public void onStopped() {
+        reset(true);
+    }
+
+    @Override
+    public void onReleased() {
+        reset(true);
+    }
+
+    @Override
+    public Allocator getAllocator() {
+        return mAllocator;
+    }
+
+    @Override
+    public long getBackBufferDurationUs() {
+        return 0;
+    }
+
+    @Override
+    public boolean retainBackBufferFromKeyframe() {
+        return false;
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long playbackPositionUs, long bufferedDurationUs,
+                                         float playbackSpeed) {
+        int allocated = mAllocator.getTotalBytesAllocated();
+        if (mTrickPlay) {
+            mIsLoading = allocated < TRICK_PLAY_BYTES;
+            return mIsLoading;
+        }
+        updateDurations(allocated, bufferedDurationUs);
+        boolean wasLoading = mIsLoading;
+        if (allocated + mReadAheadBytes.get() >= mBudgetBytes) {
+            mIsLoading = false;
+            if (wasLoading)
+                mBudgetStops++;
+        }
+        else if (bufferedDurationUs < mMinBufferUs)
+            mIsLoading = true;
+        else if (bufferedDurationUs >= mMaxBufferUs)
+            mIsLoading = false;
+        return mIsLoading;
+    }
+
+    @Override
+    public boolean shouldStartPlayback(long bufferedDurationUs, float playbackSpeed,
+                                       boolean rebuffering) {
+        long minUs = rebuffering ? BUFFER_FOR_REBUFFER_US : BUFFER_FOR_PLAYBACK_US;
+        if (playbackSpeed > 1.0f)
+            minUs = (long) (minUs * playbackSpeed);
+        boolean start = minUs <= 0 || bufferedDurationUs >= minUs
+                || mAllocator.getTotalBytesAllocated() + mReadAheadBytes.get() >= mBudgetBytes;
+        if (start && rebuffering) {
+            mRebufferCount++;
+            Log.i(TAG, CLASS + " Rebuffered, " + getDebugInfo());
+        }
+        return start;
+    }
+
+    private void reset(boolean resetAllocator) {
+        mIsLoading = false;
+        if (resetAllocator)
+            mAllocator.reset();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.player;
+
+import android.content.Context;
+import android.os.Handler;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.RendererCapabilities;
+import com.google.android.exoplayer2.audio.AudioRendererEventListener;
+import com.google.android.exoplayer2.audio.AudioSink;
+import com.google.android.exoplayer2.audio.MediaCodecAudioRenderer;
+import com.google.android.exoplayer2.mediacodec.MediaCodecSelector;
+import com.google.android.exoplayer2.mediacodec.MediaCodecUtil;
+
+import java.util.ArrayList;
+
+/**
+ * Builds both the MediaCodec and the extension (FFmpeg) audio renderers,
+ * and chooses between them with a switch instead of with the extension
+ * renderer mode. The choice can then be changed during playback, and takes
+ * effect when the tracks are selected again, without building a new player.
+ */
+public class MythRenderersFactory extends DefaultRenderersFactory {
+
+    private volatile boolean mPreferExtensionAudio;
+    private volatile DecoderProfile mProfile;
+
+    public MythRenderersFactory(Context context) {
+        super(context);
+        setExtensionRendererMode(EXTENSION_RENDERER_MODE_ON);
+    }
+
+    /**
+     * @param prefer true to decode audio with the extension renderer when
+     *               it supports the format, false to prefer MediaCodec.
+     */
+    public void setPreferExtensionAudio(boolean prefer) {
+        mPreferExtensionAudio = prefer;
+    }
+
+    public boolean isPreferExtensionAudio() {
+        return mPreferExtensionAudio;
+    }
+
+    /**
+     * @param profile Decoder figures used to choose the audio path for each
+     *                codec when the extension renderer is not preferred,
+     *                or null to always use MediaCodec then.
+     */
+    public void setDecoderProfile(@Nullable DecoderProfile profile) {
+        mProfile = profile;
+    }
+
+    private boolean preferExtension(Format format) {
+        if (mPreferExtensionAudio)
+            return true;
+        DecoderProfile profile = mProfile;
+        return profile != null && profile.preferExtension(format.sampleMimeType);
+    }
+
+    @Override
+    protected void buildAudioRenderers(Context context, int extensionRendererMode,
+                                       MediaCodecSelector mediaCodecSelector,
+                                       boolean enableDecoderFallback, AudioSink audioSink,
+                                       Handler eventHandler,
+                                       AudioRendererEventListener eventListener,
+                                       ArrayList<Renderer> out) {
+        int start = out.size();
+        super.buildAudioRenderers(context, extensionRendererMode, mediaCodecSelector,
+                enableDecoderFallback, audioSink, eventHandler, eventListener, out);
+        int mediaCodecIx = -1;
+        Renderer extension = null;
+        for (int ix = start; ix < out.size(); ix++) {
+            Renderer renderer = out.get(ix);
+            if (renderer instanceof MediaCodecAudioRenderer)
+                mediaCodecIx = ix;
+            else if (extension == null && renderer.getTrackType() == C.TRACK_TYPE_AUDIO)
+                extension = renderer;
+        }
+        if (mediaCodecIx >= 0 && extension != null)
+            out.set(mediaCodecIx, new SwitchableAudioRenderer(context, mediaCodecSelector,
+                    enableDecoderFallback, eventHandler, eventListener, audioSink, extension));
+    }
+
+    /**
+     * MediaCodec audio renderer that reports formats as unsupported when the
+     * extension renderer is preferred and supports them, so that the track
+     * selector gives them to the extension renderer.
+     */
+    private class SwitchableAudioRenderer extends MediaCodecAudioRenderer {
+        private final Renderer mExtension;
+
+        SwitchableAudioRenderer(Context context, MediaCodecSelector mediaCodecSelector,
+                                boolean enableDecoderFallback, @Nullable Handler eventHandler,
+                                @Nullable AudioRendererEventListener eventListener,
+                                AudioSink audioSink, Renderer extension) {
+            super(context, mediaCodecSelector, enableDecoderFallback, eventHandler,
+                    eventListener, audioSink);
+            mExtension = extension;
+        }
+
+        @Override
+        protected int supportsFormat(MediaCodecSelector mediaCodecSelector, Format format)
+                throws MediaCodecUtil.DecoderQueryException {
+            if (preferExtension(format)) {
+                try {
+                    int support = mExtension.getCapabilities().supportsFormat(format);
+                    if (RendererCapabilities.getFormatSupport(support) == FORMAT_HANDLED)
+                        return RendererCapabilities.create(FORMAT_UNSUPPORTED_SUBTYPE);
+                } catch (ExoPlaybackException ignored) {
+                }
+            }
+            return super.supportsFormat(mediaCodecSelector, format);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.player;
+
+import android.content.Context;
+
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
+
+/**
+ * Track selector that can be asked to select again, after a change that
+ * it cannot see, such as the audio renderer preference of
+ * MythRenderersFactory.
+ */
+public class MythTrackSelector extends DefaultTrackSelector {
+
+    public MythTrackSelector(Context context) {
+        super(context);
+    }
+
+    public void reselect() {
+        invalidate();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.player;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.leanback.widget.PlaybackSeekDataProvider;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.request.RequestOptions;
+import com.bumptech.glide.request.target.CustomTarget;
+import com.bumptech.glide.request.transition.Transition;
+
+/**
+ * Supplies the thumbnails shown above the seek bar while scrubbing a
+ * recording. Each thumbnail is the backend preview image at a sampled
+ * offset. They are only fetched when the seek bar asks for them, on the
+ * Glide thread pool, and Glide keeps them in its size limited disk cache
+ * under the recording and offset, so that scrubbing the same recording
+ * again does not go back to the backend.
+ */
+public class SeekThumbnailProvider extends PlaybackSeekDataProvider {
+
+    // Positions are a multiple of this apart, so that the offsets and
+    // their cache entries stay the same while a recording grows
+    private static final long STEP_UNIT_MS = 10000;
+    // Most positions on the seek bar
+    private static final int MAX_POSITIONS = 200;
+    // Thumbnails either side of a requested one that are fetched as well
+    private static final int PREFETCH_COUNT = 2;
+    private static final int THUMB_WIDTH = 320;
+
+    private final RequestManager mGlide;
+    private final VideoPlayerGlue mGlue;
+    private final String mHostUrl;
+    private final String mRecordedId;
+    private final RequestOptions mOptions = new RequestOptions()
+            .diskCacheStrategy(DiskCacheStrategy.ALL);
+    private final SparseArray<ThumbTarget> mTargets = new SparseArray<>();
+    private long[] mPositions = new long[0];
+    private long mStep;
+
+    /**
+     * @param hostUrl Scheme, address and port of the backend holding the
+     *                recording, e.g. http://host:6544
+     * @param recordedId Recording the thumbnails are of
+     */
+    public SeekThumbnailProvider(Context context, VideoPlayerGlue glue,
+                                 String hostUrl, String recordedId) {
+        mGlide = Glide.with(context.getApplicationContext());
+        mGlue = glue;
+        mHostUrl = hostUrl;
+        mRecordedId = recordedId;
+    }
+
+    @Override
+    public long[] getSeekPositions() {
+        long duration = mGlue.myGetDuration();
+        if (duration <= 0)
+            return mPositions;
+        long step = (duration / MAX_POSITIONS / STEP_UNIT_MS + 1) * STEP_UNIT_MS;
+        int count = (int) (duration / step) + 1;
+        if (step != mStep || count != mPositions.length) {
+            // Thumbnails are requested by index, which no longer matches
+            reset();
+            mStep = step;
+            mPositions = new long[count];
+            for (int ix = 0; ix < count; ix++)
+                mPositions[ix] = ix * step;
+        }
+        return mPositions;
+    }
+
+    @Override
+    public void getThumbnail(int index, ResultCallback callback) {
+        if (index < 0 || index >= mPositions.length)
+            return;
+        load(index, callback);
+        for (int ix = 1; ix <= PREFETCH_COUNT; ix++) {
+            preload(index + ix);
+            preload(index - ix);
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (int ix = 0; ix < mTargets.size(); ix++)
+            mGlide.clear(mTargets.valueAt(ix));
+        mTargets.clear();
+    }
+
+    private void load(int index, ResultCallback callback) {
+        ThumbTarget old = mTargets.get(index);
+        if (old != null)
+            mGlide.clear(old);
+        ThumbTarget target = new ThumbTarget(index, callback);
+        mTargets.put(index, target);
+        mGlide.asBitmap()
+                .load(getModel(mPositions[index]))
+                .apply(mOptions)
+                .into(target);
+    }
+
+    private void preload(int index) {
+        if (index < 0 || index >= mPositions.length || mTargets.get(index) != null)
+            return;
+        mGlide.asBitmap()
+                .load(getModel(mPositions[index]))
+                .apply(mOptions)
+                .preload();
+    }
+
+    private ThumbUrl getModel(long position) {
+        long secs = position / 1000;
+        // Only the width is given so the backend keeps the aspect ratio
+        return new ThumbUrl(mHostUrl + "/Content/GetPreviewImage?Format=jpg&RecordedId="
+                + mRecordedId + "&SecsIn=" + secs + "&Width=" + THUMB_WIDTH,
+                mRecordedId, secs);
+    }
+
+    private class ThumbTarget extends CustomTarget<Bitmap> {
+        private final int mIndex;
+        private final ResultCallback mCallback;
+
+        ThumbTarget(int index, ResultCallback callback) {
+            mIndex = index;
+            mCallback = callback;
+        }
+
+        @Override
+        public void onResourceReady(@NonNull Bitmap resource,
+                                    @Nullable Transition<? super Bitmap> transition) {
+            if (mTargets.get(mIndex) == this)
+                mCallback.onThumbnailLoaded(resource, mIndex);
+        }
+
+        @Override
+        public void onLoadCleared(@Nullable Drawable placeholder) {
+        }
+
+        @Override
+        public void onLoadFailed(@Nullable Drawable errorDrawable) {
+            if (mTargets.get(mIndex) == this)
+                mTargets.remove(mIndex);
+        }
+    }
+
+    /**
+     * GlideUrl whose cache key is the recording and offset rather than the
+     * url, so that a new host address does not invalidate it.
+     */
+    private static class ThumbUrl extends GlideUrl {
+        private final String mCacheKey;
+
+        ThumbUrl(String url, String recordedId, long secs) {
+            super(url);
+            mCacheKey = "seekthumb:" + recordedId + ":" + secs;
+        }
+
+        @Override
+        public String getCacheKey() {
+            return mCacheKey;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.player;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * The most recent bytes of a Live TV stream, kept in a ring file in the
+ * cache directory. The data source writes what it reads from the backend,
+ * and reads from here when the player goes back to a position that is
+ * still in the buffer, so that short rewinds and replays do not go back
+ * over the network. The window is a fixed number of bytes, so the time it
+ * covers depends on the bitrate.
+ *
+ * Only one contiguous range of the file is kept. Bytes after the end of
+ * the range start a new range, bytes before it are not kept.
+ */
+public class TimeShiftBuffer {
+
+    private static final String TAG = "lfe";
+    private static final String CLASS = "TimeShiftBuffer";
+    private static final String FILE_NAME = "timeshift.ts";
+    private static final long MAX_BYTES = 1024L * 1024 * 1024;
+    // The buffer is not used with less room than this
+    private static final long MIN_BYTES = 64L * 1024 * 1024;
+
+    private final File mFile;
+    private final long mCapacity;
+    private RandomAccessFile mRaf;
+    private String mKey;
+    // File offsets of the bytes held, mStart inclusive, mEnd exclusive
+    private long mStart;
+    private long mEnd;
+
+    private TimeShiftBuffer(File file, long capacity) throws IOException {
+        mFile = file;
+        mCapacity = capacity;
+        mRaf = new RandomAccessFile(file, "rw");
+        mRaf.setLength(0);
+    }
+
+    /**
+     * Create the buffer, using up to half the free space of the cache.
+     * @return The buffer, or null if there is not enough room
+     */
+    @Nullable
+    public static TimeShiftBuffer create(Context context) {
+        File dir = context.getCacheDir();
+        long capacity = Math.min(MAX_BYTES, dir.getUsableSpace() / 2);
+        if (capacity < MIN_BYTES)
+            return null;
+        try {
+            return new TimeShiftBuffer(new File(dir, FILE_NAME), capacity);
+        } catch (IOException e) {
+            Log.e(TAG, CLASS + " Unable to create buffer", e);
+            return null;
+        }
+    }
+
+    /**
+     * @param key Url of the stream
+     * @return true if the byte at the file offset is in the buffer
+     */
+    public synchronized boolean contains(String key, long position) {
+        return mRaf != null && key.equals(mKey) && position >= mStart && position < mEnd;
+    }
+
+    /**
+     * Keep bytes read from the stream. Bytes that follow the range held are
+     * added to it, dropping the oldest when it is full.
+     */
+    public synchronized void write(String key, long position, byte[] buffer,
+                                   int offset, int length) {
+        if (mRaf == null || length <= 0)
+            return;
+        if (!key.equals(mKey) || position > mEnd) {
+            // A new stream, or a jump forward past the buffer
+            mKey = key;
+            mStart = position;
+            mEnd = position;
+        }
+        if (position != mEnd)
+            return;
+        try {
+            int done = 0;
+            while (done < length) {
+                long ringPos = (position + done) % mCapacity;
+                int leng = (int) Math.min(length - done, mCapacity - ringPos);
+                mRaf.seek(ringPos);
+                mRaf.write(buffer, offset + done, leng);
+                done += leng;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, CLASS + " Write failed, buffer cleared", e);
+            mKey = null;
+            return;
+        }
+        mEnd = position + length;
+        if (mEnd - mStart > mCapacity)
+            mStart = mEnd - mCapacity;
+    }
+
+    /**
+     * Read bytes that are in the buffer.
+     * @return Bytes read, or -1 if the position is not in the buffer
+     */
+    public synchronized int read(String key, long position, byte[] buffer,
+                                 int offset, int length) throws IOException {
+        if (!contains(key, position))
+            return -1;
+        long ringPos = position % mCapacity;
+        int leng = (int) Math.min(length, Math.min(mEnd - position, mCapacity - ringPos));
+        mRaf.seek(ringPos);
+        mRaf.readFully(buffer, offset, leng);
+        return leng;
+    }
+
+    /**
+     * Close and delete the buffer file.
+     */
+    public synchronized void release() {
+        if (mRaf == null)
+            return;
+        try {
+            mRaf.close();
+        } catch (IOException e) {
+            Log.e(TAG, CLASS + " Close failed", e);
+        }
+        mRaf = null;
+        mKey = null;
+        if (!mFile.delete())
+            Log.e(TAG, CLASS + " Unable to delete " + mFile);
+    }
+}
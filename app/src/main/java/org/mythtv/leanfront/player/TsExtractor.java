@@ -129,6 +129,7 @@ public final class TsExtractor implements Extractor {
     private final SparseBooleanArray trackIds;
     private final SparseBooleanArray trackPids;
     private final TsDurationReader durationReader;
+    @Nullable private final GrowingFile growingFile;
 
     // Accessed only by the loading thread.
     private TsBinarySearchSeeker tsBinarySearchSeeker;
@@ -141,6 +142,14 @@ public final class TsExtractor implements Extractor {
     private int bytesSinceLastSync;
     private int pcrPid;
 
+    // For a growing file, the seeker for its latest length.
+    // Accessed by the loading and playback threads.
+    private TsBinarySearchSeeker latestSeeker;
+    private long latestLength;
+    // Duration and length when the file was opened
+    private long baseDurationUs;
+    private long baseLength;
+
     public TsExtractor() {
         this(0);
     }
@@ -176,6 +185,22 @@ public final class TsExtractor implements Extractor {
             @Mode int mode,
             TimestampAdjuster timestampAdjuster,
             TsPayloadReader.Factory payloadReaderFactory) {
+        this(mode, timestampAdjuster, payloadReaderFactory, null);
+    }
+
+    /**
+     * @param mode Mode for the extractor. One of {@link #MODE_MULTI_PMT}, {@link #MODE_SINGLE_PMT}
+     *     and {@link #MODE_HLS}.
+     * @param timestampAdjuster A timestamp adjuster for offsetting and scaling sample timestamps.
+     * @param payloadReaderFactory Factory for injecting a custom set of payload readers.
+     * @param growingFile Length of the file if it may still be growing, or null.
+     */
+    public TsExtractor(
+            @Mode int mode,
+            TimestampAdjuster timestampAdjuster,
+            TsPayloadReader.Factory payloadReaderFactory,
+            @Nullable GrowingFile growingFile) {
+        this.growingFile = growingFile;
         this.payloadReaderFactory = Assertions.checkNotNull(payloadReaderFactory);
         this.mode = mode;
         if (mode == MODE_SINGLE_PMT || mode == MODE_HLS) {
@@ -243,6 +268,8 @@ public final class TsExtractor implements Extractor {
             }
         }
         if (timeUs != 0 && tsBinarySearchSeeker != null) {
+            if (growingFile != null)
+                tsBinarySearchSeeker = getLatestSeeker();
             tsBinarySearchSeeker.setSeekTargetUs(timeUs);
         }
         tsPacketBuffer.reset(/* limit= */ 0);
@@ -372,13 +399,62 @@ public final class TsExtractor implements Extractor {
                                 durationReader.getDurationUs(),
                                 inputLength,
                                 pcrPid);
-                output.seekMap(tsBinarySearchSeeker.getSeekMap());
+                if (growingFile != null && inputLength > 0) {
+                    synchronized (this) {
+                        baseDurationUs = durationReader.getDurationUs();
+                        baseLength = inputLength;
+                        latestLength = inputLength;
+                        latestSeeker = tsBinarySearchSeeker;
+                    }
+                    growingFile.update(inputLength);
+                    output.seekMap(new GrowingSeekMap());
+                }
+                else
+                    output.seekMap(tsBinarySearchSeeker.getSeekMap());
             } else {
                 output.seekMap(new SeekMap.Unseekable(durationReader.getDurationUs()));
             }
         }
     }
 
+    /**
+     * Get a seeker that covers the file as it is now. The duration is
+     * estimated from the duration and length when the file was opened,
+     * since the binary search finds the actual position from the PCRs.
+     */
+    private synchronized TsBinarySearchSeeker getLatestSeeker() {
+        long length = growingFile.getLength();
+        if (length > latestLength) {
+            latestLength = length;
+            latestSeeker = new TsBinarySearchSeeker(
+                    durationReader.getPcrTimestampAdjuster(),
+                    Util.scaleLargeTimestamp(baseDurationUs, length, baseLength),
+                    length,
+                    pcrPid);
+        }
+        return latestSeeker;
+    }
+
+    /**
+     * Seek map of a growing file, with the duration and length it has now.
+     */
+    private final class GrowingSeekMap implements SeekMap {
+        @Override
+        public boolean isSeekable() {
+            return true;
+        }
+
+        @Override
+        public long getDurationUs() {
+            return getLatestSeeker().getSeekMap().getDurationUs();
+        }
+
+        @Override
+        public SeekPoints getSeekPoints(long timeUs) {
+            return getLatestSeeker().getSeekMap().getSeekPoints(timeUs);
+        }
+    }
+
     private boolean fillBufferWithAtLeastOnePacket(ExtractorInput input) throws IOException {
         byte[] data = tsPacketBuffer.getData();
         // Shift bytes to the start of the buffer if there isn't enough space left at the end.
@@ -83,6 +83,8 @@ public class VideoPlayerGlue extends PlaybackTransportControlGlue<LeanbackPlayer
         void onSpeed();
         void onAudioTrack();
         void onAudioSync();
+        /** Seek to a position chosen on the seek bar. */
+        void onSeek(long position);
         void onActionSelected(Action action);
     }
 
@@ -101,7 +103,6 @@ public class VideoPlayerGlue extends PlaybackTransportControlGlue<LeanbackPlayer
     private MyAction mAudioTrackAction;
     private MyAction mAudioSyncAction;
     private boolean mActionsVisible;
-    private long mOffsetMillis = 0;
     // Skip means go to next or previous track
     // Skip is disallowed when playing Live TV
     private boolean mAllowSkip;
@@ -302,12 +303,21 @@ public class VideoPlayerGlue extends PlaybackTransportControlGlue<LeanbackPlayer
 
     @Override
     public long getCurrentPosition() {
-        long currentPosition = super.getCurrentPosition() + mOffsetMillis;
+        long currentPosition = super.getCurrentPosition();
         if (currentPosition > 0)
             mSavedCurrentPosition = currentPosition;
         return currentPosition;
     }
 
+    /**
+     * Seeks from scrubbing the seek bar are passed to the listener, so that
+     * they are handled the same as the other seeks.
+     */
+    @Override
+    public void seekTo(long position) {
+        mActionListener.onSeek(position);
+    }
+
     public long getSavedCurrentPosition() {
         return mSavedCurrentPosition;
     }
@@ -329,8 +339,6 @@ public class VideoPlayerGlue extends PlaybackTransportControlGlue<LeanbackPlayer
 
     public long myGetDuration() {
         long duration = getDuration();
-        if (duration >= 0)
-            duration += mOffsetMillis;
         if (duration > 0)
             mSavedDuration = duration;
         return duration;
@@ -340,14 +348,6 @@ public class VideoPlayerGlue extends PlaybackTransportControlGlue<LeanbackPlayer
         return mSavedDuration;
     }
 
-    public long getOffsetMillis() {
-        return mOffsetMillis;
-    }
-
-    public void setOffsetMillis(long offsetMillis) {
-        this.mOffsetMillis = offsetMillis;
-    }
-
     public class  SelectedListener implements WidgetAccess.MySelectedListener {
         @Override
         public void onControlSelected(Presenter.ViewHolder controlViewHolder, Object item) {
@@ -89,19 +89,19 @@ public class CardPresenter extends Presenter {
         Video video = (Video) item;
 
         ImageCardView cardView = (ImageCardView) viewHolder.view;
-        String imageUrl = null;
+        Object imageModel = null;
         if (video.rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL) {
             cardView.setTitleText(video.channel);
             try {
                 if (video.chanid != null)
-                    imageUrl = XmlNode.mythApiUrl(null,"/Guide/GetChannelIcon?ChanId=" + video.chanid);
+                    imageModel = XmlNode.mythApiUrl(null,"/Guide/GetChannelIcon?ChanId=" + video.chanid);
             } catch (IOException | XmlPullParserException e) {
                 e.printStackTrace();
             }
         }
         else {
             cardView.setTitleText(video.title);
-            imageUrl = video.cardImageUrl;
+            imageModel = ThumbnailLoader.getModel(video);
         }
         int defaultIcon;
         switch (video.type) {
@@ -164,10 +164,9 @@ public class CardPresenter extends Presenter {
         ImageView image = cardView.getMainImageView();
         image.setScaleType(ImageView.ScaleType.FIT_CENTER);
 
-        RequestOptions options = new RequestOptions()
-                .error(defaultIcon);
+        RequestOptions options = ThumbnailLoader.getOptions(cardView.getContext(), defaultIcon);
 
-        if (imageUrl == null) {
+        if (imageModel == null) {
             Glide.with(cardView.getContext())
                     .load(defaultIcon)
                     .apply(options)
@@ -175,7 +174,7 @@ public class CardPresenter extends Presenter {
         }
         else
             Glide.with(cardView.getContext())
-                    .load(imageUrl)
+                    .load(imageModel)
                     .apply(options)
                     .into(image);
     }
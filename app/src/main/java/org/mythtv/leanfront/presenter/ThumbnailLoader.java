@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.presenter;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+import androidx.leanback.widget.ObjectAdapter;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.request.RequestOptions;
+
+import org.mythtv.leanfront.R;
+import org.mythtv.leanfront.data.VideoContract;
+import org.mythtv.leanfront.model.Video;
+
+/**
+ * Loads card thumbnails through Glide at card size.
+ * Recording previews are cached on disk by recordedid and end time,
+ * so that they survive a refresh of the video list and a change of
+ * backend address, and are only fetched again if the recording changes.
+ */
+public class ThumbnailLoader {
+
+    // Number of cards in each adjacent row to prefetch
+    private static final int PREFETCH_COUNT = 10;
+
+    private static int sWidth;
+    private static int sHeight;
+
+    private static void initSize(Context context) {
+        if (sWidth == 0) {
+            Resources res = context.getResources();
+            sWidth = res.getDimensionPixelSize(R.dimen.card_width);
+            sHeight = res.getDimensionPixelSize(R.dimen.card_height);
+        }
+    }
+
+    /**
+     * Get the object to be passed to Glide load for the card image.
+     * @param video Video to get the image for
+     * @return model for Glide, or null if there is no card image
+     */
+    public static Object getModel(Video video) {
+        String url = video.cardImageUrl;
+        if (url == null || url.length() == 0)
+            return null;
+        if (video.rectype == VideoContract.VideoEntry.RECTYPE_RECORDING
+                && video.recordedid != null)
+            return new PreviewUrl(url, video.recordedid, video.endtime);
+        return url;
+    }
+
+    /**
+     * Options shared by card display and prefetch, so that both use
+     * the same cache entries.
+     */
+    public static RequestOptions getOptions(Context context, int defaultIcon) {
+        initSize(context);
+        RequestOptions options = new RequestOptions()
+                .override(sWidth, sHeight)
+                .fitCenter()
+                .diskCacheStrategy(DiskCacheStrategy.ALL);
+        if (defaultIcon != 0)
+            options = options.error(defaultIcon);
+        return options;
+    }
+
+    /**
+     * Prefetch the thumbnails for the first few cards in a row.
+     * @param context Context for Glide
+     * @param adapter Row adapter containing Video items
+     * @param start Position in the row to start prefetching
+     */
+    public static void prefetch(Context context, ObjectAdapter adapter, int start) {
+        if (context == null || adapter == null)
+            return;
+        RequestOptions options = getOptions(context, 0);
+        int end = Math.min(adapter.size(), start + PREFETCH_COUNT);
+        for (int ix = Math.max(0, start); ix < end; ix++) {
+            Object item = adapter.get(ix);
+            if (!(item instanceof Video))
+                continue;
+            Object model = getModel((Video) item);
+            if (model == null)
+                continue;
+            Glide.with(context)
+                    .load(model)
+                    .apply(options)
+                    .preload(sWidth, sHeight);
+        }
+    }
+
+    /**
+     * GlideUrl whose cache key is the recording rather than the url,
+     * so that a new host address or url format does not invalidate it.
+     */
+    private static class PreviewUrl extends GlideUrl {
+        private final String mCacheKey;
+
+        PreviewUrl(String url, String recordedId, String endTime) {
+            super(url);
+            mCacheKey = "preview:" + recordedId + ":" + endTime;
+        }
+
+        @Override
+        public String getCacheKey() {
+            return mCacheKey;
+        }
+    }
+}
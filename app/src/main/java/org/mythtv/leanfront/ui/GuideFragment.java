@@ -24,12 +24,10 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.os.Bundle;
-import android.util.SparseIntArray;
 import android.widget.ArrayAdapter;
 import android.widget.Spinner;
 
 import androidx.appcompat.app.AlertDialog;
-import androidx.leanback.widget.ArrayObjectAdapter;
 import androidx.leanback.widget.FocusHighlight;
 import androidx.leanback.widget.OnItemViewClickedListener;
 import androidx.leanback.widget.Presenter;
@@ -48,6 +46,9 @@ import org.mythtv.leanfront.presenter.GuidePresenterSelector;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -58,19 +59,27 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
     public static final int TIMESLOT_SIZE = 30; //minutes
     public static final int TIME_ROW_INTERVAL = 8;
     public static final int DATE_RANGE = 21;
+    // Channels fetched ahead of the rest, enough to fill the screen
+    private static final int FIRST_BATCH_CHANNELS = 10;
+    // The other channels are fetched in this many requests for all
+    // channels, each for part of the time window and shown as it arrives
+    private static final int BACKGROUND_SLICES = 2;
     private final int ZOOM_FACTOR = FocusHighlight.ZOOM_FACTOR_XSMALL;
-    private ArrayObjectAdapter mGridAdapter;
+    private GuideGridAdapter mGridAdapter;
     private Date mGridStartTime;
     private long mPriorGridStartTime;
-    // map chanid to position in object adapter
-    private SparseIntArray mChanArray = new SparseIntArray();
-    private GuideSlot [] mTimeRow;
     private static DateFormat mTimeFormatter;
     private static DateFormat mDateFormatter;
     private static DateFormat mDayFormatter;
     private GregorianCalendar mTimeSelectCalendar;
     private AlertDialog mDialog;
+    // Set while the channels on screen are being fetched
     private boolean mLoadInProgress;
+    // Parts of the time window still to fetch for all channels, as
+    // {start, end} times
+    private final ArrayDeque<long[]> mPendingSlices = new ArrayDeque<>();
+    // The guide request whose results are wanted, older ones are dropped
+    private AsyncBackendCall mGuideCall;
     private boolean mDoingUpdate;
 
     private static final int ACTION_EDIT_1 = 1;
@@ -94,7 +103,7 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
         presenter.setNumberOfColumns(TIMESLOTS+3);
         setGridPresenter(presenter);
 
-        mGridAdapter = new ArrayObjectAdapter(new GuidePresenterSelector(getContext()));
+        mGridAdapter = new GuideGridAdapter(new GuidePresenterSelector(getContext()));
         setAdapter(mGridAdapter);
 
         setOnItemViewClickedListener(new OnItemViewClickedListener() {
@@ -265,12 +274,54 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
     private void setupGridData() {
         if (mLoadInProgress)
             return;
-        mLoadInProgress = true;
-        Date gridEndTime = new Date(mGridStartTime.getTime() + TIMESLOT_SIZE * TIMESLOTS * 60000);
+        // A new page or time replaces any load still going on
+        mPendingSlices.clear();
+        mGuideCall = null;
+        // After a schedule change recording statuses may be out of date
+        if (mDoingUpdate)
+            mGridAdapter.clearPrograms();
         loadCells();
-        AsyncBackendCall call = new AsyncBackendCall(this);
-        call.setStartTime(mGridStartTime);
-        call.setEndTime(gridEndTime);
+        // Times already fetched are shown from the program index
+        if (mGridAdapter.isWindowLoaded())
+            return;
+        // Fetch the channels on screen first, the rest follow in
+        // windowed requests when they arrive.
+        int position = 0;
+        if (mGridViewHolder != null)
+            position = mGridViewHolder.getGridView().getSelectedPosition();
+        long sliceSize = TIMESLOT_SIZE * TIMESLOTS * 60000L / BACKGROUND_SLICES;
+        for (int ix = 0; ix < BACKGROUND_SLICES; ix++) {
+            long from = mGridStartTime.getTime() + ix * sliceSize;
+            mPendingSlices.add(new long[]{from, from + sliceSize});
+        }
+        int[] chanIds = mGridAdapter.getUnloadedChanIdsNear(position, FIRST_BATCH_CHANNELS);
+        if (chanIds.length == 0) {
+            fetchNextSlice();
+            return;
+        }
+        mLoadInProgress = true;
+        AsyncBackendCall call = createGuideCall();
+        call.setChanIds(chanIds);
+        startGuideCall(call);
+    }
+
+    // Fetch the next part of the window for all channels, skipping parts
+    // that are already loaded
+    private void fetchNextSlice() {
+        long[] slice;
+        while ((slice = mPendingSlices.poll()) != null) {
+            if (!mGridAdapter.isRangeLoaded(slice[0], slice[1])) {
+                AsyncBackendCall call = new AsyncBackendCall(this);
+                call.setStartTime(new Date(slice[0]));
+                call.setEndTime(new Date(slice[1]));
+                startGuideCall(call);
+                return;
+            }
+        }
+    }
+
+    private void startGuideCall(AsyncBackendCall call) {
+        mGuideCall = call;
         if (mDoingUpdate)
             call.execute(Video.ACTION_PAUSE, Video.ACTION_GUIDE);
         else
@@ -278,19 +329,26 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
         mDoingUpdate = false;
     }
 
+    private AsyncBackendCall createGuideCall() {
+        Date gridEndTime = new Date(mGridStartTime.getTime() + TIMESLOT_SIZE * TIMESLOTS * 60000);
+        AsyncBackendCall call = new AsyncBackendCall(this);
+        call.setStartTime(mGridStartTime);
+        call.setEndTime(gridEndTime);
+        return call;
+    }
+
     /**
-     * Preload the grid with timeslots for each channel.
-     * TIMESLOT_SIZE minutes for each cell.
-     * 1 cell per timeslot plus 1 for channel and two for arrows
+     * Load the channel list into the grid, or if it is already
+     * loaded, move the grid to the new start time.
+     * Cells are created by the adapter as they are displayed.
      */
     private void loadCells() {
         if (mPriorGridStartTime > 0) {
-            updateCells();
+            mGridAdapter.setStartTime(mGridStartTime.getTime());
             return;
         }
         mPriorGridStartTime = mGridStartTime.getTime();
-        VideoDbHelper dbh = new VideoDbHelper(getContext());
-        SQLiteDatabase db = dbh.getReadableDatabase();
+        SQLiteDatabase db = VideoDbHelper.getInstance(getContext()).getReadableDatabase();
 
         // Define a projection that specifies which columns from the database
         // you will actually use after this query.
@@ -319,156 +377,77 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
                 orderby.toString()               // The sort order
         );
 
-        // arrow slots
-        GuideSlot leftArrowSlot = new GuideSlot(GuideSlot.CELL_LEFTARROW);
-        GuideSlot rightArrowSlot = new GuideSlot(GuideSlot.CELL_RIGHTARROW);
-
-        // Counter to ensure new time row every few rows.
-        int tsRowCount = 0;
-        setupTimeRow(leftArrowSlot, rightArrowSlot);
-
+        int count = cursor.getCount();
+        int[] chanIds = new int[count];
+        String[] chanDetails = new String[count];
         int colSubt = cursor.getColumnIndex(VideoContract.VideoEntry.COLUMN_SUBTITLE);
         int colChId = cursor.getColumnIndex(VideoContract.VideoEntry.COLUMN_CHANID);
-        while (cursor.moveToNext()) {
-            if (tsRowCount == 0)
-                addTimeRow();
-            if (++tsRowCount >= TIME_ROW_INTERVAL)
-                tsRowCount = 0;
-            String chanDetails = cursor.getString(colSubt);
-            int chanId = cursor.getInt(colChId);
-            // channel slot at front
-            GuideSlot slot = new GuideSlot(chanId, chanDetails);
-            mGridAdapter.add(slot);
-            mGridAdapter.add(leftArrowSlot);
-            mChanArray.put(chanId,mGridAdapter.size());
-            for (int i = 0; i< TIMESLOTS; i++) {
-                int position;
-                switch (i) {
-                    case 0:
-                        position = GuideSlot.POS_LEFT;
-                        break;
-                    case TIMESLOTS-1:
-                        position = GuideSlot.POS_RIGHT;
-                        break;
-                    default:
-                        position = GuideSlot.POS_MIDDLE;
-                }
-                slot = new GuideSlot(GuideSlot.CELL_PROGRAM, position, mTimeRow[i+2].timeSlot);
-                mGridAdapter.add(slot);
-            }
-            mGridAdapter.add(rightArrowSlot);
+        for (int ix = 0; ix < count && cursor.moveToNext(); ix++) {
+            chanDetails[ix] = cursor.getString(colSubt);
+            chanIds[ix] = cursor.getInt(colChId);
         }
         cursor.close();
-        db.close();
-    }
-
-    private void updateCells() {
-        // Update Time row
-        mTimeRow[0].timeSlot = mGridStartTime;
-        for (int ix = 0; ix< TIMESLOTS; ix++) {
-            mTimeRow[ix+2].timeSlot =
-                    new Date( mGridStartTime.getTime() + ix * TIMESLOT_SIZE * 60000);
-        }
-        // Clear out program cells
-        for (int ix = 0 ; ix < mGridAdapter.size(); ix++) {
-            GuideSlot slot = (GuideSlot)mGridAdapter.get(ix);
-            int iPos = ix % (TIMESLOTS+3);
-            if (slot.cellType == GuideSlot.CELL_PROGRAM) {
-                slot.program = null;
-                slot.program2 = null;
-                slot.timeSlot = mTimeRow[iPos].timeSlot;
-            }
-        }
-    }
-
-    private void setupTimeRow(GuideSlot leftArrowSlot, GuideSlot rightArrowSlot) {
-        mTimeRow = new GuideSlot[TIMESLOTS + 3];
-        // time selector slot at front
-        mTimeRow[0] = new GuideSlot(GuideSlot.CELL_TIMESELECTOR);
-        mTimeRow[0].timeSlot = mGridStartTime;
-        mTimeRow[1] = leftArrowSlot;
-        for (int ix = 0; ix< TIMESLOTS; ix++) {
-            mTimeRow[ix+2] = new GuideSlot(GuideSlot.CELL_TIMESLOT,0,
-                    new Date( mGridStartTime.getTime() + ix * TIMESLOT_SIZE * 60000));
-        }
-        mTimeRow[TIMESLOTS+2] = rightArrowSlot;
+        mGridAdapter.setChannels(chanIds, chanDetails);
+        mGridAdapter.setStartTime(mGridStartTime.getTime());
     }
 
-    private void addTimeRow() {
-        for (int i = 0; i < mTimeRow.length; i++)
-            mGridAdapter.add(mTimeRow[i]);
-    }
-
-
     @Override
     public void onPostExecute(AsyncBackendCall taskRunner) {
         int [] tasks = taskRunner.getTasks();
         switch (tasks[0]) {
             case Video.ACTION_GUIDE:
             case Video.ACTION_PAUSE:
-                loadGuideData(taskRunner.getXmlResult());
+                loadGuideData(taskRunner);
         }
     }
 
-    void loadGuideData(XmlNode result) {
+    void loadGuideData(AsyncBackendCall taskRunner) {
+        // Results for a time window that has since been left are dropped
+        if (taskRunner != mGuideCall)
+            return;
+        mGuideCall = null;
+        // The channels on screen are shown, the grid can be used again
         mLoadInProgress = false;
-        if (result == null)
+        if (!isStarted) {
+            mPendingSlices.clear();
             return;
-        if (!isStarted)
+        }
+        long startTime = taskRunner.getStartTime().getTime();
+        int[] chanIds = taskRunner.getChanIds();
+        ArrayList<XmlNode> results = taskRunner.getXmlResults();
+        // Only channels that were fetched successfully are marked as loaded,
+        // so failed ones are fetched again.
+        int[] loadedIds = null;
+        int loadedCount = 0;
+        if (chanIds != null)
+            loadedIds = new int[chanIds.length];
+        else if (results.size() == 0 || results.get(0) == null) {
+            fetchNextSlice();
             return;
-        XmlNode programNode = null;
-        for (; ; ) {
-            if (programNode == null)
-                programNode = result.getNode("Programs").getNode("Program");
-            else
-                programNode = programNode.getNextSibling();
-            if (programNode == null)
-                break;
-            GuideSlot.Program program = new GuideSlot.Program(programNode);
-            int adapterPos = mChanArray.get(program.chanId,-1);
-            if (adapterPos == -1)
-                continue;
-            if (program.startTime == null || program.endTime == null)
-                continue;
-
-            long lPos = (program.startTime.getTime() - mGridStartTime.getTime())
-                    / (TIMESLOT_SIZE*60);
-            float fPos = (float)lPos / 1000.0f;
-            // Start position is the slot wherein the show starts.
-            int startPos = (int)(fPos);
-            if (startPos >= TIMESLOTS)
-                continue;
-            if (startPos < 0)
-                startPos = 0;
-
-            lPos = (program.endTime.getTime() - mGridStartTime.getTime())
-                    / (TIMESLOT_SIZE*60);
-            fPos = (float)lPos / 1000.0f;
-            // End position is the slot before the one where the show ends
-            // unless it ends in the same slot as it starts.
-            int endPos = (int)(fPos);
-            if (endPos <= 0)
+        }
+        ArrayList<GuideSlot.Program> programs = new ArrayList<>();
+        for (int ix = 0; ix < results.size(); ix++) {
+            XmlNode result = results.get(ix);
+            if (result == null)
                 continue;
-            if (endPos >= TIMESLOTS)
-                endPos = TIMESLOTS;
-            if (endPos == startPos)
-                ++endPos;
-
-            for (int ix = adapterPos+startPos; ix < adapterPos+endPos; ix++) {
-                GuideSlot slot = (GuideSlot)mGridAdapter.get(ix);
-                if (slot.program == null)
-                    slot.program = program;
-                else if (slot.program2 == null) {
-                    if (program.startTime.after(slot.program.startTime))
-                        slot.program2 = program;
-                    else {
-                        slot.program2 = slot.program;
-                        slot.program = program;
-                    }
-                }
+            if (loadedIds != null && ix < chanIds.length)
+                loadedIds[loadedCount++] = chanIds[ix];
+            XmlNode programNode = null;
+            for (; ; ) {
+                if (programNode == null)
+                    programNode = result.getNode("Programs").getNode("Program");
+                else
+                    programNode = programNode.getNextSibling();
+                if (programNode == null)
+                    break;
+                programs.add(new GuideSlot.Program(programNode));
             }
         }
-        mGridAdapter.notifyArrayItemRangeChanged(0, mGridAdapter.size()-1);
+        if (loadedIds != null)
+            loadedIds = Arrays.copyOf(loadedIds, loadedCount);
+        mGridAdapter.applyPrograms(programs, loadedIds,
+                startTime, taskRunner.getEndTime().getTime());
+        fetchNextSlice();
     }
 
 }
@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.ui;
+
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import androidx.leanback.widget.ObjectAdapter;
+import androidx.leanback.widget.PresenterSelector;
+
+import org.mythtv.leanfront.model.GuideSlot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.mythtv.leanfront.ui.GuideFragment.TIMESLOTS;
+import static org.mythtv.leanfront.ui.GuideFragment.TIMESLOT_SIZE;
+import static org.mythtv.leanfront.ui.GuideFragment.TIME_ROW_INTERVAL;
+
+/**
+ * Adapter for the program guide grid. Channels are kept in arrays and
+ * programs in a GuideProgramIndex per channel, which holds every time
+ * range fetched, so moving the grid to a time already fetched needs no
+ * backend call. The GuideSlot cells for a row are only created
+ * when the grid asks for that row. Rows far from the last one asked for
+ * are dropped, so only the visible and nearby rows exist as objects.
+ *
+ * Grid layout - each row is one channel, with a time row
+ * every TIME_ROW_INTERVAL channels. Each row has the channel (or time
+ * selector), left arrow, TIMESLOTS program cells and right arrow.
+ */
+public class GuideGridAdapter extends ObjectAdapter {
+
+    public static final int ROW_CELLS = TIMESLOTS + 3;
+    // Rows kept before the furthest ones are dropped. This must be more
+    // than the number of rows the grid can have on screen and in its cache.
+    private static final int MAX_CACHED_ROWS = 40;
+
+    // Channels in display order
+    private int[] mChanIds = new int[0];
+    private String[] mChanDetails = new String[0];
+    // map chanid to channel index
+    private final SparseIntArray mChanIndex = new SparseIntArray();
+    // Programs by channel index
+    private GuideProgramIndex[] mPrograms = new GuideProgramIndex[0];
+
+    private long mStartTime;
+    private final GuideSlot[] mTimeRow = new GuideSlot[ROW_CELLS];
+    private final GuideSlot mLeftArrowSlot = new GuideSlot(GuideSlot.CELL_LEFTARROW);
+    private final GuideSlot mRightArrowSlot = new GuideSlot(GuideSlot.CELL_RIGHTARROW);
+
+    // Rows that have been handed out, by row number
+    private final SparseArray<GuideSlot[]> mRows = new SparseArray<>();
+    private int mLastRow;
+
+    public GuideGridAdapter(PresenterSelector presenterSelector) {
+        super(presenterSelector);
+        mTimeRow[0] = new GuideSlot(GuideSlot.CELL_TIMESELECTOR);
+        mTimeRow[1] = mLeftArrowSlot;
+        for (int ix = 0; ix < TIMESLOTS; ix++)
+            mTimeRow[ix + 2] = new GuideSlot(GuideSlot.CELL_TIMESLOT, 0, null);
+        mTimeRow[ROW_CELLS - 1] = mRightArrowSlot;
+    }
+
+    /**
+     * Replace the list of channels. This clears all programs.
+     * @param chanIds Channel ids in display order
+     * @param chanDetails Text for the channel cell of each channel
+     */
+    public void setChannels(int[] chanIds, String[] chanDetails) {
+        mChanIds = chanIds;
+        mChanDetails = chanDetails;
+        mChanIndex.clear();
+        mPrograms = new GuideProgramIndex[chanIds.length];
+        for (int ix = 0; ix < chanIds.length; ix++) {
+            mChanIndex.put(chanIds[ix], ix);
+            mPrograms[ix] = new GuideProgramIndex();
+        }
+        mRows.clear();
+        notifyChanged();
+    }
+
+    public int getChannelCount() {
+        return mChanIds.length;
+    }
+
+    /**
+     * Set the time at the start of the grid. The rows that have
+     * been displayed are refreshed from the programs already fetched.
+     */
+    public void setStartTime(long startTime) {
+        mStartTime = startTime;
+        mTimeRow[0].timeSlot = new Date(startTime);
+        for (int ix = 0; ix < TIMESLOTS; ix++)
+            mTimeRow[ix + 2].timeSlot = new Date(startTime + ix * TIMESLOT_SIZE * 60000);
+        refreshRows();
+    }
+
+    private long getEndTime() {
+        return mStartTime + TIMESLOTS * TIMESLOT_SIZE * 60000;
+    }
+
+    /**
+     * Drop all programs, e.g. when recording statuses may have changed.
+     */
+    public void clearPrograms() {
+        for (GuideProgramIndex index : mPrograms)
+            index.clear();
+        refreshRows();
+    }
+
+    /**
+     * @return true if every channel has been fetched for the grid's time window.
+     */
+    public boolean isWindowLoaded() {
+        return isRangeLoaded(mStartTime, getEndTime());
+    }
+
+    /**
+     * @return true if every channel has been fetched for the time range.
+     */
+    public boolean isRangeLoaded(long from, long to) {
+        for (GuideProgramIndex index : mPrograms) {
+            if (!index.covers(from, to))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Channel ids around a grid position that have not been fetched
+     * for the grid's time window, for loading the channels on screen
+     * before the others.
+     * @param position Grid position, e.g. the selected one
+     * @param count Number of channels to look at
+     */
+    public int[] getUnloadedChanIdsNear(int position, int count) {
+        int chanCount = mChanIds.length;
+        if (chanCount == 0)
+            return new int[0];
+        int row = Math.max(0, position / ROW_CELLS);
+        int chanIx = rowToChannel(row);
+        if (chanIx == -1)
+            chanIx = rowToChannel(row + 1);
+        // Selection is usually near the middle of the screen
+        int first = Math.max(0, Math.min(chanIx - count / 2, chanCount - count));
+        int last = Math.min(chanCount, first + count);
+        long endTime = getEndTime();
+        int[] result = new int[last - first];
+        int found = 0;
+        for (int ix = first; ix < last; ix++) {
+            if (!mPrograms[ix].covers(mStartTime, endTime))
+                result[found++] = mChanIds[ix];
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    /**
+     * Apply a batch of programs and refresh the rows of the channels in
+     * the batch. Channels that already have the time range are skipped,
+     * so a full load can follow a partial one.
+     * @param programs Programs received
+     * @param chanIds Channels the batch covers, or null for all channels
+     * @param from Start of the time range fetched
+     * @param to End of the time range fetched
+     */
+    public void applyPrograms(List<GuideSlot.Program> programs, int[] chanIds,
+                              long from, long to) {
+        boolean[] inBatch = new boolean[mChanIds.length];
+        if (chanIds == null)
+            Arrays.fill(inBatch, true);
+        else {
+            for (int chanId : chanIds) {
+                int chanIx = mChanIndex.get(chanId, -1);
+                if (chanIx != -1)
+                    inBatch[chanIx] = true;
+            }
+        }
+        for (int ix = 0; ix < inBatch.length; ix++) {
+            if (mPrograms[ix].covers(from, to))
+                inBatch[ix] = false;
+        }
+        for (GuideSlot.Program program : programs) {
+            int chanIx = mChanIndex.get(program.chanId, -1);
+            if (chanIx != -1 && inBatch[chanIx])
+                addProgram(program);
+        }
+        boolean visible = from < getEndTime() && to > mStartTime;
+        for (int ix = 0; ix < inBatch.length; ix++) {
+            if (inBatch[ix]) {
+                mPrograms[ix].addRange(from, to);
+                if (visible)
+                    refreshRow(channelToRow(ix));
+            }
+        }
+    }
+
+    /**
+     * Add a program to the grid. Programs on unknown channels
+     * are ignored.
+     * @return true if the program was added.
+     */
+    private boolean addProgram(GuideSlot.Program program) {
+        if (program.startTime == null || program.endTime == null)
+            return false;
+        int chanIx = mChanIndex.get(program.chanId, -1);
+        if (chanIx == -1)
+            return false;
+        mPrograms[chanIx].put(program);
+        return true;
+    }
+
+    // Refresh one row if it has been handed out
+    private void refreshRow(int row) {
+        int index = mRows.indexOfKey(row);
+        if (index < 0)
+            return;
+        mRows.removeAt(index);
+        notifyItemRangeChanged(row * ROW_CELLS, ROW_CELLS);
+    }
+
+    // Drop the rows that have been handed out and tell the grid
+    // to get them again. Rows not handed out are built when needed.
+    private void refreshRows() {
+        int size = mRows.size();
+        if (size == 0)
+            return;
+        int[] rowNums = new int[size];
+        for (int ix = 0; ix < size; ix++)
+            rowNums[ix] = mRows.keyAt(ix);
+        mRows.clear();
+        // keys are in ascending order, notify each run of adjacent rows
+        int runStart = rowNums[0];
+        int runEnd = runStart;
+        for (int ix = 1; ix <= size; ix++) {
+            if (ix < size && rowNums[ix] == runEnd + 1) {
+                runEnd = rowNums[ix];
+                continue;
+            }
+            notifyItemRangeChanged(runStart * ROW_CELLS, (runEnd - runStart + 1) * ROW_CELLS);
+            if (ix < size) {
+                runStart = rowNums[ix];
+                runEnd = runStart;
+            }
+        }
+    }
+
+    private int getRowCount() {
+        int chanCount = mChanIds.length;
+        return chanCount + (chanCount + TIME_ROW_INTERVAL - 1) / TIME_ROW_INTERVAL;
+    }
+
+    // Channel index for a row, or -1 for a time row
+    private static int rowToChannel(int row) {
+        int within = row % (TIME_ROW_INTERVAL + 1);
+        if (within == 0)
+            return -1;
+        return (row / (TIME_ROW_INTERVAL + 1)) * TIME_ROW_INTERVAL + within - 1;
+    }
+
+    /**
+     * Grid row where a channel is shown.
+     */
+    public static int channelToRow(int chanIx) {
+        return (chanIx / TIME_ROW_INTERVAL) * (TIME_ROW_INTERVAL + 1)
+                + chanIx % TIME_ROW_INTERVAL + 1;
+    }
+
+    @Override
+    public int size() {
+        return getRowCount() * ROW_CELLS;
+    }
+
+    @Override
+    public Object get(int position) {
+        int row = position / ROW_CELLS;
+        GuideSlot[] cells = mRows.get(row);
+        if (cells == null) {
+            int chanIx = rowToChannel(row);
+            if (chanIx == -1)
+                cells = mTimeRow;
+            else
+                cells = buildRow(chanIx);
+            mRows.put(row, cells);
+            mLastRow = row;
+            trimRows();
+        }
+        else
+            mLastRow = row;
+        return cells[position % ROW_CELLS];
+    }
+
+    // Drop the rows furthest from the last one asked for
+    private void trimRows() {
+        while (mRows.size() > MAX_CACHED_ROWS) {
+            int first = mRows.keyAt(0);
+            int last = mRows.keyAt(mRows.size() - 1);
+            if (mLastRow - first > last - mLastRow)
+                mRows.removeAt(0);
+            else
+                mRows.removeAt(mRows.size() - 1);
+        }
+    }
+
+    private GuideSlot[] buildRow(int chanIx) {
+        GuideSlot[] cells = new GuideSlot[ROW_CELLS];
+        cells[0] = new GuideSlot(mChanIds[chanIx], mChanDetails[chanIx]);
+        cells[1] = mLeftArrowSlot;
+        for (int i = 0; i < TIMESLOTS; i++) {
+            int position;
+            switch (i) {
+                case 0:
+                    position = GuideSlot.POS_LEFT;
+                    break;
+                case TIMESLOTS-1:
+                    position = GuideSlot.POS_RIGHT;
+                    break;
+                default:
+                    position = GuideSlot.POS_MIDDLE;
+            }
+            cells[i + 2] = new GuideSlot(GuideSlot.CELL_PROGRAM, position, mTimeRow[i + 2].timeSlot);
+        }
+        cells[ROW_CELLS - 1] = mRightArrowSlot;
+
+        ArrayList<GuideSlot.Program> programs = new ArrayList<>();
+        mPrograms[chanIx].query(mStartTime, getEndTime(), programs);
+        for (GuideSlot.Program program : programs)
+            placeProgram(cells, program, program.startTime.getTime(), program.endTime.getTime());
+        return cells;
+    }
+
+    // Put a program into the cells covering its time
+    private void placeProgram(GuideSlot[] cells, GuideSlot.Program program,
+                              long startTime, long endTime) {
+        long lPos = (startTime - mStartTime) / (TIMESLOT_SIZE*60);
+        float fPos = (float)lPos / 1000.0f;
+        // Start position is the slot wherein the show starts.
+        int startPos = (int)(fPos);
+        if (startPos >= TIMESLOTS)
+            return;
+        if (startPos < 0)
+            startPos = 0;
+
+        lPos = (endTime - mStartTime) / (TIMESLOT_SIZE*60);
+        fPos = (float)lPos / 1000.0f;
+        // End position is the slot before the one where the show ends
+        // unless it ends in the same slot as it starts.
+        int endPos = (int)(fPos);
+        if (endPos <= 0)
+            return;
+        if (endPos >= TIMESLOTS)
+            endPos = TIMESLOTS;
+        if (endPos == startPos)
+            ++endPos;
+
+        for (int ix = startPos; ix < endPos; ix++) {
+            GuideSlot slot = cells[ix + 2];
+            if (slot.program == null)
+                slot.program = program;
+            else if (slot.program2 == null) {
+                if (program.startTime.after(slot.program.startTime))
+                    slot.program2 = program;
+                else {
+                    slot.program2 = slot.program;
+                    slot.program = program;
+                }
+            }
+        }
+    }
+}
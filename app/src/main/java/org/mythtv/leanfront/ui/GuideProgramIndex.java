@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.ui;
+
+import org.mythtv.leanfront.model.GuideSlot;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Programs on one channel, sorted by start time, for any time that has
+ * been fetched. Also keeps the time ranges that have been fetched, so the
+ * guide can tell whether a window can be shown without asking the backend.
+ *
+ * Along with the start and end times, maxEnds[i] holds the latest end
+ * time of programs 0 to i. That never decreases, so the first program that
+ * can overlap a time is found with a binary search, and a lookup costs
+ * O(log n + k) for k programs found.
+ */
+public class GuideProgramIndex {
+
+    private long[] mStarts = new long[16];
+    private long[] mEnds = new long[16];
+    private long[] mMaxEnds = new long[16];
+    private GuideSlot.Program[] mPrograms = new GuideSlot.Program[16];
+    private int mCount;
+
+    // Fetched time ranges, sorted and not overlapping
+    private long[] mRangeStarts = new long[4];
+    private long[] mRangeEnds = new long[4];
+    private int mRangeCount;
+
+    /**
+     * Add a program. A program with the same start time replaces
+     * the one already there, so fetching a time range again updates it.
+     */
+    public void put(GuideSlot.Program program) {
+        long start = program.startTime.getTime();
+        long end = program.endTime.getTime();
+        int ix = Arrays.binarySearch(mStarts, 0, mCount, start);
+        if (ix < 0) {
+            ix = -ix - 1;
+            if (mCount == mStarts.length) {
+                int newSize = mCount * 2;
+                mStarts = Arrays.copyOf(mStarts, newSize);
+                mEnds = Arrays.copyOf(mEnds, newSize);
+                mMaxEnds = Arrays.copyOf(mMaxEnds, newSize);
+                mPrograms = Arrays.copyOf(mPrograms, newSize);
+            }
+            int move = mCount - ix;
+            if (move > 0) {
+                System.arraycopy(mStarts, ix, mStarts, ix + 1, move);
+                System.arraycopy(mEnds, ix, mEnds, ix + 1, move);
+                System.arraycopy(mPrograms, ix, mPrograms, ix + 1, move);
+            }
+            ++mCount;
+        }
+        mStarts[ix] = start;
+        mEnds[ix] = end;
+        mPrograms[ix] = program;
+        // Programs mostly arrive in time order, so this is usually
+        // just the new last entry.
+        for (int i = ix; i < mCount; i++)
+            mMaxEnds[i] = i == 0 ? mEnds[0] : Math.max(mMaxEnds[i - 1], mEnds[i]);
+    }
+
+    /**
+     * Find the programs that overlap a time range.
+     * @param from Start of range, milliseconds
+     * @param to End of range (exclusive), milliseconds
+     * @param result Programs are added to this in start time order
+     */
+    public void query(long from, long to, List<GuideSlot.Program> result) {
+        // First program whose running maximum end is after the range start
+        int lo = 0;
+        int hi = mCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mMaxEnds[mid] > from)
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        for (int ix = lo; ix < mCount && mStarts[ix] < to; ix++) {
+            if (mEnds[ix] > from)
+                result.add(mPrograms[ix]);
+        }
+    }
+
+    /**
+     * Record that a time range has been fetched.
+     */
+    public void addRange(long from, long to) {
+        // Merge with any ranges that overlap or touch it
+        int first = 0;
+        while (first < mRangeCount && mRangeEnds[first] < from)
+            first++;
+        int last = first;
+        while (last < mRangeCount && mRangeStarts[last] <= to) {
+            from = Math.min(from, mRangeStarts[last]);
+            to = Math.max(to, mRangeEnds[last]);
+            last++;
+        }
+        int removed = last - first;
+        if (removed == 0) {
+            if (mRangeCount == mRangeStarts.length) {
+                mRangeStarts = Arrays.copyOf(mRangeStarts, mRangeCount * 2);
+                mRangeEnds = Arrays.copyOf(mRangeEnds, mRangeCount * 2);
+            }
+            System.arraycopy(mRangeStarts, first, mRangeStarts, first + 1, mRangeCount - first);
+            System.arraycopy(mRangeEnds, first, mRangeEnds, first + 1, mRangeCount - first);
+            ++mRangeCount;
+        } else if (removed > 1) {
+            System.arraycopy(mRangeStarts, last, mRangeStarts, first + 1, mRangeCount - last);
+            System.arraycopy(mRangeEnds, last, mRangeEnds, first + 1, mRangeCount - last);
+            mRangeCount -= removed - 1;
+        }
+        mRangeStarts[first] = from;
+        mRangeEnds[first] = to;
+    }
+
+    /**
+     * @return true if the whole time range has been fetched.
+     */
+    public boolean covers(long from, long to) {
+        for (int ix = 0; ix < mRangeCount && mRangeStarts[ix] <= from; ix++) {
+            if (mRangeEnds[ix] >= to)
+                return true;
+        }
+        return false;
+    }
+
+    public void clear() {
+        Arrays.fill(mPrograms, 0, mCount, null);
+        mCount = 0;
+        mRangeCount = 0;
+    }
+}
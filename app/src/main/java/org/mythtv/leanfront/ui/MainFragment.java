@@ -44,7 +44,6 @@ import androidx.leanback.app.HeadersSupportFragment;
 import androidx.leanback.app.ProgressBarManager;
 import androidx.leanback.app.RowsSupportFragment;
 import androidx.leanback.widget.ArrayObjectAdapter;
-import androidx.leanback.widget.CursorObjectAdapter;
 import androidx.leanback.widget.ImageCardView;
 import androidx.leanback.widget.ListRow;
 import androidx.leanback.widget.ListRowPresenter;
@@ -63,7 +62,6 @@ import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.ProcessLifecycleOwner;
 import androidx.loader.app.LoaderManager;
 import androidx.core.content.ContextCompat;
-import androidx.loader.content.CursorLoader;
 import androidx.loader.content.Loader;
 
 import android.os.Looper;
@@ -83,17 +81,21 @@ import com.bumptech.glide.request.target.SimpleTarget;
 import com.bumptech.glide.request.transition.Transition;
 import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.data.AsyncBackendCall;
-import org.mythtv.leanfront.data.FetchVideoService;
+import org.mythtv.leanfront.data.FetchGuideService;
+import org.mythtv.leanfront.data.FetchScheduler;
+import org.mythtv.leanfront.data.HostResolver;
+import org.mythtv.leanfront.data.MythEventListener;
 import org.mythtv.leanfront.data.VideoContract;
 import org.mythtv.leanfront.data.VideoDbHelper;
 import org.mythtv.leanfront.data.XmlNode;
 import org.mythtv.leanfront.model.ListItem;
 import org.mythtv.leanfront.model.MyHeaderItem;
+import org.mythtv.leanfront.model.RowSnapshot;
 import org.mythtv.leanfront.model.Settings;
 import org.mythtv.leanfront.model.Video;
-import org.mythtv.leanfront.model.VideoCursorMapper;
 import org.mythtv.leanfront.presenter.CardPresenter;
 import org.mythtv.leanfront.presenter.IconHeaderItemPresenter;
+import org.mythtv.leanfront.presenter.ThumbnailLoader;
 import org.mythtv.leanfront.recommendation.UpdateRecommendationsService;
 import org.mythtv.leanfront.ui.playback.PlaybackActivity;
 import org.xmlpull.v1.XmlPullParserException;
@@ -103,9 +105,9 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -130,7 +132,8 @@ public class MainFragment extends BrowseSupportFragment
     private Uri mBackgroundURI;
     private BackgroundManager mBackgroundManager;
     private static final int CATEGORY_LOADER = 123; // Unique ID for Category Loader.
-    private CursorObjectAdapter videoCursorAdapter;
+    // ListRow currently displayed for each row snapshot
+    private IdentityHashMap<RowSnapshot, ListRow> mRowMap = new IdentityHashMap<>();
     private int mType;
     public static final String KEY_TYPE = "LEANFRONT_TYPE";
     // Type applicable to main screen
@@ -173,12 +176,16 @@ public class MainFragment extends BrowseSupportFragment
     private static ScheduledExecutorService executor = null;
     private static MythTask mythTask = new MythTask();
     public static volatile long mFetchTime = 0;
+    // Refresh interval when updates come from backend events, only a safety net
+    private static final long REFRESH_INTERVAL_EVENTS = 6*60*60*1000L;
     // Keep track of the fragment currently showing, if any.
     private static MainFragment mActiveFragment = null;
     private static boolean mWasInBackground = true;
     // Not final so I can change it during debug
     private static int TASK_INTERVAL = 240;
     private ItemViewClickedListener mItemViewClickedListener;
+    // Row whose neighbours have had thumbnails prefetched
+    private int mPrefetchRowNum = -1;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -186,17 +193,17 @@ public class MainFragment extends BrowseSupportFragment
         Intent intent = getActivity().getIntent();
         mType = intent.getIntExtra(KEY_TYPE, TYPE_TOPLEVEL);
         if (mType == TYPE_TOPLEVEL) {
-            // Clear ip address cache
+            // Clear ip address cache, it is reloaded from storage
+            // and refreshed in the background
             XmlNode.clearCache();
-            VideoDbHelper dbh = new VideoDbHelper(getContext());
-            SQLiteDatabase db = dbh.getWritableDatabase();
+            HostResolver.init(getContext());
+            SQLiteDatabase db = VideoDbHelper.getInstance(getContext()).getWritableDatabase();
             // delete stale entries from bookmark table
             String where = VideoContract.StatusEntry.COLUMN_LAST_USED + " < ? ";
             // 60 days in milliseconds
             String[] selectionArgs = {String.valueOf(System.currentTimeMillis() - 60L*24*60*60*1000)};
             // https://developer.android.com/reference/android/database/sqlite/SQLiteDatabase.html
             db.delete(VideoContract.StatusEntry.TABLE_NAME, where,selectionArgs);
-            db.close();
             // Initialize startup members
             if (executor != null)
                 executor.shutdownNow();
@@ -255,12 +262,11 @@ public class MainFragment extends BrowseSupportFragment
     public void startFetch(int rectype, String recordedId, String recGroup) {
         if (rectype == -1)
             mFetchTime = System.currentTimeMillis();
-        // Start an Intent to fetch the videos.
-        Intent serviceIntent = new Intent(getActivity(), FetchVideoService.class);
-        serviceIntent.putExtra(FetchVideoService.RECTYPE, rectype);
-        serviceIntent.putExtra(FetchVideoService.RECORDEDID, recordedId);
-        serviceIntent.putExtra(FetchVideoService.RECGROUP, recGroup);
-        getActivity().startService(serviceIntent);
+        // Queue the fetch, it is merged with any others waiting.
+        FetchScheduler.schedule(getActivity(), rectype, recordedId, recGroup);
+        // Bring the local guide up to date along with a full refresh
+        if (rectype == -1)
+            getActivity().startService(new Intent(getActivity(), FetchGuideService.class));
     }
 
     // Load user interface from local database.
@@ -302,6 +308,7 @@ public class MainFragment extends BrowseSupportFragment
             if (executor != null)
                 executor.shutdownNow();
             executor = null;
+            MythEventListener.stop();
         }
         super.onDestroy();
     }
@@ -311,17 +318,28 @@ public class MainFragment extends BrowseSupportFragment
         super.onResume();
         mActiveFragment = this;
         startBackgroundTimer();
-        if (mWasInBackground)
+        if (mWasInBackground) {
             restartMythTask();
+            MythEventListener.start(getContext());
+        }
         mWasInBackground = false;
-        // If it's been more than an hour, refresh
-        if (mFetchTime < System.currentTimeMillis() - 60*60*1000) {
+        if (isRefreshDue()) {
             startFetch(-1, null, null);
         }
         // Clear out stream info cache
         AsyncBackendCall.clearCachedStreamInfo();
     }
 
+    /**
+     * A full refresh is done every hour, or every REFRESH_INTERVAL_EVENTS
+     * while backend events are keeping the list up to date.
+     */
+    private static boolean isRefreshDue() {
+        long interval = MythEventListener.isConnected()
+                ? REFRESH_INTERVAL_EVENTS : 60*60*1000;
+        return mFetchTime < System.currentTimeMillis() - interval;
+    }
+
     public static void restartMythTask() {
         if (executor != null)
             executor.shutdownNow();
@@ -682,10 +700,11 @@ public class MainFragment extends BrowseSupportFragment
                 }
             }
         }
-        // for Video Directory page, limit selection to videos
+        // for Video Directory page, the directory uri selects the videos
+        // in this directory and the next level down.
         if (mType == TYPE_VIDEODIR) {
-            selection.append(VideoContract.VideoEntry.COLUMN_RECTYPE).append(" = ");
-            selection.append(VideoContract.VideoEntry.RECTYPE_VIDEO);
+            selectionArgs = new String[1];
+            selectionArgs[0] = mBaseName;
         }
 
         StringBuilder titleSort = makeTitleSort(VideoContract.VideoEntry.COLUMN_TITLE, '^');
@@ -707,18 +726,21 @@ public class MainFragment extends BrowseSupportFragment
         orderby.append(", ").append(VideoContract.VideoEntry.COLUMN_RECORDEDID).append(" ")
                 .append(ascdesc);
 
-        Loader ret = new CursorLoader(
+        // The top level only shows one card per title, so it reads the
+        // summary table rather than every episode.
+        Uri uri = VideoContract.VideoEntry.CONTENT_URI;
+        if (mType == TYPE_TOPLEVEL)
+            uri = VideoContract.SummaryEntry.CONTENT_URI;
+        else if (mType == TYPE_VIDEODIR)
+            uri = VideoContract.DirEntry.CONTENT_URI;
+
+        return new MainRowLoader(
                 getContext(),
-                VideoContract.VideoEntry.CONTENT_URI, // Table to query
-                null, // Projection to return - null means return all fields
+                uri, // Table to query
                 selection.toString(), // Selection clause
                 selectionArgs,  // Select based on the category id.
-                orderby.toString());
-        // Map video results from the database to Video objects.
-        videoCursorAdapter =
-                new CursorObjectAdapter(new CardPresenter());
-        videoCursorAdapter.setMapper(new VideoCursorMapper());
-        return ret;
+                orderby.toString(),
+                mType, mBaseName, seq, ascdesc);
     }
 
     /**
@@ -757,378 +779,42 @@ public class MainFragment extends BrowseSupportFragment
             if (mActiveFragment == this)
                 saveSelected();
 
-            String seq = Settings.getString("pref_seq");
-            String ascdesc = Settings.getString("pref_seq_ascdesc");
-
-            int allType = TYPE_RECGROUP_ALL;
-            String allTitle = null;
-            if (mType == TYPE_TOPLEVEL) {
-                allTitle = getString(R.string.all_title) + "\t";
-                allType = TYPE_TOP_ALL;
-            }
-            if (mType == TYPE_RECGROUP) {
-                if (!mBaseName.endsWith("\t"))
-                    allTitle = mBaseName + "\t";
-                allType = TYPE_RECGROUP_ALL;
-            }
-
             final int loaderId = loader.getId();
-            if (loaderId == CATEGORY_LOADER) {
-                int rectypeIndex =
-                        data.getColumnIndex(VideoContract.VideoEntry.COLUMN_RECTYPE);
-                int recgroupIndex =
-                        data.getColumnIndex(VideoContract.VideoEntry.COLUMN_RECGROUP);
-                int titleIndex =
-                        data.getColumnIndex(VideoContract.VideoEntry.COLUMN_TITLE);
-                int airdateIndex =
-                        data.getColumnIndex(VideoContract.VideoEntry.COLUMN_AIRDATE);
-                int starttimeIndex =
-                        data.getColumnIndex(VideoContract.VideoEntry.COLUMN_STARTTIME);
-                int filenameIndex =
-                        data.getColumnIndex(VideoContract.VideoEntry.COLUMN_FILENAME);
-                SimpleDateFormat dbDateFormat = new SimpleDateFormat("yyyy-MM-dd");
-                SimpleDateFormat dbTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-                int sortkey;
-                SimpleDateFormat sortKeyFormat;
-                if ("airdate".equals(seq)) {
-                    sortkey = airdateIndex;
-                    sortKeyFormat = dbDateFormat;
-                }
-                else {
-                    sortkey = starttimeIndex;
-                    sortKeyFormat = dbTimeFormat;
-                }
-                boolean cursorHasData = data.moveToFirst();
+            if (loaderId == CATEGORY_LOADER
+                    && data instanceof MainRowLoader.RowModelCursor) {
+                // Rows were built on the loader thread. Here we only
+                // update the adapter where rows have changed.
+                List<RowSnapshot> snapshots = ((MainRowLoader.RowModelCursor) data).getRows();
+                int oldSelectedRowNum = getSelectedPosition();
+                ListRow oldSelectedRow = null;
+                if (oldSelectedRowNum >= 0 && oldSelectedRowNum < mCategoryRowAdapter.size())
+                    oldSelectedRow = (ListRow) mCategoryRowAdapter.get(oldSelectedRowNum);
+                applyRows(snapshots);
+                ((MainRowLoader) loader).setPriorRows(snapshots);
+
                 int selectedRowNum = -1;
                 int selectedItemNum = -1;
-
-                // Every time we have to re-get the category loader, we must re-create the sidebar.
-                mCategoryRowAdapter.clear();
-                ArrayObjectAdapter rowObjectAdapter = null;
-                SparseArrayObjectAdapter allObjectAdapter = null;
-                ArrayObjectAdapter rootObjectAdapter = null;
-                videoCursorAdapter.changeCursor(data);
-
-                String currentCategory = null;
-                int currentRowType = -1;
-                String currentItem = null;
-                int currentRowNum = -1;
-                int allRowNum = -1;
-                int rootRowNum = -1;
-                MyHeaderItem header;
-                ListRow row;
-
-                // Create "All" row (but not for videos)
-                if (mType != TYPE_VIDEODIR) {
-                    header = new MyHeaderItem(allTitle,
-                            allType, mBaseName);
-                    allObjectAdapter = new SparseArrayObjectAdapter(new CardPresenter());
-                    row = new ListRow(header, allObjectAdapter);
-                    row.setContentDescription(allTitle);
-                    mCategoryRowAdapter.add(row);
-                    allRowNum = mCategoryRowAdapter.size() - 1;
-                    if (mSelectedRowType == allType
-                            && Objects.equals(allTitle,mSelectedRowName))
-                        selectedRowNum = allRowNum;
-                }
-
-                // Create "Root" row
-                if (mType == TYPE_VIDEODIR) {
-                    String rootTitle = "\t";
-                    header = new MyHeaderItem(rootTitle,
-                            TYPE_VIDEODIR,mBaseName);
-                    rootObjectAdapter = new ArrayObjectAdapter(new CardPresenter());
-                    row = new ListRow(header, rootObjectAdapter);
-                    row.setContentDescription(rootTitle);
-                    mCategoryRowAdapter.add(row);
-                    rootRowNum = mCategoryRowAdapter.size() - 1;
-                    if (mSelectedRowType == TYPE_VIDEODIR
-                            && Objects.equals(rootTitle,mSelectedRowName))
-                        selectedRowNum = rootRowNum;
-                }
-
-                // Iterate through each category entry and add it to the ArrayAdapter.
-                while (cursorHasData && !data.isAfterLast()) {
-
-                    int itemType = -1;
-                    int rowType = -1;
-
-                    String recgroup = data.getString(recgroupIndex);
-                    int rectype = data.getInt(rectypeIndex);
-
-                    String category = null;
-                    Video video = (Video) videoCursorAdapter.get(data.getPosition());
-
-                    // For Rec Group type, only use recordings from that recording group.
-                    // categories are titles.
-                    if (mType == TYPE_RECGROUP) {
-                        category = data.getString(titleIndex);
-                        if (recgroup != null
-                            && (getString(R.string.all_title) + "\t").equals(mBaseName)) {
-                            // Do not mix deleted episodes or LiveTV in the All group
-                            if ("Deleted".equals(recgroup) || "LiveTV".equals(recgroup)) {
-                                data.moveToNext();
-                                continue;
-                            }
-                        } else {
-                            if (!Objects.equals(mBaseName,recgroup)) {
-                                data.moveToNext();
-                                continue;
-                            }
-                        }
-                        if (rectype == VideoContract.VideoEntry.RECTYPE_RECORDING) {
-                            rowType = TYPE_SERIES;
-                            itemType = TYPE_EPISODE;
-                        }
-                        else if (rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL) {
-                            rowType = TYPE_CHANNEL_ALL;
-                            itemType = TYPE_CHANNEL;
-                        }
-                    }
-
-                    // For Top Level type, only use 1 recording from each title
-                    // categories are recgroups
-                    String filename = data.getString(filenameIndex);
-                    String [] fileparts;
-                    String dirname = null;
-                    String itemname = null;
-                    // Split file name and see if it is a directory
-                    if (rectype == VideoContract.VideoEntry.RECTYPE_VIDEO && filename != null) {
-                        String shortName = filename;
-                        // itemlevel 0 means there is only one row for all
-                        // videos so the first part of the name is the entry
-                        // in the row.
-                        int itemlevel = 1;
-                        if (mType == TYPE_VIDEODIR) {
-                            // itemlevel 1 means there is one row for each
-                            // directory so the second part of the name is the entry
-                            // in the row.
-                            itemlevel = 2;
-                            if (mBaseName.length() == 0)
-                                shortName = filename;
-                            else if (shortName.startsWith(mBaseName + "/"))
-                                shortName = filename.substring(mBaseName.length()+1);
-                            else {
-                                data.moveToNext();
-                                continue;
-                            }
-                        }
-                        fileparts = shortName.split("/");
-                        if (fileparts.length == 1 || mType == TYPE_TOPLEVEL) {
-                            itemname = fileparts[0];
-                        }
-                        else {
-                            dirname = fileparts[0];
-                            itemname = fileparts[1];
-                        }
-                        if ((fileparts.length <= 2 && mType == TYPE_VIDEODIR)
-                                || fileparts.length == 1)
-                            itemType = TYPE_VIDEO;
-                        else
-                            itemType = TYPE_VIDEODIR;
-                        if (itemType == TYPE_VIDEODIR && Objects.equals(itemname,currentItem)) {
-                            data.moveToNext();
-                            continue;
-                        }
-                        currentItem = itemname;
-                    }
-
-                    if (mType == TYPE_TOPLEVEL) {
-                        if (rectype == VideoContract.VideoEntry.RECTYPE_VIDEO) {
-                            category = getString(R.string.row_header_videos)+ "\t";
-                            rowType = TYPE_VIDEODIR_ALL;
-                        }
-                        else if (rectype == VideoContract.VideoEntry.RECTYPE_RECORDING
-                                || rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL) {
-                            category = recgroup;
-                            String title;
-                            if (rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL)
-                                title = "Channels\t";
-                            else
-                                title = data.getString(titleIndex);
-                            if (Objects.equals(title,currentItem)) {
-                                data.moveToNext();
-                                continue;
-                            }
-                            currentItem = title;
-                            rowType = TYPE_RECGROUP;
-                            itemType = TYPE_SERIES;
-                        }
-                    }
-
-                    // For Video Directory type, only use videos (recgroup null)
-                    // category is full directory name.
-                    // Only one videos page
-                    // First is "all" row, then "root" row, then dir rows
-                    // mBaseName = "Videos" String
-                    // Display = "Videos" String
-                    if (mType == TYPE_VIDEODIR) {
-                        category = dirname;
-                        rowType = TYPE_VIDEODIR;
-                    }
-
-                    // Change of row
-                    if (category != null && !Objects.equals(category,currentCategory)) {
-                        // Finish off prior row
-                        if (rowObjectAdapter != null) {
-                            // Create header for this category.
-                            header = new MyHeaderItem(currentCategory,
-                                    currentRowType,mBaseName);
-                            row = new ListRow(header, rowObjectAdapter);
-                            row.setContentDescription(currentCategory);
-                            mCategoryRowAdapter.add(row);
-                        }
-                        currentRowNum = mCategoryRowAdapter.size();
-                        currentRowType = rowType;
-                        rowObjectAdapter = new ArrayObjectAdapter(new CardPresenter());
-                        currentCategory = category;
-                        if (mSelectedRowType == rowType
-                                && Objects.equals(currentCategory,mSelectedRowName))
-                            selectedRowNum = currentRowNum;
-                    }
-
-                    // If a directory, create a placeholder for directory name
-                    if (itemType == TYPE_VIDEODIR)
-                        video = new Video.VideoBuilder()
-                                .id(-1).title(itemname)
-                                .recordedid(itemname)
-                                .subtitle("")
-                                .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
-                                .progflags("0")
-                                .build();
-                    video.type = itemType;
-
-                    // Add video to row
-                    if (category != null) {
-                        Video tVideo = video;
-                        if (mType == TYPE_TOPLEVEL && video.rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL) {
-                            // Create dummy video for "All Channels"
-                            tVideo = new Video.VideoBuilder()
-                                    .id(-1).channel(getString(R.string.row_header_channels))
-                                    .rectype(VideoContract.VideoEntry.RECTYPE_CHANNEL)
-                                    .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
-                                    .progflags("0")
-                                    .build();
-                            tVideo.type = TYPE_CHANNEL_ALL;
-                        }
-                        rowObjectAdapter.add(tVideo);
-                        if (selectedRowNum == currentRowNum) {
+                for (int ix = 0; ix < snapshots.size(); ix++) {
+                    RowSnapshot snapshot = snapshots.get(ix);
+                    if (mSelectedRowType == snapshot.rowType
+                            && Objects.equals(snapshot.name, mSelectedRowName)) {
+                        selectedRowNum = ix;
+                        for (int iy = 0; iy < snapshot.items.size(); iy++) {
+                            Video video = snapshot.items.get(iy);
                             if (video.getItemType() == mSelectedItemType
-                                    && Objects.equals(mSelectedItemId,video.recordedid))
-                                selectedItemNum = rowObjectAdapter.size() - 1;
-                        }
-                    }
-
-                    // Add video to "Root" row
-                    if (rootObjectAdapter != null
-                        && category == null) {
-                        rootObjectAdapter.add(video);
-                        if (selectedRowNum == rootRowNum) {
-                            if (video.getItemType() == mSelectedItemType
-                                    && Objects.equals(video.recordedid,mSelectedItemId))
-                                selectedItemNum = rootObjectAdapter.size() - 1;
-                        }
-                    }
-
-                    // Add video to "All" row
-                    if (allObjectAdapter != null && rowType != TYPE_VIDEODIR_ALL
-                        && rectype == VideoContract.VideoEntry.RECTYPE_RECORDING
-                        && !(mType == TYPE_TOPLEVEL && "Deleted".equals(recgroup))) {
-                        int position = 0;
-                        String sortKeyStr = data.getString(sortkey);
-                        if (sortKeyStr != null) {
-                            try {
-                                Date date = sortKeyFormat.parse(sortKeyStr);
-                                // 525960 minutes in a year
-                                // Get position as number of minutes since 1970
-                                position = (int) (date.getTime() / 60000L);
-                                // Add 70 years in case it is before 1970
-                                position += 36817200;
-                                if ("desc".equals(ascdesc))
-                                    position = Integer.MAX_VALUE - position;
-                            } catch (ParseException | NullPointerException e) {
-                                e.printStackTrace();
-                                position = 0;
+                                    && Objects.equals(mSelectedItemId, video.recordedid)) {
+                                selectedItemNum = iy;
+                                break;
                             }
                         }
-                        // Make sure we have an empty slot
-                        try {
-                            while (allObjectAdapter.lookup(position) != null)
-                                position++;
-                        } catch (ArrayIndexOutOfBoundsException e) { }
-
-                        allObjectAdapter.set(position,video);
-
-                        if (selectedRowNum == allRowNum) {
-                            if (video.getItemType() == mSelectedItemType
-                                    && Objects.equals(video.recordedid,mSelectedItemId))
-                                selectedItemNum = position;
-                        }
+                        break;
                     }
-
-                    data.moveToNext();
-                }
-                // Finish off prior row
-                if (rowObjectAdapter != null) {
-                    // Create header for this category.
-                    header = new MyHeaderItem(currentCategory,
-                            currentRowType,mBaseName);
-                    row = new ListRow(header, rowObjectAdapter);
-                    mCategoryRowAdapter.add(row);
-                }
-
-                // Create a row for tools.
-                MyHeaderItem gridHeader = new MyHeaderItem(getString(R.string.row_header_tools),
-                        TYPE_TOOLS,mBaseName);
-                CardPresenter presenter = new CardPresenter();
-                ArrayObjectAdapter toolsRowAdapter = new ArrayObjectAdapter(presenter);
-                row = new ListRow(gridHeader, toolsRowAdapter);
-                mCategoryRowAdapter.add(row);
-
-                Video video = new Video.VideoBuilder()
-                        .id(-1).title(getString(R.string.button_Settings))
-                        .subtitle("")
-                        .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
-                        .progflags("0")
-                        .build();
-                video.type = TYPE_SETTINGS;
-                toolsRowAdapter.add(video);
-
-                video = new Video.VideoBuilder()
-                        .id(-1).title(getString(R.string.button_refresh_lists))
-                        .subtitle("")
-                        .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
-                        .progflags("0")
-                        .build();
-                video.type = TYPE_REFRESH;
-                toolsRowAdapter.add(video);
-
-                video = new Video.VideoBuilder()
-                        .id(-1).title(getString(R.string.button_backend_status))
-                        .subtitle("")
-                        .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
-                        .progflags("0")
-                        .build();
-                video.type = TYPE_INFO;
-                toolsRowAdapter.add(video);
-
-                video = new Video.VideoBuilder()
-                        .id(-1).title(getString(R.string.button_manage_recordings))
-                        .subtitle("")
-                        .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
-                        .progflags("0")
-                        .build();
-                video.type = TYPE_MANAGE;
-                toolsRowAdapter.add(video);
-
-                if (selectedRowNum == allRowNum) {
-                    if (allObjectAdapter == null)
-                        selectedItemNum = -1;
-                    else
-                        selectedItemNum = allObjectAdapter.indexOf(selectedItemNum);
                 }
 
-                if (selectedRowNum != -1) {
+                // If the selected row was kept in place it still has its focus.
+                if (selectedRowNum != -1
+                        && !(selectedRowNum == oldSelectedRowNum
+                            && mCategoryRowAdapter.get(selectedRowNum) == oldSelectedRow)) {
                     SelectionSetter setter = new SelectionSetter(selectedRowNum, selectedItemNum);
 
                     Handler handler = new Handler(Looper.getMainLooper());
@@ -1140,12 +826,56 @@ public class MainFragment extends BrowseSupportFragment
         }
     }
 
+    /**
+     * Bring mCategoryRowAdapter into line with the new rows. Rows that are
+     * unchanged arrive as the same snapshot object and keep their ListRow,
+     * adapter and focus.
+     */
+    private void applyRows(List<RowSnapshot> snapshots) {
+        IdentityHashMap<RowSnapshot, ListRow> newRowMap = new IdentityHashMap<>();
+        ArrayList<ListRow> target = new ArrayList<>(snapshots.size());
+        for (RowSnapshot snapshot : snapshots) {
+            ListRow row = mRowMap.get(snapshot);
+            if (row == null || newRowMap.containsValue(row)) {
+                MyHeaderItem header = new MyHeaderItem(snapshot.name,
+                        snapshot.rowType, snapshot.baseName);
+                ArrayObjectAdapter rowObjectAdapter = new ArrayObjectAdapter(new CardPresenter());
+                rowObjectAdapter.addAll(0, snapshot.items);
+                row = new ListRow(header, rowObjectAdapter);
+                row.setContentDescription(snapshot.name);
+            }
+            newRowMap.put(snapshot, row);
+            target.add(row);
+        }
+        mRowMap = newRowMap;
+
+        for (int ix = 0; ix < target.size(); ix++) {
+            ListRow row = target.get(ix);
+            if (ix < mCategoryRowAdapter.size() && mCategoryRowAdapter.get(ix) == row)
+                continue;
+            int found = mCategoryRowAdapter.indexOf(row);
+            if (found > ix)
+                // Rows in between have gone
+                mCategoryRowAdapter.removeItems(ix, found - ix);
+            else if (ix < mCategoryRowAdapter.size()
+                    && !target.contains(mCategoryRowAdapter.get(ix)))
+                mCategoryRowAdapter.replace(ix, row);
+            else
+                mCategoryRowAdapter.add(ix, row);
+        }
+        if (mCategoryRowAdapter.size() > target.size())
+            mCategoryRowAdapter.removeItems(target.size(),
+                    mCategoryRowAdapter.size() - target.size());
+        mPrefetchRowNum = -1;
+    }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         int loaderId = loader.getId();
-        if (loaderId == CATEGORY_LOADER)
+        if (loaderId == CATEGORY_LOADER) {
             mCategoryRowAdapter.clear();
+            mRowMap.clear();
+        }
     }
 
     public int getType() {
@@ -1259,6 +989,25 @@ public class MainFragment extends BrowseSupportFragment
                 mBackgroundURI = mDefaultBackgroundURI;
 
             startBackgroundTimer();
+            prefetchAdjacentRows(row);
+        }
+    }
+
+    /**
+     * When focus moves to a different row, prefetch the thumbnails for the
+     * rows above and below, so they are in cache before they are scrolled to.
+     */
+    private void prefetchAdjacentRows(Row row) {
+        int rowNum = mCategoryRowAdapter.indexOf(row);
+        if (rowNum == -1 || rowNum == mPrefetchRowNum)
+            return;
+        mPrefetchRowNum = rowNum;
+        for (int ix = rowNum - 1; ix <= rowNum + 1; ix += 2) {
+            if (ix < 0 || ix >= mCategoryRowAdapter.size())
+                continue;
+            Object adjacent = mCategoryRowAdapter.get(ix);
+            if (adjacent instanceof ListRow)
+                ThumbnailLoader.prefetch(getContext(), ((ListRow) adjacent).getAdapter(), 0);
         }
     }
 
@@ -1380,7 +1129,7 @@ public class MainFragment extends BrowseSupportFragment
                     }
                 }
             }
-            if (mFetchTime < System.currentTimeMillis() - 60*60*1000) {
+            if (isRefreshDue()) {
                 Activity activity = MainActivity.getContext();
                 if (activity == null)
                     return;
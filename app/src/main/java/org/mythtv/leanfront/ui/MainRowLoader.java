@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.ui;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+
+import androidx.loader.content.CursorLoader;
+
+import org.mythtv.leanfront.R;
+import org.mythtv.leanfront.data.VideoContract;
+import org.mythtv.leanfront.model.RowSnapshot;
+import org.mythtv.leanfront.model.Video;
+import org.mythtv.leanfront.model.VideoCursorMapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Loader for MainFragment. As well as running the query, this builds the
+ * rows for the browse screen on the loader's background thread, so that
+ * the main thread only has to apply the resulting row snapshots.
+ * Rows whose content has not changed since the prior load are returned
+ * as the prior snapshot object, so the fragment can keep their adapters.
+ */
+public class MainRowLoader extends CursorLoader {
+
+    private final int mType;
+    private final String mBaseName;
+    private final boolean mSortByAirdate;
+    private final boolean mDescending;
+    private volatile List<RowSnapshot> mPriorRows;
+
+    public MainRowLoader(Context context, Uri uri, String selection, String[] selectionArgs,
+                         String sortOrder, int type, String baseName, String seq, String ascdesc) {
+        super(context, uri, null, selection, selectionArgs, sortOrder);
+        mType = type;
+        mBaseName = baseName;
+        mSortByAirdate = "airdate".equals(seq);
+        mDescending = "desc".equals(ascdesc);
+    }
+
+    /**
+     * Cursor returned to onLoadFinished, carrying the rows built from it.
+     */
+    public static class RowModelCursor extends CursorWrapper {
+        private final List<RowSnapshot> mRows;
+
+        RowModelCursor(Cursor cursor, List<RowSnapshot> rows) {
+            super(cursor);
+            mRows = rows;
+        }
+
+        public List<RowSnapshot> getRows() {
+            return mRows;
+        }
+    }
+
+    /**
+     * Tell the loader which rows are currently displayed, for comparison
+     * on the next load.
+     */
+    public void setPriorRows(List<RowSnapshot> rows) {
+        mPriorRows = rows;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null)
+            return null;
+        List<RowSnapshot> rows = buildRows(cursor);
+        List<RowSnapshot> prior = mPriorRows;
+        if (prior != null) {
+            HashMap<String, RowSnapshot> priorMap = new HashMap<>();
+            for (RowSnapshot snapshot : prior)
+                priorMap.put(snapshot.getKey(), snapshot);
+            for (int ix = 0; ix < rows.size(); ix++) {
+                RowSnapshot priorRow = priorMap.get(rows.get(ix).getKey());
+                if (rows.get(ix).sameContent(priorRow))
+                    rows.set(ix, priorRow);
+            }
+        }
+        return new RowModelCursor(cursor, Collections.unmodifiableList(rows));
+    }
+
+    // Entry for the "All" row, sorted after the cursor has been read
+    private static class AllEntry {
+        final String sortKey;
+        final Video video;
+
+        AllEntry(String sortKey, Video video) {
+            this.sortKey = sortKey;
+            this.video = video;
+        }
+    }
+
+    private List<RowSnapshot> buildRows(Cursor data) {
+        Context context = getContext();
+        ArrayList<RowSnapshot> rows = new ArrayList<>();
+        String allTitleDefault = context.getString(R.string.all_title) + "\t";
+        String videosTitle = context.getString(R.string.row_header_videos) + "\t";
+
+        int allType = MainFragment.TYPE_RECGROUP_ALL;
+        String allTitle = null;
+        if (mType == MainFragment.TYPE_TOPLEVEL) {
+            allTitle = allTitleDefault;
+            allType = MainFragment.TYPE_TOP_ALL;
+        }
+        if (mType == MainFragment.TYPE_RECGROUP) {
+            if (!mBaseName.endsWith("\t"))
+                allTitle = mBaseName + "\t";
+            allType = MainFragment.TYPE_RECGROUP_ALL;
+        }
+
+        int rectypeIndex =
+                data.getColumnIndex(VideoContract.VideoEntry.COLUMN_RECTYPE);
+        int recgroupIndex =
+                data.getColumnIndex(VideoContract.VideoEntry.COLUMN_RECGROUP);
+        int titleIndex =
+                data.getColumnIndex(VideoContract.VideoEntry.COLUMN_TITLE);
+        int airdateIndex =
+                data.getColumnIndex(VideoContract.VideoEntry.COLUMN_AIRDATE);
+        int starttimeIndex =
+                data.getColumnIndex(VideoContract.VideoEntry.COLUMN_STARTTIME);
+        int filenameIndex =
+                data.getColumnIndex(VideoContract.VideoEntry.COLUMN_FILENAME);
+        int directoryIndex =
+                data.getColumnIndex(VideoContract.VideoEntry.COLUMN_DIRECTORY);
+        int isDirIndex =
+                data.getColumnIndex(VideoContract.DirEntry.COLUMN_IS_DIR);
+        // Both formats (yyyy-mm-dd and yyyy-mm-ddThh:mm:ssZ) sort correctly
+        // as strings, so they do not need to be parsed into dates.
+        int sortkey = mSortByAirdate ? airdateIndex : starttimeIndex;
+
+        VideoCursorMapper mapper = new VideoCursorMapper();
+        ArrayList<AllEntry> allEntries = null;
+        ArrayList<Video> rootItems = null;
+        ArrayList<Video> rowItems = null;
+
+        String currentCategory = null;
+        int currentRowType = -1;
+        String currentItem = null;
+        int allRowNum = -1;
+        int rootRowNum = -1;
+
+        // Create "All" row (but not for videos)
+        if (mType != MainFragment.TYPE_VIDEODIR) {
+            allEntries = new ArrayList<>();
+            rows.add(null);
+            allRowNum = rows.size() - 1;
+        }
+
+        // Create "Root" row
+        if (mType == MainFragment.TYPE_VIDEODIR) {
+            rootItems = new ArrayList<>();
+            rows.add(null);
+            rootRowNum = rows.size() - 1;
+        }
+
+        // Iterate through each category entry and add it to the row lists.
+        boolean cursorHasData = data.moveToFirst();
+        while (cursorHasData && !data.isAfterLast()) {
+
+            int itemType = -1;
+            int rowType = -1;
+
+            String recgroup = data.getString(recgroupIndex);
+            int rectype = data.getInt(rectypeIndex);
+
+            String category = null;
+
+            // For Rec Group type, only use recordings from that recording group.
+            // categories are titles.
+            if (mType == MainFragment.TYPE_RECGROUP) {
+                category = data.getString(titleIndex);
+                if (recgroup != null && allTitleDefault.equals(mBaseName)) {
+                    // Do not mix deleted episodes or LiveTV in the All group
+                    if ("Deleted".equals(recgroup) || "LiveTV".equals(recgroup)) {
+                        data.moveToNext();
+                        continue;
+                    }
+                } else {
+                    if (!Objects.equals(mBaseName,recgroup)) {
+                        data.moveToNext();
+                        continue;
+                    }
+                }
+                if (rectype == VideoContract.VideoEntry.RECTYPE_RECORDING) {
+                    rowType = MainFragment.TYPE_SERIES;
+                    itemType = MainFragment.TYPE_EPISODE;
+                }
+                else if (rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL) {
+                    rowType = MainFragment.TYPE_CHANNEL_ALL;
+                    itemType = MainFragment.TYPE_CHANNEL;
+                }
+            }
+
+            String dirname = null;
+            String itemname = null;
+            if (rectype == VideoContract.VideoEntry.RECTYPE_VIDEO
+                    && mType == MainFragment.TYPE_VIDEODIR) {
+                // The query selects files in this directory and in each
+                // subdirectory, plus one placeholder per subdirectory of
+                // a subdirectory, with the directory names already split.
+                String directory = data.getString(directoryIndex);
+                itemname = data.getString(titleIndex);
+                if (directory == null || directory.equals(mBaseName))
+                    itemType = MainFragment.TYPE_VIDEO;
+                else {
+                    if (mBaseName.length() == 0)
+                        dirname = directory;
+                    else
+                        dirname = directory.substring(mBaseName.length() + 1);
+                    if (data.getInt(isDirIndex) != 0)
+                        itemType = MainFragment.TYPE_VIDEODIR;
+                    else
+                        itemType = MainFragment.TYPE_VIDEO;
+                }
+            }
+            else if (rectype == VideoContract.VideoEntry.RECTYPE_VIDEO) {
+                // Top level - first part of the file name is a video or directory
+                String filename = data.getString(filenameIndex);
+                if (filename != null) {
+                    String[] fileparts = filename.split("/");
+                    itemname = fileparts[0];
+                    if (fileparts.length == 1)
+                        itemType = MainFragment.TYPE_VIDEO;
+                    else
+                        itemType = MainFragment.TYPE_VIDEODIR;
+                    if (itemType == MainFragment.TYPE_VIDEODIR && Objects.equals(itemname, currentItem)) {
+                        data.moveToNext();
+                        continue;
+                    }
+                    currentItem = itemname;
+                }
+            }
+
+            // For Top Level type, only use 1 recording from each title
+            // categories are recgroups. The summary table supplies
+            // one row per title, so the checks below rarely skip anything.
+            if (mType == MainFragment.TYPE_TOPLEVEL) {
+                if (rectype == VideoContract.VideoEntry.RECTYPE_VIDEO) {
+                    category = videosTitle;
+                    rowType = MainFragment.TYPE_VIDEODIR_ALL;
+                }
+                else if (rectype == VideoContract.VideoEntry.RECTYPE_RECORDING
+                        || rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL) {
+                    category = recgroup;
+                    String title;
+                    if (rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL)
+                        title = "Channels\t";
+                    else
+                        title = data.getString(titleIndex);
+                    if (Objects.equals(title,currentItem)) {
+                        data.moveToNext();
+                        continue;
+                    }
+                    currentItem = title;
+                    rowType = MainFragment.TYPE_RECGROUP;
+                    itemType = MainFragment.TYPE_SERIES;
+                }
+            }
+
+            // For Video Directory type, only use videos (recgroup null)
+            // category is full directory name.
+            if (mType == MainFragment.TYPE_VIDEODIR) {
+                category = dirname;
+                rowType = MainFragment.TYPE_VIDEODIR;
+            }
+
+            // Change of row
+            if (category != null && !Objects.equals(category,currentCategory)) {
+                // Finish off prior row
+                if (rowItems != null)
+                    rows.add(new RowSnapshot(currentCategory, currentRowType, mBaseName, rowItems));
+                currentRowType = rowType;
+                rowItems = new ArrayList<>();
+                currentCategory = category;
+            }
+
+            Video video;
+            // If a directory, create a placeholder for directory name
+            if (itemType == MainFragment.TYPE_VIDEODIR)
+                video = new Video.VideoBuilder()
+                        .id(-1).title(itemname)
+                        .recordedid(itemname)
+                        .subtitle("")
+                        .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
+                        .progflags("0")
+                        .build();
+            else
+                video = (Video) mapper.convert(data);
+            video.type = itemType;
+
+            // Add video to row
+            if (category != null) {
+                Video tVideo = video;
+                if (mType == MainFragment.TYPE_TOPLEVEL
+                        && video.rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL) {
+                    // Create dummy video for "All Channels"
+                    tVideo = new Video.VideoBuilder()
+                            .id(-1).channel(context.getString(R.string.row_header_channels))
+                            .rectype(VideoContract.VideoEntry.RECTYPE_CHANNEL)
+                            .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
+                            .progflags("0")
+                            .build();
+                    tVideo.type = MainFragment.TYPE_CHANNEL_ALL;
+                }
+                rowItems.add(tVideo);
+            }
+
+            // Add video to "Root" row
+            if (rootItems != null && category == null)
+                rootItems.add(video);
+
+            // Add video to "All" row
+            if (allEntries != null && rowType != MainFragment.TYPE_VIDEODIR_ALL
+                    && rectype == VideoContract.VideoEntry.RECTYPE_RECORDING
+                    && !(mType == MainFragment.TYPE_TOPLEVEL && "Deleted".equals(recgroup)))
+                allEntries.add(new AllEntry(data.getString(sortkey), video));
+
+            data.moveToNext();
+        }
+        // Finish off prior row
+        if (rowItems != null)
+            rows.add(new RowSnapshot(currentCategory, currentRowType, mBaseName, rowItems));
+
+        if (allRowNum >= 0) {
+            // Entries without a date go first, as they did when keyed by date.
+            // The sort is stable so equal dates stay in cursor order.
+            Collections.sort(allEntries, (a, b) -> {
+                if (a.sortKey == null || b.sortKey == null)
+                    return a.sortKey == null ? (b.sortKey == null ? 0 : -1) : 1;
+                int result = a.sortKey.compareTo(b.sortKey);
+                return mDescending ? -result : result;
+            });
+            ArrayList<Video> allItems = new ArrayList<>(allEntries.size());
+            for (AllEntry entry : allEntries)
+                allItems.add(entry.video);
+            rows.set(allRowNum, new RowSnapshot(allTitle, allType, mBaseName, allItems));
+        }
+        if (rootRowNum >= 0)
+            rows.set(rootRowNum, new RowSnapshot("\t", MainFragment.TYPE_VIDEODIR,
+                    mBaseName, rootItems));
+
+        rows.add(buildToolsRow(context));
+        return rows;
+    }
+
+    private RowSnapshot buildToolsRow(Context context) {
+        ArrayList<Video> tools = new ArrayList<>();
+        tools.add(buildTool(context, R.string.button_Settings, MainFragment.TYPE_SETTINGS));
+        tools.add(buildTool(context, R.string.button_refresh_lists, MainFragment.TYPE_REFRESH));
+        tools.add(buildTool(context, R.string.button_backend_status, MainFragment.TYPE_INFO));
+        tools.add(buildTool(context, R.string.button_manage_recordings, MainFragment.TYPE_MANAGE));
+        return new RowSnapshot(context.getString(R.string.row_header_tools),
+                MainFragment.TYPE_TOOLS, mBaseName, tools);
+    }
+
+    private static Video buildTool(Context context, int titleRes, int type) {
+        Video video = new Video.VideoBuilder()
+                .id(-1).title(context.getString(titleRes))
+                .subtitle("")
+                .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
+                .progflags("0")
+                .build();
+        video.type = type;
+        return video;
+    }
+}
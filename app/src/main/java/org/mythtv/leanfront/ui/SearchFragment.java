@@ -24,6 +24,7 @@
 
 package org.mythtv.leanfront.ui;
 
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.os.Bundle;
@@ -51,6 +52,9 @@ import android.widget.Toast;
 import org.mythtv.leanfront.BuildConfig;
 import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.data.AsyncBackendCall;
+import org.mythtv.leanfront.data.FetchGuideService;
+import org.mythtv.leanfront.data.GuideDbBuilder;
+import org.mythtv.leanfront.data.VideoDbHelper;
 import org.mythtv.leanfront.data.VideoContract;
 import org.mythtv.leanfront.data.XmlNode;
 import org.mythtv.leanfront.model.GuideSlot;
@@ -60,6 +64,8 @@ import org.mythtv.leanfront.presenter.CardPresenter;
 import org.mythtv.leanfront.presenter.GuideCardPresenter;
 import org.mythtv.leanfront.presenter.GuideCardView;
 
+import java.util.Date;
+
 /*
  * This class demonstrates how to do in-app search
  */
@@ -79,6 +85,9 @@ public class SearchFragment extends SearchSupportFragment
             new CursorObjectAdapter(new CardPresenter());
 
     private int mSearchLoaderId = 1;
+    private int mGuideLoaderId;
+    private boolean mVideoRowAdded = false;
+    private boolean mGuideRowAdded = false;
     private boolean mResultsFound = false;
     private ArrayObjectAdapter mGuideAdapter;
     private boolean mGuideInProgress = false;
@@ -92,6 +101,8 @@ public class SearchFragment extends SearchSupportFragment
 
         setSearchResultProvider(this);
         setOnItemViewClickedListener(new ItemViewClickedListener());
+        // Bring the local guide up to date for searching
+        getActivity().startService(new Intent(getActivity(), FetchGuideService.class));
     }
 
     @Override
@@ -135,13 +146,16 @@ public class SearchFragment extends SearchSupportFragment
             mRowsAdapter.clear();
             mQuery = query;
             mResultsFound = false;
+            mVideoRowAdded = false;
+            mGuideRowAdded = false;
             getLoaderManager().initLoader(mSearchLoaderId++, null, this);
-            searchGuide();
+            mGuideLoaderId = mSearchLoaderId++;
+            getLoaderManager().initLoader(mGuideLoaderId, null, this);
         }
     }
 
     private void searchGuide() {
-        // Search Program Guide
+        // Search Program Guide on the backend
         if (!mGuideInProgress) {
             AsyncBackendCall call = new AsyncBackendCall(this);
             call.setStringParameter(mQuery);
@@ -157,6 +171,8 @@ public class SearchFragment extends SearchSupportFragment
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         String query = mQuery;
+        if (id == mGuideLoaderId)
+            return new GuideSearchLoader(getActivity(), query);
         return new CursorLoader(
                 getActivity(),
                 VideoContract.VideoEntry.CONTENT_URI,
@@ -170,12 +186,17 @@ public class SearchFragment extends SearchSupportFragment
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        if (loader.getId() == mGuideLoaderId) {
+            loadGuideCursor(loader, cursor);
+            return;
+        }
         // Do not refresh on a reload
-        if (mRowsAdapter.size() > 0)
+        if (mVideoRowAdded)
             return;
         int titleRes;
         if (cursor == null || cursor.isClosed())
             return;
+        mVideoRowAdded = true;
         if (cursor.moveToFirst()) {
             mResultsFound = true;
             titleRes = R.string.search_result_videos;
@@ -190,7 +211,61 @@ public class SearchFragment extends SearchSupportFragment
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mVideoCursorAdapter.changeCursor(null);
+        if (loader.getId() != mGuideLoaderId)
+            mVideoCursorAdapter.changeCursor(null);
+    }
+
+    // Guide search results from the local guide table
+    private void loadGuideCursor(Loader<Cursor> loader, Cursor cursor) {
+        // Do not refresh on a reload
+        if (mGuideRowAdded)
+            return;
+        if (cursor == null || cursor.isClosed())
+            return;
+        if (((GuideSearchLoader) loader).isGuideMissing()) {
+            // Local guide not loaded yet. The loader runs again when it
+            // is, in case the backend search has not answered.
+            searchGuide();
+            return;
+        }
+        mGuideRowAdded = true;
+        ArrayObjectAdapter guideAdapter = new ArrayObjectAdapter(new GuideCardPresenter(GuideCardView.TYPE_LARGE));
+        int colChanId = cursor.getColumnIndex(VideoContract.GuideEntry.COLUMN_CHANID);
+        int colStart = cursor.getColumnIndex(VideoContract.GuideEntry.COLUMN_STARTTIME);
+        int colEnd = cursor.getColumnIndex(VideoContract.GuideEntry.COLUMN_ENDTIME);
+        int colTitle = cursor.getColumnIndex(VideoContract.GuideEntry.COLUMN_TITLE);
+        int colSubtitle = cursor.getColumnIndex(VideoContract.GuideEntry.COLUMN_SUBTITLE);
+        int colSeason = cursor.getColumnIndex(VideoContract.GuideEntry.COLUMN_SEASON);
+        int colEpisode = cursor.getColumnIndex(VideoContract.GuideEntry.COLUMN_EPISODE);
+        int colStatus = cursor.getColumnIndex(VideoContract.GuideEntry.COLUMN_RECSTATUS);
+        int colChanDetails = cursor.getColumnIndex(VideoContract.GuideEntry.COLUMN_CHANDETAILS);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            GuideSlot.Program program = new GuideSlot.Program();
+            program.chanId = cursor.getInt(colChanId);
+            program.startTime = new Date(cursor.getLong(colStart));
+            program.endTime = new Date(cursor.getLong(colEnd));
+            program.title = cursor.getString(colTitle);
+            program.subTitle = cursor.getString(colSubtitle);
+            program.season = cursor.getInt(colSeason);
+            program.episode = cursor.getInt(colEpisode);
+            program.recordingStatus = cursor.getString(colStatus);
+            GuideSlot slot = new GuideSlot(program.chanId, cursor.getString(colChanDetails));
+            slot.cellType = GuideSlot.CELL_SEARCHRESULT;
+            slot.timeSlot = program.startTime;
+            slot.program = program;
+            guideAdapter.add(slot);
+        }
+        int titleRes;
+        if (guideAdapter.size() > 0) {
+            mResultsFound = true;
+            titleRes = R.string.search_result_progs;
+        }
+        else
+            titleRes = R.string.search_result_no_progs;
+        HeaderItem header = new HeaderItem(getContext().getString(titleRes,mQuery));
+        Row row = new ListRow(header, guideAdapter);
+        mRowsAdapter.add(row);
     }
 
     @Override
@@ -205,8 +280,9 @@ public class SearchFragment extends SearchSupportFragment
     }
 
     void loadGuideData(XmlNode result) {
-        if (result == null)
+        if (result == null || mGuideRowAdded)
             return;
+        mGuideRowAdded = true;
         ArrayObjectAdapter guideAdapter = new ArrayObjectAdapter(new GuideCardPresenter(GuideCardView.TYPE_LARGE));
         XmlNode programNode = null;
         for (; ; ) {
@@ -242,6 +318,32 @@ public class SearchFragment extends SearchSupportFragment
         mRowsAdapter.add(row);
     }
 
+    /**
+     * Searches the local guide, and also checks in the background whether
+     * the guide has been fetched, for when there are no results.
+     */
+    private static class GuideSearchLoader extends CursorLoader {
+        private volatile boolean mGuideMissing;
+
+        GuideSearchLoader(Context context, String query) {
+            super(context, VideoContract.GuideEntry.SEARCH_URI, null, null,
+                    new String[]{query}, null);
+        }
+
+        @Override
+        public Cursor loadInBackground() {
+            Cursor cursor = super.loadInBackground();
+            mGuideMissing = cursor != null && cursor.getCount() == 0
+                    && !GuideDbBuilder.hasGuide(VideoDbHelper.getInstance(getContext())
+                            .getReadableDatabase());
+            return cursor;
+        }
+
+        boolean isGuideMissing() {
+            return mGuideMissing;
+        }
+    }
+
     private final class ItemViewClickedListener implements OnItemViewClickedListener {
         @Override
         public void onItemClicked(Presenter.ViewHolder itemViewHolder, Object item,
@@ -20,8 +20,11 @@
 package org.mythtv.leanfront.ui;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.text.InputType;
 
@@ -31,6 +34,9 @@ import androidx.leanback.widget.GuidanceStylist;
 import androidx.leanback.widget.GuidedAction;
 
 import org.mythtv.leanfront.R;
+import org.mythtv.leanfront.data.VideoContract;
+import org.mythtv.leanfront.data.VideoDbHelper;
+import org.mythtv.leanfront.data.VideoSummaryBuilder;
 import org.mythtv.leanfront.model.Settings;
 
 import java.util.ArrayList;
@@ -60,6 +66,8 @@ public class SettingsEntryFragment extends GuidedStepSupportFragment {
     private static final int ID_FRAMERATE_MATCH = 22;
     private static final int ID_SUBTITLE_SIZE = 23;
     private static final int ID_ERROR_TOAST = 24;
+    private static final int ID_COMMSKIP = 25;
+    private static final int ID_PARALLEL = 26;
 
     private SharedPreferences.Editor mEditor;
 
@@ -69,6 +77,8 @@ public class SettingsEntryFragment extends GuidedStepSupportFragment {
 
     private String mPriorBackend;
     private String mPriorHttpPort;
+    private String mPriorSeq;
+    private String mPriorAscdesc;
 
     @Override
     public GuidanceStylist.Guidance onCreateGuidance(Bundle savedInstanceState) {
@@ -180,6 +190,22 @@ public class SettingsEntryFragment extends GuidedStepSupportFragment {
                 .description(R.string.pref_error_toast_desc)
                 .checkSetId(GuidedAction.CHECKBOX_CHECK_SET_ID)
                 .build());
+        String commskip = Settings.getString("pref_commskip");
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_COMMSKIP)
+                .title(R.string.pref_commskip)
+                .checked("true".equals(commskip))
+                .description(R.string.pref_commskip_desc)
+                .checkSetId(GuidedAction.CHECKBOX_CHECK_SET_ID)
+                .build());
+        String parallel = Settings.getString("pref_parallel");
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_PARALLEL)
+                .title(R.string.pref_parallel)
+                .checked("true".equals(parallel))
+                .description(R.string.pref_parallel_desc)
+                .checkSetId(GuidedAction.CHECKBOX_CHECK_SET_ID)
+                .build());
         actions.add(new GuidedAction.Builder(getActivity())
                 .id(ID_PLAYBACK)
                 .title(R.string.pref_title_playback)
@@ -407,6 +433,18 @@ public class SettingsEntryFragment extends GuidedStepSupportFragment {
                 else
                     mEditor.putString("pref_error_toast", "false");
                 break;
+            case ID_COMMSKIP:
+                if (action.isChecked())
+                    mEditor.putString("pref_commskip", "true");
+                else
+                    mEditor.putString("pref_commskip", "false");
+                break;
+            case ID_PARALLEL:
+                if (action.isChecked())
+                    mEditor.putString("pref_parallel", "true");
+                else
+                    mEditor.putString("pref_parallel", "false");
+                break;
             default:
                 return false;
         }
@@ -423,6 +461,8 @@ public class SettingsEntryFragment extends GuidedStepSupportFragment {
     public void onResume() {
         mPriorBackend = Settings.getString("pref_backend");
         mPriorHttpPort =  Settings.getString("pref_http_port");
+        mPriorSeq = Settings.getString("pref_seq");
+        mPriorAscdesc = Settings.getString("pref_seq_ascdesc");
         super.onResume();
     }
 
@@ -432,7 +472,22 @@ public class SettingsEntryFragment extends GuidedStepSupportFragment {
         if (!Objects.equals(mPriorBackend, Settings.getString("pref_backend"))
           || !Objects.equals(mPriorHttpPort, Settings.getString("pref_http_port")))
             MainActivity.getContext().getMainFragment().startFetch(-1, null, null);
+        // The summary shows the first of each title in the sort order
+        else if (!Objects.equals(mPriorSeq, Settings.getString("pref_seq"))
+          || !Objects.equals(mPriorAscdesc, Settings.getString("pref_seq_ascdesc")))
+            rebuildSummary(getActivity().getApplicationContext());
         mPriorBackend = null;
         mPriorHttpPort = null;
+        mPriorSeq = null;
+        mPriorAscdesc = null;
+    }
+
+    private static void rebuildSummary(Context context) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            SQLiteDatabase db = VideoDbHelper.getInstance(context).getWritableDatabase();
+            VideoSummaryBuilder.rebuild(db);
+            context.getContentResolver().notifyChange(
+                    VideoContract.SummaryEntry.CONTENT_URI, null);
+        });
     }
 }
@@ -88,6 +88,7 @@ import org.mythtv.leanfront.model.Video;
 import org.mythtv.leanfront.model.VideoCursorMapper;
 import org.mythtv.leanfront.presenter.CardPresenter;
 import org.mythtv.leanfront.presenter.DetailsDescriptionPresenter;
+import org.mythtv.leanfront.presenter.ThumbnailLoader;
 import org.mythtv.leanfront.ui.playback.PlaybackActivity;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -464,22 +465,21 @@ public class VideoDetailsFragment extends DetailsSupportFragment
                 // When loading related videos or videos for the playlist, query by category.
                 int rectype = args.getInt(VideoContract.VideoEntry.COLUMN_RECTYPE);
                 String recgroup = args.getString(VideoContract.VideoEntry.COLUMN_RECGROUP);
-                String filename = args.getString(VideoContract.VideoEntry.COLUMN_FILENAME);
                 if (rectype == VideoContract.VideoEntry.RECTYPE_VIDEO) {
-                    // Videos
-                    int pos = filename.lastIndexOf('/');
-                    String dirname = "";
-                    if (pos >= 0)
-                        dirname = filename.substring(0,pos+1);
-                    dirname = dirname + "%";
+                    // Videos in the same directory
+                    String directory = args.getString(VideoContract.VideoEntry.COLUMN_DIRECTORY);
+                    if (directory == null)
+                        directory = "";
 
                     String orderby = VideoContract.VideoEntry.COLUMN_FILENAME;
                     return new CursorLoader(
                             getActivity(),
                             VideoContract.VideoEntry.CONTENT_URI,
                             null,
-                            VideoContract.VideoEntry.COLUMN_FILENAME + " like ?",
-                            new String[]{dirname},
+                            VideoContract.VideoEntry.COLUMN_DIRECTORY + " = ? AND "
+                                    + VideoContract.VideoEntry.COLUMN_RECTYPE + " = "
+                                    + VideoContract.VideoEntry.RECTYPE_VIDEO,
+                            new String[]{directory},
                             orderby);
                 }
                 else {
@@ -594,7 +594,8 @@ public class VideoDetailsFragment extends DetailsSupportFragment
         Drawable defaultImage = getResources().getDrawable(R.drawable.im_movie, null);
 
         int defaultIcon = R.drawable.im_movie;
-        String imageUrl = mSelectedVideo.cardImageUrl;
+        // Use the same model as the card so the cached thumbnail is reused
+        Object imageUrl = ThumbnailLoader.getModel(mSelectedVideo);
         if (mSelectedVideo.rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL) {
             defaultIcon = R.drawable.im_live_tv;
             try {
@@ -662,7 +663,12 @@ public class VideoDetailsFragment extends DetailsSupportFragment
         args.putInt(VideoContract.VideoEntry.COLUMN_RECTYPE, mSelectedVideo.rectype);
         args.putString(VideoContract.VideoEntry.COLUMN_TITLE, category);
         args.putString(VideoContract.VideoEntry.COLUMN_RECGROUP, mSelectedVideo.recGroup);
-        args.putString(VideoContract.VideoEntry.COLUMN_FILENAME, mSelectedVideo.filename);
+        String directory = null;
+        if (mSelectedVideo.filename != null) {
+            int pos = mSelectedVideo.filename.lastIndexOf('/');
+            directory = pos >= 0 ? mSelectedVideo.filename.substring(0, pos) : "";
+        }
+        args.putString(VideoContract.VideoEntry.COLUMN_DIRECTORY, directory);
         getLoaderManager().initLoader(RELATED_VIDEO_LOADER, args, this);
 
         HeaderItem header = new HeaderItem(0, subcategories[0]);
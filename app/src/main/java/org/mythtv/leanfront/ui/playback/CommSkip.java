@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.ui.playback;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import org.mythtv.leanfront.R;
+import org.mythtv.leanfront.data.CutList;
+import org.mythtv.leanfront.data.VideoContract;
+import org.mythtv.leanfront.model.Settings;
+import org.mythtv.leanfront.model.Video;
+
+/**
+ * Skips the breaks in the cut list of a recording automatically.
+ * When playback reaches the start of a break it seeks to the end. The data
+ * source stops loading at the start of each break, using the file offsets
+ * in the cut list, so that the break is not downloaded before the skip.
+ */
+class CommSkip {
+
+    private static final String TAG = "lfe";
+    private static final String CLASS = "CommSkip";
+    private static final int CHECK_MS = 250;
+    // Skip when playback is this close to the start of a break
+    private static final long BEFORE_MS = 300;
+    // Do not skip when playback started this far into a break
+    private static final long AFTER_MS = 1000;
+    // Loading stops at the key frame after the start of a break, so
+    // playback can end a little before it
+    private static final long END_BEFORE_MS = 5000;
+
+    private final PlaybackFragment mFragment;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mCheck = this::check;
+    private volatile CutList mCutList;
+    private String mRecordedId;
+
+    CommSkip(PlaybackFragment fragment) {
+        mFragment = fragment;
+    }
+
+    /**
+     * @return The list of breaks being skipped, null if not skipping.
+     */
+    CutList getCutList() {
+        return mCutList;
+    }
+
+    /**
+     * Start skipping for a video, if it is a recording and skipping is on.
+     */
+    void start(Video video) {
+        mHandler.removeCallbacks(mCheck);
+        if (video.rectype != VideoContract.VideoEntry.RECTYPE_RECORDING
+                || video.recordedid == null
+                || !"true".equals(Settings.getString("pref_commskip"))) {
+            mCutList = null;
+            mRecordedId = null;
+            return;
+        }
+        if (video.recordedid.equals(mRecordedId)) {
+            if (mCutList != null)
+                mHandler.postDelayed(mCheck, CHECK_MS);
+            return;
+        }
+        String recordedId = video.recordedid;
+        mRecordedId = recordedId;
+        mCutList = null;
+        CutList.load(video, cutList -> {
+            if (!recordedId.equals(mRecordedId) || cutList == null || cutList.isEmpty())
+                return;
+            mCutList = cutList;
+            mHandler.removeCallbacks(mCheck);
+            mHandler.postDelayed(mCheck, CHECK_MS);
+        });
+    }
+
+    /**
+     * Stop checking, when the player is released.
+     */
+    void cancel() {
+        mHandler.removeCallbacks(mCheck);
+    }
+
+    /**
+     * Called when playback ends, which can be because loading stopped at
+     * a break.
+     * @return true if a break was skipped and playback continues
+     */
+    boolean skipAtEnd() {
+        CutList cutList = mCutList;
+        if (cutList == null || mFragment.mPlayer == null)
+            return false;
+        CutList.Break brk = cutList.findBreakStart(mFragment.getPosition(),
+                END_BEFORE_MS, AFTER_MS);
+        if (brk == null)
+            return false;
+        skip(brk);
+        return true;
+    }
+
+    private void check() {
+        CutList cutList = mCutList;
+        if (cutList == null || mFragment.mPlayer == null)
+            return;
+        if (mFragment.mPlayer.getPlayWhenReady() && !mFragment.mTrickPlay.isActive()) {
+            CutList.Break brk = cutList.findBreakStart(mFragment.getPosition(),
+                    BEFORE_MS, AFTER_MS);
+            if (brk != null)
+                skip(brk);
+        }
+        mHandler.postDelayed(mCheck, CHECK_MS);
+    }
+
+    private void skip(CutList.Break brk) {
+        Log.i(TAG, CLASS + " Skipping break " + brk.startMs + " - " + brk.endMs + " ms");
+        mFragment.seekTo(brk.endMs, false);
+        if (mFragment.getActivity() == null)
+            return;
+        if (mFragment.mToast != null)
+            mFragment.mToast.cancel();
+        mFragment.mToast = Toast.makeText(mFragment.getActivity(),
+                R.string.msg_commskip, Toast.LENGTH_SHORT);
+        mFragment.mToast.show();
+    }
+}
@@ -76,12 +76,13 @@ class PlaybackActionListener implements VideoPlayerGlue.OnActionClickedListener
 
     @Override
     public void onPlayCompleted() {
+        // Loading stops at commercial breaks that are skipped
+        if (playbackFragment.mCommSkip.skipAtEnd())
+            return;
         playbackFragment.markWatched(true);
-        if (playbackFragment.mIsBounded) {
-            Log.i(TAG, CLASS + " onPlayCompleted checking File Length.");
-            playbackFragment.mIsPlayResumable = true;
-            playbackFragment.getFileLength();
-        }
+        Log.i(TAG, CLASS + " onPlayCompleted checking File Length.");
+        playbackFragment.mIsPlayResumable = true;
+        playbackFragment.getFileLength();
     }
 
     @Override
@@ -117,6 +118,10 @@ class PlaybackActionListener implements VideoPlayerGlue.OnActionClickedListener
 
     @Override
     public void onCaption() {
+        // The first time, captions are added to the media and selected
+        // when it has been prepared again.
+        if (playbackFragment.enableCaptions())
+            return;
         playbackFragment.mTextSelection = playbackFragment.trackSelector(C.TRACK_TYPE_TEXT, playbackFragment.mTextSelection,
                 R.string.msg_subtitle_on, R.string.msg_subtitle_off, true, true);
     }
@@ -143,10 +148,14 @@ class PlaybackActionListener implements VideoPlayerGlue.OnActionClickedListener
         mDialog.getWindow().setAttributes(lp);
         mDialog.getWindow().setBackgroundDrawable(new ColorDrawable(Color.argb(100,0,0,0)));
         SeekBar seekBar = mDialog.findViewById(R.id.seekbar);
-        seekBar.setMax(800);
-        seekBar.setProgress(Math.round(playbackFragment.mSpeed * 100.0f));
+        // Up to 4x in steps of 10%, then key frame trick play doubling up to 64x
+        seekBar.setMax(TrickPlay.MAX_SPEED * 100);
+        int speed = Math.round(playbackFragment.mSpeed * 100.0f);
+        if (playbackFragment.mTrickPlay.isActive())
+            speed = Math.abs(playbackFragment.mTrickPlay.getSpeed()) * 100;
+        seekBar.setProgress(speed);
         TextView seekValue = mDialog.findViewById(R.id.seekbar_value);
-        seekValue.setText( (int)(playbackFragment.mSpeed * 100.0f) + " %");
+        seekValue.setText(speed + " %");
         mDialog.setOnKeyListener(
             (DialogInterface dlg, int keyCode, KeyEvent event) -> {
                 switch (keyCode) {
@@ -161,17 +170,21 @@ class PlaybackActionListener implements VideoPlayerGlue.OnActionClickedListener
                 switch(keyCode) {
                     case KeyEvent.KEYCODE_DPAD_LEFT:
                     case KeyEvent.KEYCODE_DPAD_DOWN:
-                        if (value > 10)
+                        if (value > TrickPlay.MIN_SPEED * 100)
+                            value /= 2;
+                        else if (value > 10)
                             value -= 10;
                         else
                             return true;
                         break;
                     case KeyEvent.KEYCODE_DPAD_RIGHT:
                     case KeyEvent.KEYCODE_DPAD_UP:
-                        if (value <= 790)
-                            value += 10;
-                        else
+                        if (value >= TrickPlay.MAX_SPEED * 100)
                             return true;
+                        else if (value >= TrickPlay.MIN_SPEED * 100)
+                            value *= 2;
+                        else
+                            value += 10;
                         break;
                     case KeyEvent.KEYCODE_BACK:
                         return false;
@@ -182,6 +195,11 @@ class PlaybackActionListener implements VideoPlayerGlue.OnActionClickedListener
                 }
                 seekBar.setProgress(value);
                 seekValue.setText(value + " %");
+                if (value >= TrickPlay.MIN_SPEED * 100) {
+                    playbackFragment.mTrickPlay.start(value / 100);
+                    return true;
+                }
+                playbackFragment.mTrickPlay.stop();
                 playbackFragment.mSpeed = (float) value * 0.01f;
                 PlaybackParameters parms = new PlaybackParameters(playbackFragment.mSpeed);
                 playbackFragment.mPlayer.setPlaybackParameters(parms);
@@ -569,6 +587,11 @@ class PlaybackActionListener implements VideoPlayerGlue.OnActionClickedListener
         playbackFragment.jumpBack();
     }
 
+    @Override
+    public void onSeek(long position) {
+        playbackFragment.seekTo(position, false);
+    }
+
     @Override
     public void onActionSelected(Action action) {
         playbackFragment.actionSelected(action);
@@ -154,6 +154,40 @@ public class PlaybackActivity extends LeanbackActivity {
                 isSeekBar = true;
             int keycode = event.getKeyCode();
 
+            // Key frame fast forward and rewind
+            TrickPlay trickPlay = mPlaybackFragment.mTrickPlay;
+            if (trickPlay.isActive()) {
+                switch (keycode) {
+                    // Only a fresh press changes the speed, so that
+                    // holding the key to start does not keep raising it
+                    case KeyEvent.KEYCODE_MEDIA_FAST_FORWARD:
+                        if (event.getRepeatCount() == 0)
+                            trickPlay.faster(1);
+                        return true;
+                    case KeyEvent.KEYCODE_MEDIA_REWIND:
+                        if (event.getRepeatCount() == 0)
+                            trickPlay.faster(-1);
+                        return true;
+                    case KeyEvent.KEYCODE_DPAD_CENTER:
+                    case KeyEvent.KEYCODE_ENTER:
+                    case KeyEvent.KEYCODE_MEDIA_PLAY:
+                    case KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE:
+                        trickPlay.stop();
+                        return true;
+                }
+            }
+            else if (event.getRepeatCount() > 0) {
+                // Holding the key down starts it
+                if (keycode == KeyEvent.KEYCODE_MEDIA_FAST_FORWARD) {
+                    trickPlay.start(TrickPlay.MIN_SPEED);
+                    return true;
+                }
+                if (keycode == KeyEvent.KEYCODE_MEDIA_REWIND) {
+                    trickPlay.start(-TrickPlay.MIN_SPEED);
+                    return true;
+                }
+            }
+
             if (keycode == KeyEvent.KEYCODE_DPAD_CENTER
                 || keycode == KeyEvent.KEYCODE_ENTER) {
                 boolean wasVisible = mPlaybackFragment.isControlsOverlayVisible();
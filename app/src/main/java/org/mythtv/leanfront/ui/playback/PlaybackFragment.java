@@ -25,6 +25,7 @@
 package org.mythtv.leanfront.ui.playback;
 
 import android.annotation.TargetApi;
+import android.app.Activity;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -33,6 +34,8 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.Display;
@@ -66,19 +69,27 @@ import androidx.loader.content.Loader;
 
 import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.data.AsyncBackendCall;
+import org.mythtv.leanfront.data.CutList;
 import org.mythtv.leanfront.data.MythHttpDataSource;
+import org.mythtv.leanfront.data.StreamRouter;
 import org.mythtv.leanfront.data.VideoContract;
 import org.mythtv.leanfront.data.XmlNode;
 import org.mythtv.leanfront.model.Playlist;
 import org.mythtv.leanfront.model.Settings;
 import org.mythtv.leanfront.model.Video;
 import org.mythtv.leanfront.model.VideoCursorMapper;
+import org.mythtv.leanfront.player.DecoderProfile;
+import org.mythtv.leanfront.player.GrowingFile;
 import org.mythtv.leanfront.player.MyExtractorsFactory;
+import org.mythtv.leanfront.player.MythLoadControl;
+import org.mythtv.leanfront.player.MythRenderersFactory;
+import org.mythtv.leanfront.player.MythTrackSelector;
+import org.mythtv.leanfront.player.SeekThumbnailProvider;
+import org.mythtv.leanfront.player.TimeShiftBuffer;
 import org.mythtv.leanfront.player.VideoPlayerGlue;
 import org.mythtv.leanfront.presenter.CardPresenter;
 
 import com.google.android.exoplayer2.C;
-import com.google.android.exoplayer2.DefaultRenderersFactory;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.MediaItem;
@@ -97,10 +108,16 @@ import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.text.Cue;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.MappingTrackSelector;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.ui.SubtitleView;
 import com.google.android.exoplayer2.util.Util;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -118,11 +135,16 @@ public class PlaybackFragment extends VideoSupportFragment
     private VideoPlayerGlue mPlayerGlue;
     private LeanbackPlayerAdapter mPlayerAdapter;
     SimpleExoPlayer mPlayer;
-    private DefaultTrackSelector mTrackSelector;
+    private MythTrackSelector mTrackSelector;
+    private MythRenderersFactory mRenderersFactory;
+    private DecoderProfile mDecoderProfile;
     private PlaybackActionListener mPlaybackActionListener;
     private PlayerEventListener mPlayerEventListener;
 
     private Video mVideo;
+    MythLoadControl mLoadControl;
+    final TrickPlay mTrickPlay = new TrickPlay(this);
+    final CommSkip mCommSkip = new CommSkip(this);
     private Playlist mPlaylist;
     private VideoLoaderCallbacks mVideoLoaderCallbacks;
     private CursorObjectAdapter mVideoCursorAdapter;
@@ -138,11 +160,24 @@ public class PlaybackFragment extends VideoSupportFragment
     int mAudioSelection = -2;
     private long mFileLength = -1;
     private MythHttpDataSource.Factory mDsFactory;
+    private MyExtractorsFactory mExtractorsFactory;
+    // CEA-608 captions are only parsed once they have been turned on
+    private boolean mCaptions;
+    private boolean mCaptionsPending;
     ProgressiveMediaSource mMediaSource;
     private MythHttpDataSource mDataSource;
     // Bounded indicates we have a fixed file length
     boolean mIsBounded = true;
-    private long mOffsetBytes = 0;
+    // Length of a file that is still recording, shared with the extractor
+    private GrowingFile mGrowingFile;
+    private ScheduledFuture<?> mGrowCheck;
+    // Recent Live TV bytes, for rewinds without the network. Created on
+    // the first data source open, since sizing the file does disk work.
+    private TimeShiftBuffer mTimeShift;
+    private boolean mWantTimeShift;
+    private Context mAppContext;
+    // Time between file length checks while recording
+    private static final int GROW_CHECK_MS = 30000;
     boolean mIsPlayResumable;
     // Settings
     private int mSkipFwd = 1000 * Settings.getInt("pref_skip_fwd");
@@ -160,6 +195,9 @@ public class PlaybackFragment extends VideoSupportFragment
     private static final String CLASS = "PlaybackFragment";
 
     private XmlNode mStreamInfo = null;
+    // Change in playback being timed, null if none
+    private String mTransition;
+    private long mTransitionStart;
     private Dialog mRateBanner = null;
 
     @Override
@@ -173,8 +211,11 @@ public class PlaybackFragment extends VideoSupportFragment
         mWatched = (Integer.parseInt(mVideo.progflags, 10) & Video.FL_WATCHED) != 0;
 
         // For live TV start off as unbounded
-        if (mRecordid >= 0)
+        if (mRecordid >= 0) {
             mIsBounded = false;
+            mWantTimeShift = true;
+            mAppContext = getContext().getApplicationContext();
+        }
 
         mVideoLoaderCallbacks = new VideoLoaderCallbacks(mPlaylist);
 
@@ -191,6 +232,18 @@ public class PlaybackFragment extends VideoSupportFragment
         mVideoCursorAdapter = setupRelatedVideosCursor();
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        synchronized (this) {
+            mWantTimeShift = false;
+            if (mTimeShift != null) {
+                mTimeShift.release();
+                mTimeShift = null;
+            }
+        }
+    }
+
     @Override
     public void onStart() {
         super.onStart();
@@ -286,49 +339,58 @@ public class PlaybackFragment extends VideoSupportFragment
 
     private void initializePlayer() {
         Log.i(TAG, CLASS + " Initializing Player for " + mVideo.title + " " + mVideo.videoUrl);
-        mTrackSelector = new DefaultTrackSelector(getContext());
-        DefaultRenderersFactory rFactory = new DefaultRenderersFactory(getContext());
-        int extMode = DefaultRenderersFactory.EXTENSION_RENDERER_MODE_ON;
-        if ("mediacodec".equals(mAudio))
-            extMode = DefaultRenderersFactory.EXTENSION_RENDERER_MODE_OFF;
-        else if ("ffmpeg".equals(mAudio))
-            extMode = DefaultRenderersFactory.EXTENSION_RENDERER_MODE_PREFER;
-        rFactory.setExtensionRendererMode(extMode);
-        rFactory.setEnableDecoderFallback(true);
-        SimpleExoPlayer.Builder builder = new SimpleExoPlayer.Builder(getContext(),rFactory);
+        startTransition("start");
+        mTrackSelector = new MythTrackSelector(getContext());
+        // Both audio renderers are built, so that the choice can be
+        // changed during playback without building a new player.
+        mRenderersFactory = new MythRenderersFactory(getContext());
+        mRenderersFactory.setPreferExtensionAudio("ffmpeg".equals(mAudio));
+        // Figures are kept for every path, but only used to choose in auto mode
+        mDecoderProfile = new DecoderProfile(getContext());
+        if ("auto".equals(mAudio))
+            mRenderersFactory.setDecoderProfile(mDecoderProfile);
+        mRenderersFactory.setEnableDecoderFallback(true);
+        SimpleExoPlayer.Builder builder = new SimpleExoPlayer.Builder(getContext(),
+                mRenderersFactory);
         builder.setTrackSelector(mTrackSelector);
+        mLoadControl = new MythLoadControl(getContext());
+        builder.setLoadControl(mLoadControl);
         mPlayer = builder.build();
 
         mSubtitles = getActivity().findViewById(R.id.leanback_subtitles);
         Player.TextComponent textComponent = mPlayer.getTextComponent();
-        if (textComponent != null && mSubtitles != null)
+        if (textComponent != null && mSubtitles != null) {
             mSubtitles.setFractionalTextSize
                     (SubtitleView.DEFAULT_TEXT_SIZE_FRACTION * mSubtitleSize / 100.0f);
             // Code to work around "non-breaking space" bug in Exoplayer
             // Can be removed when that is fixed in ExoPlayer
+            // Cues are passed on as they are unless one needs fixing,
+            // so that most cue events do not allocate anything.
             textComponent.addTextOutput(cues -> {
-                    ArrayList<Cue> newCues = new ArrayList<>();
-                        for (Cue cue: cues) {
-                            if (cue != null && cue.text != null) {
-                                String newText = cue.text.toString();
-                                if (newText.contains("\\h")) {
-                                    Cue.Builder cueBuilder = cue.buildUpon();
-                                    newText = newText.replace("\\h", " ");
-                                    cueBuilder.setText(newText);
-                                    newCues.add(cueBuilder.build());
-                                }
-                                else
-                                    newCues.add(cue);
-                            }
-                            else
+                    List<Cue> newCues = null;
+                    for (int ix = 0; ix < cues.size(); ix++) {
+                        Cue cue = cues.get(ix);
+                        if (cue == null || cue.text == null
+                                || TextUtils.indexOf(cue.text, "\\h") < 0) {
+                            if (newCues != null)
                                 newCues.add(cue);
+                            continue;
                         }
-                    mSubtitles.onCues(newCues);
-            }
+                        if (newCues == null) {
+                            newCues = new ArrayList<>(cues.size());
+                            newCues.addAll(cues.subList(0, ix));
+                        }
+                        String newText = cue.text.toString().replace("\\h", " ");
+                        newCues.add(cue.buildUpon().setText(newText).build());
+                    }
+                    mSubtitles.onCues(newCues == null ? cues : newCues);
+                }
             );
+        }
 
         mPlayerEventListener = new PlayerEventListener();
         mPlayer.addListener(mPlayerEventListener);
+        mPlayer.addAnalyticsListener(mDecoderProfile);
 
         mPlayerAdapter = new LeanbackPlayerAdapter(getActivity(), mPlayer, UPDATE_DELAY);
         if (mPlaybackActionListener == null)
@@ -396,7 +458,7 @@ public class PlaybackFragment extends VideoSupportFragment
         }
     }
 
-    private void enableTrack(int trackType, boolean enable) {
+    void enableTrack(int trackType, boolean enable) {
         MappingTrackSelector.MappedTrackInfo mti = mTrackSelector.getCurrentMappedTrackInfo();
         if (mti == null)
             return;
@@ -413,13 +475,25 @@ public class PlaybackFragment extends VideoSupportFragment
     }
 
     private void releasePlayer() {
+        mTrickPlay.cancel();
+        mCommSkip.cancel();
+        if (mGrowCheck != null) {
+            mGrowCheck.cancel(false);
+            mGrowCheck = null;
+        }
         if (mPlayer != null) {
+            mDecoderProfile.endSession(mPlayer.getVideoDecoderCounters());
+            mDecoderProfile = null;
             mPlayer.release();
             mPlayer = null;
             mTrackSelector = null;
+            mRenderersFactory = null;
             mPlayerGlue = null;
             mPlayerAdapter = null;
             mPlaybackActionListener = null;
+            StreamRouter.logStats();
+            Log.i(TAG, CLASS + " Buffer " + mLoadControl.getDebugInfo());
+            mLoadControl = null;
         }
     }
 
@@ -476,13 +550,20 @@ public class PlaybackFragment extends VideoSupportFragment
                 }
             }
         }
-        if (mIsBounded) {
-            mOffsetBytes = 0;
-            mPlayerGlue.setOffsetMillis(0);
-        }
-        Log.i(TAG, CLASS + " Playing offset mSec:" + mPlayerGlue.getOffsetMillis());
 
         mPlayerGlue.setTitle(video.title);
+        // The card image url was built with the resolved address of the
+        // recording's host, so take the host from it rather than look it up
+        Uri cardUri = null;
+        if (video.rectype == VideoContract.VideoEntry.RECTYPE_RECORDING
+                && video.recordedid != null
+                && video.cardImageUrl != null && video.cardImageUrl.length() > 0)
+            cardUri = Uri.parse(video.cardImageUrl);
+        if (cardUri != null && cardUri.getScheme() != null && cardUri.getAuthority() != null)
+            mPlayerGlue.setSeekProvider(new SeekThumbnailProvider(getContext(), mPlayerGlue,
+                    cardUri.getScheme() + "://" + cardUri.getAuthority(), video.recordedid));
+        else
+            mPlayerGlue.setSeekProvider(null);
 
         StringBuilder subtitle = new StringBuilder();
 
@@ -501,9 +582,9 @@ public class PlaybackFragment extends VideoSupportFragment
         prepareMediaForPlaying(Uri.parse(video.videoUrl));
 
         if (mBookmark > 0)
-            mPlayerGlue.seekTo(mBookmark);
+            mPlayerAdapter.seekTo(mBookmark);
         else
-            mPlayerGlue.seekTo(100);
+            mPlayerAdapter.seekTo(100);
         // disable and enable audio to fix sync errors
         audioFix();
         // set desired playback speed
@@ -512,6 +593,7 @@ public class PlaybackFragment extends VideoSupportFragment
         // This makes future seeks faster.
         mPlayer.setSeekParameters(SeekParameters.CLOSEST_SYNC);
         mPlayerGlue.playWhenPrepared();
+        mCommSkip.start(video);
     }
 
     private int setupRefreshRate() {
@@ -686,13 +768,15 @@ public class PlaybackFragment extends VideoSupportFragment
     private void prepareMediaForPlaying(Uri mediaSourceUri) {
         mFileLength = -1;
         mIsPlayResumable = false;
+        mGrowingFile = new GrowingFile();
         getFileLength();
         String userAgent = Util.getUserAgent(getActivity(), "VideoPlayerGlue");
         mDsFactory = new MythHttpDataSource.Factory(userAgent, this);
-        MyExtractorsFactory extFactory = new MyExtractorsFactory();
+        mExtractorsFactory = new MyExtractorsFactory(mGrowingFile);
+        mExtractorsFactory.setCaptions(mCaptions);
         ProgressiveMediaSource.Factory pmf = new ProgressiveMediaSource.Factory
                 (mDsFactory,
-                        extFactory);
+                        mExtractorsFactory);
         MediaItem item = MediaItem.fromUri(mediaSourceUri);
         mMediaSource = pmf.createMediaSource(item);
         mPlayer.setMediaSource(mMediaSource);
@@ -700,6 +784,25 @@ public class PlaybackFragment extends VideoSupportFragment
     }
 
 
+    /**
+     * Turn on CEA-608 caption parsing, which is left out of the extractor
+     * until captions are first asked for. The media is prepared again at
+     * the same position so that the caption tracks are found, and the first
+     * text track is selected when they are.
+     * @return false if captions were already being parsed
+     */
+    boolean enableCaptions() {
+        if (mCaptions || mPlayer == null || mMediaSource == null)
+            return false;
+        mCaptions = true;
+        mCaptionsPending = true;
+        mExtractorsFactory.setCaptions(true);
+        startTransition("captions");
+        mPlayer.setMediaSource(mMediaSource, mPlayer.getCurrentPosition());
+        mPlayer.prepare();
+        return true;
+    }
+
     private ArrayObjectAdapter initializeRelatedVideosRow() {
         /*
          * To add a new row to the mPlayerAdapter and not lose the controls row that is provided by the
@@ -750,6 +853,7 @@ public class PlaybackFragment extends VideoSupportFragment
             setBookmark();
             mBookmark = 0;
             mVideo = v;
+            startTransition("next");
             play(mVideo);
         }
 
@@ -765,6 +869,7 @@ public class PlaybackFragment extends VideoSupportFragment
             // TODO: Refactor so that we can resume from bookmark
             mBookmark = 0;
             mVideo = v;
+            startTransition("previous");
             play(mVideo);
         }
     }
@@ -803,45 +908,29 @@ public class PlaybackFragment extends VideoSupportFragment
     }
 
     private void moveForward(int millis) {
-        boolean doReset = false;
-        boolean resetDone = false;
-        if (!mIsBounded) {
-            seekTo(-1,true);
-            resetDone = true;
-        }
+        boolean checkLength = false;
         long duration = mPlayerGlue.myGetDuration();
         if (duration > -1) {
             long newPosition = mPlayerGlue.getCurrentPosition() + millis;
             if (newPosition > duration - 1000) {
                 newPosition = duration - 1000;
-                doReset = true;
+                checkLength = true;
             }
-            seekTo(newPosition, doReset && !resetDone);
+            seekTo(newPosition, checkLength);
         }
     }
 
-    // set position to -1 for a reset with no seek.
-    // set doReset true to refresh file size information.
-    // If it is in unbounded state will reset to bounded state
-    // regardless of parameters.
-    private void seekTo(long position, boolean doReset) {
-        long newPosition;
-        if (position == -1)
-            newPosition = mPlayerGlue.getCurrentPosition();
-        else
-            newPosition = position;
-        if (mIsBounded && !doReset) {
-            if (position != -1)
-                mPlayerAdapter.seekTo(newPosition);
-        }
-        else {
-            mIsBounded = true;
-            mBookmark = newPosition;
-            mOffsetBytes = 0;
-            mPlayerGlue.setOffsetMillis(0);
-            mPlayer.stop(true);
-            play(mVideo);
+    // set position to -1 to only check the file length.
+    // set checkLength true to refresh file size information. If the
+    // file has grown the duration is extended without stopping playback.
+    void seekTo(long position, boolean checkLength) {
+        if (position != -1) {
+            if (!mTrickPlay.isActive())
+                startTransition("seek");
+            mPlayerAdapter.seekTo(position);
         }
+        if (checkLength && mFileLength != -1 && mGrowCheck == null)
+            getFileLength();
     }
 
     // trackSelection = current selection. -1 = disabled, -2 = leave as is
@@ -999,21 +1088,35 @@ public class PlaybackFragment extends VideoSupportFragment
                 if (fileLength == -1) {
                     mPlayerEventListener.handlePlayerError(null, R.string.pberror_file_length_fail);
                 }
-                if (mIsPlayResumable) {
-                    if (fileLength > mFileLength) {
-                        mFileLength = fileLength;
-                        mIsBounded = false;
-                        mBookmark = 0;
-                        mOffsetBytes = mDataSource.getCurrentPos();
-                        mPlayerGlue.setOffsetMillis(mPlayerGlue.getCurrentPosition());
-                        Log.i(TAG, CLASS + " Resuming Playback.");
-                        play(mVideo);
+                boolean grown = mFileLength != -1 && fileLength > mFileLength;
+                boolean wasBounded = mIsBounded;
+                if (grown) {
+                    // Still recording, extend the duration and seek map in place
+                    mIsBounded = false;
+                    mGrowingFile.update(fileLength);
+                    mMediaSource.refreshDuration();
+                }
+                if (grown && (wasBounded || mIsPlayResumable)) {
+                    // Loading stopped at the old end, start it again from here
+                    Log.i(TAG, CLASS + " Resuming Playback.");
+                    startTransition("resume");
+                    mPlayerAdapter.seekTo(mPlayerGlue.getCurrentPosition());
+                    if (mIsPlayResumable)
                         hideControlsOverlay(false);
-                    }
-                    else Log.i(TAG, CLASS + " Playback ending at EOF.");
                 }
-                mFileLength = fileLength;
+                else if (mIsPlayResumable)
+                    Log.i(TAG, CLASS + " Playback ending at EOF.");
+                // Check again later for a recording that may still be recording.
+                // The checks end when one finds no growth or the recording
+                // has ended, and a seek near the end starts them again.
+                boolean firstCheck = mFileLength == -1;
+                if (fileLength > mFileLength)
+                    mFileLength = fileLength;
                 mIsPlayResumable = false;
+                if ((grown || (firstCheck
+                        && mVideo.rectype == VideoContract.VideoEntry.RECTYPE_RECORDING))
+                        && !isRecordingEnded())
+                    scheduleGrowCheck();
                 break;
             case Video.ACTION_GET_STREAM_INFO:
                 if (mVideo == taskRunner.getVideo())
@@ -1049,8 +1152,98 @@ public class PlaybackFragment extends VideoSupportFragment
         return mIsBounded;
     }
 
-    public long getOffsetBytes() {
-        return mOffsetBytes;
+    /**
+     * @return Length of the file being played, which may still be growing
+     */
+    public GrowingFile getGrowingFile() {
+        return mGrowingFile;
+    }
+
+    /**
+     * @return Load control of the player, for memory used by the data source
+     */
+    public MythLoadControl getLoadControl() {
+        return mLoadControl;
+    }
+
+    /**
+     * Called from the data source, off the main thread. The buffer is
+     * created by the first call.
+     * @return Buffer of recent Live TV bytes, null if not Live TV
+     */
+    public synchronized TimeShiftBuffer getTimeShiftBuffer() {
+        if (mWantTimeShift && mTimeShift == null) {
+            mWantTimeShift = false;
+            mTimeShift = TimeShiftBuffer.create(mAppContext);
+        }
+        return mTimeShift;
+    }
+
+    // true if the end time of the recording has passed, so that it is no
+    // longer growing. Live TV keeps recording, so it has not ended.
+    private boolean isRecordingEnded() {
+        if (mRecordid >= 0 || mVideo.endtime == null)
+            return false;
+        try {
+            SimpleDateFormat dbFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'Z");
+            Date dateEnd = dbFormat.parse(mVideo.endtime + "+0000");
+            return dateEnd.getTime() < System.currentTimeMillis();
+        } catch (ParseException e) {
+            Log.e(TAG, CLASS + " Exception parsing endtime.", e);
+            return false;
+        }
+    }
+
+    private void scheduleGrowCheck() {
+        ScheduledExecutorService executor = MainFragment.getExecutor();
+        if (executor == null || mGrowCheck != null)
+            return;
+        mGrowCheck = executor.schedule(() -> {
+            Activity activity = getActivity();
+            if (activity != null)
+                activity.runOnUiThread(() -> {
+                    mGrowCheck = null;
+                    if (mPlayer != null)
+                        getFileLength();
+                });
+        }, GROW_CHECK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Backend that has the file being played, null if not known
+     */
+    public String getFileHost() {
+        Video video = mVideo;
+        return video == null ? null : video.fileHost;
+    }
+
+    /**
+     * @return Breaks to stop loading at, null if they are not being skipped
+     */
+    public CutList getSkipList() {
+        return mCommSkip.getCutList();
+    }
+
+    long getPosition() {
+        return mPlayerGlue.getCurrentPosition();
+    }
+
+    long getPlayDuration() {
+        return mPlayerGlue.myGetDuration();
+    }
+
+    /**
+     * Show the playback speed.
+     * @param percent Speed as a percentage, negative for rewind
+     */
+    void showSpeed(int percent) {
+        StringBuilder msg = new StringBuilder(getActivity().getString(R.string.playback_speed))
+                .append(" ").append(percent).append("%");
+        if (mToast != null)
+            mToast.cancel();
+        mToast = Toast.makeText(getActivity(),
+                msg, Toast.LENGTH_LONG);
+        mToast.show();
     }
 
     public void resetSpeed() {
@@ -1072,15 +1265,16 @@ public class PlaybackFragment extends VideoSupportFragment
         if (duration > 0 || !mIsBounded) {
             // If we cannot change speed, switch to ffmpeg audio.
             if (!"ffmpeg".equals(mAudio)) {
+                // Move the audio to the FFmpeg renderer of the same player
                 mAudio = "ffmpeg";
-                mBookmark = mPlayerGlue.getCurrentPosition();
-                mIsBounded = true;
-                mOffsetBytes = 0;
-                mPlayerGlue.setOffsetMillis(0);
-                mPlayer.stop(true);
-                initializePlayer();
+                startTransition("audio renderer");
+                mDecoderProfile.speedFailed();
+                mRenderersFactory.setPreferExtensionAudio(true);
+                mTrackSelector.reselect();
+                mPlayer.setPlaybackParameters(new PlaybackParameters(mSpeed));
                 return;
             }
+            mDecoderProfile.speedFailed();
             mSpeed = SPEED_START_VALUE;
             if (mToast != null)
                 mToast.cancel();
@@ -1188,8 +1382,10 @@ public class PlaybackFragment extends VideoSupportFragment
                 do {
                     Video video = (Video) mVideoCursorMapper.convert(cursor);
 
-                    // Set the current position to the selected video.
-                    if (video.id == mVideo.id) {
+                    // Set the current position to the selected video. Live TV
+                    // has no row id, so match on the recording instead.
+                    if (video.rectype == mVideo.rectype
+                            && TextUtils.equals(video.recordedid, mVideo.recordedid)) {
                         playlist.setCurrentPosition(playlist.size());
                     }
 
@@ -1207,6 +1403,38 @@ public class PlaybackFragment extends VideoSupportFragment
         }
     }
 
+    /**
+     * Start timing a change in playback, which ends when the player is
+     * ready to play.
+     */
+    private void startTransition(String name) {
+        mTransition = name;
+        mTransitionStart = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Start measuring the audio codec and decoder path that have been
+     * selected, for the decoder profile.
+     */
+    private void startDecoderSession(TrackSelectionArray selections) {
+        if (mDecoderProfile == null || mTrackSelector == null)
+            return;
+        MappingTrackSelector.MappedTrackInfo mti = mTrackSelector.getCurrentMappedTrackInfo();
+        if (mti == null)
+            return;
+        for (int rendIx = 0; rendIx < mti.getRendererCount()
+                && rendIx < selections.length; rendIx++) {
+            TrackSelection selection = selections.get(rendIx);
+            if (selection == null || mti.getRendererType(rendIx) != C.TRACK_TYPE_AUDIO)
+                continue;
+            String path = mti.getRendererName(rendIx).startsWith("MediaCodec")
+                    ? DecoderProfile.PATH_MEDIACODEC : DecoderProfile.PATH_EXTENSION;
+            mDecoderProfile.startSession(selection.getSelectedFormat().sampleMimeType,
+                    path, mPlayer.getVideoDecoderCounters());
+            return;
+        }
+    }
+
     class PlayerEventListener implements Player.EventListener {
         private int mDialogStatus = 0;
         private static final int DIALOG_NONE   = 0;
@@ -1215,18 +1443,34 @@ public class PlaybackFragment extends VideoSupportFragment
         private static final int DIALOG_RETRY  = 3;
         private long mTimeLastError = 0;
 
+        @Override
+        public void onPlaybackStateChanged(int state) {
+            if (state == Player.STATE_READY && mTransition != null) {
+                Log.i(TAG, CLASS + " Transition " + mTransition + " took "
+                        + (SystemClock.elapsedRealtime() - mTransitionStart) + " ms");
+                mTransition = null;
+            }
+        }
+
         @Override
         public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
-            int stretchPerc = Math.round(playbackParameters.speed * 100.0f);
-            StringBuilder msg = new StringBuilder(getActivity().getString(R.string.playback_speed))
-                    .append(" ").append(stretchPerc).append("%");
-            if (mToast != null)
-                mToast.cancel();
-            mToast = Toast.makeText(getActivity(),
-                    msg, Toast.LENGTH_LONG);
-            mToast.show();
+            showSpeed(Math.round(playbackParameters.speed * 100.0f));
             if (playbackParameters.speed == 1.0f && mSpeed != 1.0f)
                 fixSpeed();
+            else if (playbackParameters.speed != 1.0f && playbackParameters.speed == mSpeed
+                    && mDecoderProfile != null)
+                mDecoderProfile.speedApplied();
+        }
+
+        @Override
+        public void onTracksChanged(TrackGroupArray trackGroups,
+                                    TrackSelectionArray trackSelections) {
+            startDecoderSession(trackSelections);
+            if (mCaptionsPending && trackGroups.length > 0) {
+                mCaptionsPending = false;
+                mTextSelection = trackSelector(C.TRACK_TYPE_TEXT, -1,
+                        R.string.msg_subtitle_on, R.string.msg_subtitle_off, true, true);
+            }
         }
 
         @Override
@@ -1246,6 +1490,8 @@ public class PlaybackFragment extends VideoSupportFragment
                     case ExoPlaybackException.TYPE_OUT_OF_MEMORY:
                         msgNum = R.string.pberror_out_of_memory;
                         cause = error.getOutOfMemoryError();
+                        if (mLoadControl != null)
+                            Log.e(TAG, CLASS + " Out of memory, buffer " + mLoadControl.getDebugInfo());
                         break;
                     case ExoPlaybackException.TYPE_REMOTE:
                         msgNum = R.string.pberror_remote;
@@ -1317,6 +1563,7 @@ public class PlaybackFragment extends VideoSupportFragment
                         else {
                             // Try to continue playback
                             mBookmark = currPos;
+                            startTransition("retry");
                             play(mVideo);
                         }
                         if (!audioTrackChange)
@@ -1356,6 +1603,7 @@ public class PlaybackFragment extends VideoSupportFragment
                     case DialogInterface.BUTTON_POSITIVE:
                         mDialogStatus = DIALOG_RETRY;
                         mBookmark = mPlayerGlue.getSavedCurrentPosition();
+                        startTransition("retry");
                         play(mVideo);
                         break;
                     case DialogInterface.BUTTON_NEGATIVE:
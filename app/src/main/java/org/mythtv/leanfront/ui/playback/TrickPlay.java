@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2019-2020 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.ui.playback;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Player;
+
+/**
+ * Fast forward and rewind at 4x to 64x by showing key frames only.
+ * The player is paused with audio disabled and is moved on in steps with
+ * seeks to the nearest key frame. While paused only the frame at the seek
+ * position is decoded, and MythLoadControl loads just enough data for it.
+ * Each step goes to where the chosen speed should be by then, so a slow
+ * seek skips key frames instead of falling behind.
+ */
+class TrickPlay {
+
+    static final int MIN_SPEED = 4;
+    static final int MAX_SPEED = 64;
+    // Time between steps
+    private static final int STEP_MS = 500;
+    // Wait for a seek to finish, but not forever
+    private static final int SEEK_POLL_MS = 50;
+    private static final int SEEK_WAIT_MS = 2000;
+    // Stop this far from the end of the recording
+    private static final int END_MARGIN_MS = 1000;
+
+    private final PlaybackFragment mFragment;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mStep = this::step;
+    // Negative for rewind, 0 when not active
+    private int mSpeed;
+    private long mStartPosition;
+    private long mStartTime;
+    private long mSeekTime;
+
+    TrickPlay(PlaybackFragment fragment) {
+        mFragment = fragment;
+    }
+
+    boolean isActive() {
+        return mSpeed != 0;
+    }
+
+    int getSpeed() {
+        return mSpeed;
+    }
+
+    /**
+     * Start, or change the speed.
+     * @param speed Multiple of normal speed, negative for rewind
+     */
+    void start(int speed) {
+        int magnitude = Math.max(MIN_SPEED, Math.min(MAX_SPEED, Math.abs(speed)));
+        speed = speed < 0 ? -magnitude : magnitude;
+        if (!isActive()) {
+            mFragment.mPlayer.setPlayWhenReady(false);
+            mFragment.enableTrack(C.TRACK_TYPE_AUDIO, false);
+            if (mFragment.mLoadControl != null)
+                mFragment.mLoadControl.setTrickPlay(true);
+        }
+        mSpeed = speed;
+        mStartPosition = mFragment.getPosition();
+        mStartTime = SystemClock.elapsedRealtime();
+        mFragment.showSpeed(mSpeed * 100);
+        mHandler.removeCallbacks(mStep);
+        mHandler.postDelayed(mStep, STEP_MS);
+    }
+
+    /**
+     * Double the speed in a direction, or slow down if going the other way.
+     * @param direction 1 for forward, -1 for rewind
+     */
+    void faster(int direction) {
+        int speed;
+        if (mSpeed * direction > 0)
+            speed = mSpeed * 2;
+        else if (Math.abs(mSpeed) > MIN_SPEED)
+            speed = mSpeed / 2;
+        else
+            speed = MIN_SPEED * direction;
+        start(speed);
+    }
+
+    /**
+     * Go back to normal playback at the current position.
+     */
+    void stop() {
+        if (!isActive())
+            return;
+        cancel();
+        if (mFragment.mLoadControl != null)
+            mFragment.mLoadControl.setTrickPlay(false);
+        mFragment.enableTrack(C.TRACK_TYPE_AUDIO, true);
+        mFragment.mPlayer.setPlayWhenReady(true);
+        mFragment.showSpeed(Math.round(mFragment.mSpeed * 100.0f));
+    }
+
+    /**
+     * Stop stepping without touching the player, when it is released.
+     */
+    void cancel() {
+        mHandler.removeCallbacks(mStep);
+        mSpeed = 0;
+    }
+
+    private void step() {
+        if (!isActive() || mFragment.mPlayer == null)
+            return;
+        long now = SystemClock.elapsedRealtime();
+        if (mFragment.mPlayer.getPlaybackState() == Player.STATE_BUFFERING
+                && now - mSeekTime < SEEK_WAIT_MS) {
+            mHandler.postDelayed(mStep, SEEK_POLL_MS);
+            return;
+        }
+        long target = mStartPosition + (now - mStartTime) * mSpeed;
+        long duration = mFragment.getPlayDuration();
+        boolean atEnd = false;
+        if (target <= 0) {
+            target = 0;
+            atEnd = true;
+        }
+        else if (duration > 0 && target >= duration - END_MARGIN_MS) {
+            target = duration - END_MARGIN_MS;
+            atEnd = true;
+        }
+        mFragment.seekTo(target, false);
+        mSeekTime = now;
+        if (atEnd)
+            stop();
+        else
+            mHandler.postDelayed(mStep, STEP_MS);
+    }
+}